@@ -0,0 +1,87 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import org.slf4j.MDC;
+
+import com.google.cloud.broker.apps.brokerserver.sessions.Session;
+import com.google.cloud.broker.authentication.backends.AbstractAuthenticationBackend;
+
+/**
+ * Caller of the current gRPC call, as authenticated by the {@link AuthenticationServerInterceptor}.
+ */
+public final class AuthenticatedCaller {
+
+    public enum Mode {
+        DIRECT,     // With the caller's own credentials (e.g. SPNEGO token or authentication cookie)
+        DELEGATED   // With a session token
+    }
+
+    static final Context.Key<AuthenticatedCaller> CONTEXT_KEY = Context.key("AuthenticatedCaller");
+
+    private final String principal;
+    private final Mode mode;
+    private final Session session;
+
+    private AuthenticatedCaller(String principal, Mode mode, Session session) {
+        this.principal = principal;
+        this.mode = mode;
+        this.session = session;
+    }
+
+    public static AuthenticatedCaller direct(String principal) {
+        return new AuthenticatedCaller(principal, Mode.DIRECT, null);
+    }
+
+    public static AuthenticatedCaller delegated(Session session) {
+        return new AuthenticatedCaller(session.getOwner(), Mode.DELEGATED, session);
+    }
+
+    /**
+     * Returns the caller of the current call, and records it in the logging context.
+     */
+    public static AuthenticatedCaller getCurrent() {
+        AuthenticatedCaller caller = CONTEXT_KEY.get();
+        if (caller == null) {
+            throw Status.UNAUTHENTICATED.withDescription("Unauthenticated call").asRuntimeException();
+        }
+        MDC.put(AbstractAuthenticationBackend.AUTHENTICATED_USER, caller.principal);
+        return caller;
+    }
+
+    /**
+     * Returns the principal of the current caller, who must have authenticated with its own credentials.
+     */
+    public static String getCurrentDirectPrincipal() {
+        AuthenticatedCaller caller = getCurrent();
+        if (caller.mode != Mode.DIRECT) {
+            throw Status.UNAUTHENTICATED.withDescription("Session tokens can only be used to get access tokens").asRuntimeException();
+        }
+        return caller.principal;
+    }
+
+    public String getPrincipal() {
+        return principal;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // Only set in delegated mode
+    public Session getSession() {
+        return session;
+    }
+
+}
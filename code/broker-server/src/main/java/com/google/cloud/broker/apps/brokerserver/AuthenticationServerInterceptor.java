@@ -0,0 +1,63 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver;
+
+import io.grpc.*;
+import org.slf4j.MDC;
+
+import com.google.cloud.broker.apps.brokerserver.logging.LoggingUtils;
+import com.google.cloud.broker.apps.brokerserver.sessions.SessionAuthenticator;
+import com.google.cloud.broker.authentication.AuthorizationHeaderServerInterceptor;
+import com.google.cloud.broker.authentication.backends.AbstractAuthenticationBackend;
+
+/**
+ * Authenticates each call once, before its request is deserialized, and makes the result available
+ * to the endpoints with {@link AuthenticatedCaller#getCurrent()}. Unauthenticated calls are rejected
+ * right away. Must run after the {@link AuthorizationHeaderServerInterceptor}.
+ */
+public class AuthenticationServerInterceptor implements ServerInterceptor {
+
+    private static final String SESSION_AUTH_SCHEME = "BrokerSession";
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> serverCall, Metadata metadata, ServerCallHandler<ReqT, RespT> serverCallHandler) {
+        AuthenticatedCaller caller;
+        try {
+            caller = authenticate();
+        } catch (StatusRuntimeException e) {
+            // Full method names are "[service]/[method]"
+            String methodName = serverCall.getMethodDescriptor().getFullMethodName();
+            MDC.put(LoggingUtils.MDC_METHOD_NAME_KEY, methodName.substring(methodName.lastIndexOf('/') + 1));
+            LoggingUtils.errorAuditLog(e);
+            serverCall.close(e.getStatus(), e.getTrailers() == null ? new Metadata() : e.getTrailers());
+            return new ServerCall.Listener<>() {};
+        }
+        Context ctx = Context.current().withValue(AuthenticatedCaller.CONTEXT_KEY, caller);
+        return Contexts.interceptCall(ctx, serverCall, metadata, serverCallHandler);
+    }
+
+    static AuthenticatedCaller authenticate() {
+        String authorizationHeader = AuthorizationHeaderServerInterceptor.BROKER_AUTHORIZATION_CONTEXT_KEY.get();
+        if (authorizationHeader == null) {
+            throw Status.UNAUTHENTICATED.withDescription("Missing `broker-authorization` metadata").asRuntimeException();
+        }
+        int separator = authorizationHeader.indexOf(' ');
+        String scheme = separator < 0 ? authorizationHeader : authorizationHeader.substring(0, separator);
+        if (scheme.equals(SESSION_AUTH_SCHEME)) {
+            String token = authorizationHeader.substring(separator + 1).trim();
+            return AuthenticatedCaller.delegated(new SessionAuthenticator().authenticateSession(token));
+        }
+        // Any other scheme is handled by the authentication backend
+        return AuthenticatedCaller.direct(AbstractAuthenticationBackend.getInstance().authenticateUser());
+    }
+
+}
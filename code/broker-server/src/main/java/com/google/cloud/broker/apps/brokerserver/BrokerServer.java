@@ -33,12 +33,24 @@ import org.slf4j.LoggerFactory;
 import com.google.cloud.broker.checks.SystemCheck;
 import com.google.cloud.broker.secretmanager.SecretManager;
 import com.google.cloud.broker.authentication.AuthorizationHeaderServerInterceptor;
+import com.google.cloud.broker.apps.brokerserver.logging.CacheStatsLogger;
 import com.google.cloud.broker.apps.brokerserver.logging.LoggingUtils;
 import com.google.cloud.broker.apps.brokerserver.endpoints.GetAccessToken;
 import com.google.cloud.broker.apps.brokerserver.endpoints.GetSessionToken;
 import com.google.cloud.broker.apps.brokerserver.endpoints.RenewSessionToken;
 import com.google.cloud.broker.apps.brokerserver.endpoints.CancelSessionToken;
+import com.google.cloud.broker.apps.brokerserver.endpoints.GetCacheStats;
+import com.google.cloud.broker.apps.brokerserver.accesstokens.AccessTokenWarmUp;
+import com.google.cloud.broker.apps.brokerserver.accesstokens.providers.AbstractProvider;
+import com.google.cloud.broker.apps.brokerserver.sessions.SessionSweeper;
+import com.google.cloud.broker.apps.brokerserver.validation.AllowlistIndex;
+import com.google.cloud.broker.apps.brokerserver.validation.GroupMembershipCache;
 import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.authentication.backends.AbstractAuthenticationBackend;
+import com.google.cloud.broker.caching.remote.AbstractRemoteCache;
+import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
+import com.google.cloud.broker.encryption.backends.AbstractEncryptionBackend;
+import com.google.cloud.broker.usermapping.AbstractUserMapper;
 
 // Classes dynamically generated by protobuf-maven-plugin:
 import com.google.cloud.broker.apps.brokerserver.protobuf.*;
@@ -49,12 +61,19 @@ public class BrokerServer {
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     private Server server;
+    private SessionSweeper sessionSweeper;
+    private AccessTokenWarmUp accessTokenWarmUp;
+    private CacheStatsLogger cacheStatsLogger;
+    private GroupMembershipCache groupMembershipCache;
 
     private final String host;
     private final int port;
     private final boolean tlsEnabled;
+    // Note: The interceptors run in reverse order, so the calls are authenticated once the metadata is in the context
     private static ServerServiceDefinition serviceDefinition = ServerInterceptors.intercept(
-        new BrokerImpl(), new AuthorizationHeaderServerInterceptor(), new ClientAddressServerInterceptor());
+        new BrokerImpl(), new AuthenticationServerInterceptor(), new AuthorizationHeaderServerInterceptor(), new ClientAddressServerInterceptor());
+    private static ServerServiceDefinition adminServiceDefinition = ServerInterceptors.intercept(
+        new BrokerAdminImpl(), new AuthenticationServerInterceptor(), new AuthorizationHeaderServerInterceptor(), new ClientAddressServerInterceptor());
 
     private BrokerServer() {
         this.host = AppSettings.getInstance().getString(AppSettings.SERVER_HOST);
@@ -77,14 +96,54 @@ public class BrokerServer {
         return serviceDefinition;
     }
 
+    static ServerServiceDefinition getAdminServiceDefinition() {
+        return adminServiceDefinition;
+    }
+
+    // Constructs the components up front, so that the first requests don't have to
+    private static void resolveComponents() {
+        AbstractAuthenticationBackend.getInstance();
+        AbstractProvider.getInstance();
+        AbstractDatabaseBackend.getInstance();
+        AbstractEncryptionBackend.getInstance();
+        AbstractRemoteCache.getInstance();
+        AbstractUserMapper.getInstance();
+        AllowlistIndex.getInstance();
+    }
+
     private void start() throws IOException {
+        resolveComponents();
+        if (AppSettings.getInstance().getBoolean(AppSettings.ACCESS_TOKEN_WARM_UP_ENABLED)) {
+            // Warm up the local cache before listening, so that no requests are served meanwhile
+            accessTokenWarmUp = new AccessTokenWarmUp();
+            try {
+                int numLoaded = accessTokenWarmUp.warmUp();
+                logger.info("Warmed up the local cache with access token(s): " + numLoaded);
+            } catch (Exception e) {
+                logger.error("Failed to warm up the local cache", e);
+            }
+            accessTokenWarmUp.start();
+        }
         NettyServerBuilder builder = NettyServerBuilder.forAddress(new InetSocketAddress(host, port))
-            .addService(serviceDefinition);
+            .addService(serviceDefinition)
+            .addService(adminServiceDefinition);
         if (tlsEnabled) {
             builder.sslContext(getSslContextBuilder().build());
         }
         server =  builder.build().start();
         logger.info("Server listening on " + port + "...");
+        if (AppSettings.getInstance().getInt(AppSettings.LOGGING_CACHE_STATS_INTERVAL) > 0) {
+            cacheStatsLogger = new CacheStatsLogger();
+            cacheStatsLogger.start();
+        }
+        if (AppSettings.getInstance().getBoolean(AppSettings.SESSION_SWEEPER_ENABLED)) {
+            sessionSweeper = new SessionSweeper();
+            sessionSweeper.start();
+        }
+        if (AppSettings.getInstance().getInt(AppSettings.PROXY_USER_GROUPS_REFRESH_INTERVAL) > 0) {
+            groupMembershipCache = GroupMembershipCache.getInstance();
+            groupMembershipCache.start();
+        }
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
@@ -97,6 +156,18 @@ public class BrokerServer {
         if (server != null) {
             server.shutdown();
         }
+        if (sessionSweeper != null) {
+            sessionSweeper.stop();
+        }
+        if (accessTokenWarmUp != null) {
+            accessTokenWarmUp.stop();
+        }
+        if (cacheStatsLogger != null) {
+            cacheStatsLogger.stop();
+        }
+        if (groupMembershipCache != null) {
+            groupMembershipCache.stop();
+        }
     }
 
 
@@ -164,6 +235,20 @@ public class BrokerServer {
         }
     }
 
+    static class BrokerAdminImpl extends BrokerAdminGrpc.BrokerAdminImplBase {
+
+        @Override
+        public void getCacheStats(GetCacheStatsRequest request, StreamObserver<GetCacheStatsResponse> responseObserver) {
+            try {
+                GetCacheStats.run(request, responseObserver);
+            }
+            catch (StatusRuntimeException e) {
+                LoggingUtils.errorAuditLog(e);
+                responseObserver.onError(e);
+            }
+        }
+    }
+
     public static void main(String[] args) throws IOException, InterruptedException {
         setLoggingLevel();
         SecretManager.downloadSecrets();
@@ -37,6 +37,8 @@ public class AccessTokenCacheFetcher extends CacheFetcher {
         this.owner = owner;
         this.scopes = scopes;
         this.target = target;
+        this.stampedeProtection = StampedeProtection.fromName(
+            AppSettings.getInstance().getString(AppSettings.ACCESS_TOKEN_STAMPEDE_PROTECTION));
     }
 
     @Override
@@ -0,0 +1,229 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.accesstokens;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.broker.caching.CacheTier;
+import com.google.cloud.broker.caching.remote.AbstractRemoteCache;
+import com.google.cloud.broker.encryption.backends.AbstractEncryptionBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.PeriodicTask;
+import com.google.cloud.broker.utils.TimeUtils;
+
+/**
+ * Warms up the local cache of a starting broker instance with the access tokens that the
+ * running instances recently served, so that restarts don't send a wave of requests to the
+ * remote cache all at once.
+ *
+ * Each instance records the owner, scopes and target of the access tokens that it serves,
+ * and periodically merges the most recent ones into a snapshot shared by all instances in the
+ * remote cache. A starting instance reads that snapshot and loads the corresponding access tokens from the remote
+ * cache before it accepts requests. Missing access tokens are not generated.
+ */
+public class AccessTokenWarmUp {
+
+    private static final Class<?> klass = MethodHandles.lookup().lookupClass();
+    private static final Logger logger = LoggerFactory.getLogger(klass);
+
+    static final String SNAPSHOT_KEY = "access-token-warm-up-snapshot";
+    private static final int SNAPSHOT_TIME = 3600;  // In seconds
+
+    private static volatile Recorder recorder;
+
+    private final int snapshotInterval;
+    private final int timeout;
+    private final PeriodicTask task = new PeriodicTask(klass, "save snapshot", this::saveSnapshot);
+
+    public AccessTokenWarmUp() {
+        snapshotInterval = AppSettings.getInstance().getInt(AppSettings.ACCESS_TOKEN_WARM_UP_SNAPSHOT_INTERVAL);
+        timeout = AppSettings.getInstance().getInt(AppSettings.ACCESS_TOKEN_WARM_UP_TIMEOUT);
+    }
+
+    /**
+     * The warm-up settings, resolved once per settings instance so that recording a request
+     * doesn't read the settings.
+     */
+    private static class Recorder {
+        final Config settings;
+        final long maximumSize;
+        // Recently served access tokens, by owner, scopes and target. Null if the warm-up is disabled.
+        final Cache<List<Object>, Map<String, Object>> recentRequests;
+
+        Recorder(Config settings, long maximumSize, Cache<List<Object>, Map<String, Object>> recentRequests) {
+            this.settings = settings;
+            this.maximumSize = maximumSize;
+            this.recentRequests = recentRequests;
+        }
+    }
+
+    private static Recorder getRecorder() {
+        Config settings = AppSettings.getInstance();
+        Recorder current = recorder;
+        if (current != null && current.settings == settings) {
+            return current;
+        }
+        synchronized (AccessTokenWarmUp.class) {
+            current = recorder;
+            if (current == null || current.settings != settings) {
+                long maximumSize = settings.getLong(AppSettings.ACCESS_TOKEN_WARM_UP_MAXIMUM_SIZE);
+                Cache<List<Object>, Map<String, Object>> recentRequests = null;
+                if (settings.getBoolean(AppSettings.ACCESS_TOKEN_WARM_UP_ENABLED)) {
+                    // Keep the requests recorded so far, unless the maximum size changed
+                    recentRequests = (current != null && current.recentRequests != null && current.maximumSize == maximumSize) ?
+                        current.recentRequests : CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+                }
+                current = new Recorder(settings, maximumSize, recentRequests);
+                recorder = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Records that an access token was served, so that it's included in the next snapshot.
+     */
+    public static void record(String owner, List<String> scopes, String target) {
+        Cache<List<Object>, Map<String, Object>> recentRequests = getRecorder().recentRequests;
+        if (recentRequests == null) {
+            return;
+        }
+        List<String> scopesCopy = List.copyOf(scopes);
+        recentRequests.put(List.of(owner, scopesCopy, target), Map.of("owner", owner, "scopes", scopesCopy, "target", target));
+    }
+
+    private static List<Object> getRequestKey(Map<String, Object> request) {
+        return List.of(request.get("owner"), request.get("scopes"), request.get("target"));
+    }
+
+    private static AbstractRemoteCache getSnapshotCache() {
+        return CacheTier.getTiers().get(0).getCache();
+    }
+
+    private static List<Map<String, Object>> readSnapshot(AbstractRemoteCache cache) {
+        byte[] snapshot = cache.get(SNAPSHOT_KEY);
+        if (snapshot == null) {
+            return List.of();
+        }
+        try {
+            return new ObjectMapper().readValue(AbstractEncryptionBackend.getInstance().decrypt(snapshot),
+                new TypeReference<List<Map<String, Object>>>() {});
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Merges the recently served access tokens into the snapshot in the remote cache, so that
+     * the instances don't overwrite each other's. This instance's requests come first, then the
+     * other instances' requests saved within the snapshot time, up to the maximum size. The
+     * snapshot is always encrypted, as it contains user names. Returns the number of access
+     * tokens in the snapshot.
+     */
+    int saveSnapshot() {
+        Recorder current = getRecorder();
+        if (current.recentRequests == null || current.recentRequests.size() == 0) {
+            return 0;
+        }
+        long now = TimeUtils.currentTimeMillis();
+        Map<List<Object>, Map<String, Object>> merged = new LinkedHashMap<>();
+        for (Map<String, Object> request : current.recentRequests.asMap().values()) {
+            Map<String, Object> savedRequest = new LinkedHashMap<>(request);
+            savedRequest.put("savedAt", now);
+            merged.put(getRequestKey(request), savedRequest);
+        }
+
+        AbstractRemoteCache cache = getSnapshotCache();
+        Lock lock = cache.acquireLock(SNAPSHOT_KEY + "_lock");
+        try {
+            for (Map<String, Object> request : readSnapshot(cache)) {
+                if (merged.size() >= current.maximumSize) {
+                    break;
+                }
+                Object savedAt = request.get("savedAt");
+                if (savedAt instanceof Number && now - ((Number) savedAt).longValue() < SNAPSHOT_TIME * 1000L) {
+                    merged.putIfAbsent(getRequestKey(request), request);
+                }
+            }
+            byte[] json;
+            try {
+                json = new ObjectMapper().writeValueAsBytes(new ArrayList<>(merged.values()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            cache.set(SNAPSHOT_KEY, AbstractEncryptionBackend.getInstance().encrypt(json), SNAPSHOT_TIME);
+        } finally {
+            lock.unlock();
+        }
+        return merged.size();
+    }
+
+    /**
+     * Loads the access tokens listed in the latest snapshot into the local cache, until
+     * the timeout is reached. Returns the number of loaded access tokens.
+     */
+    public int warmUp() {
+        List<Map<String, Object>> requests = readSnapshot(getSnapshotCache());
+        if (requests.isEmpty()) {
+            return 0;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        int numLoaded = 0;
+        for (Map<String, Object> request : requests) {
+            if (System.nanoTime() > deadline) {
+                logger.warn(klass.getSimpleName() + " - Timed out after loading access token(s): " + numLoaded + "/" + requests.size());
+                break;
+            }
+            String owner = (String) request.get("owner");
+            @SuppressWarnings("unchecked")
+            List<String> scopes = (List<String>) request.get("scopes");
+            String target = (String) request.get("target");
+            try {
+                if (new AccessTokenCacheFetcher(owner, scopes, target).preload()) {
+                    // Keep it in this instance's snapshots as well
+                    record(owner, scopes, target);
+                    numLoaded++;
+                }
+            } catch (Exception e) {
+                logger.warn(klass.getSimpleName() + " - Failed to load access token", e);
+            }
+        }
+        return numLoaded;
+    }
+
+    public void start() {
+        task.start(snapshotInterval, snapshotInterval);
+    }
+
+    public void stop() {
+        task.stop();
+        // Leave a fresh snapshot for the instance that replaces this one
+        task.run();
+    }
+
+}
@@ -15,19 +15,16 @@ import java.util.List;
 
 import com.google.cloud.broker.apps.brokerserver.accesstokens.AccessToken;
 import com.google.cloud.broker.settings.AppSettings;
-import com.google.cloud.broker.utils.InstanceUtils;
+import com.google.cloud.broker.utils.ComponentRegistry;
 
 
 public abstract class AbstractProvider {
 
-    private static AbstractProvider instance;
+    private static final ComponentRegistry.Component<AbstractProvider> component =
+        ComponentRegistry.register(AppSettings.PROVIDER_BACKEND, AbstractProvider.class);
 
     public static AbstractProvider getInstance() {
-        String className = AppSettings.getInstance().getString(AppSettings.PROVIDER_BACKEND);
-        if (instance == null || !className.equals(instance.getClass().getCanonicalName())) {
-            instance = (AbstractProvider) InstanceUtils.invokeConstructor(className);
-        }
-        return instance;
+        return component.get();
     }
 
     public abstract AccessToken getAccessToken(String googleIdentity, List<String> scopes);
@@ -15,9 +15,10 @@ import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.MDC;
 
+import com.google.cloud.broker.apps.brokerserver.AuthenticatedCaller;
 import com.google.cloud.broker.apps.brokerserver.logging.LoggingUtils;
-import com.google.cloud.broker.authentication.backends.AbstractAuthenticationBackend;
 import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
+import com.google.cloud.broker.apps.brokerserver.sessions.SessionCacheFetcher;
 import com.google.cloud.broker.apps.brokerserver.sessions.SessionTokenUtils;
 import com.google.cloud.broker.apps.brokerserver.sessions.Session;
 import com.google.cloud.broker.apps.brokerserver.validation.GrpcRequestValidation;
@@ -31,8 +32,7 @@ public class CancelSessionToken {
     public static void run(CancelSessionTokenRequest request, StreamObserver<CancelSessionTokenResponse> responseObserver) {
         MDC.put(LoggingUtils.MDC_METHOD_NAME_KEY, CancelSessionToken.class.getSimpleName());
 
-        AbstractAuthenticationBackend authenticator = AbstractAuthenticationBackend.getInstance();
-        String authenticatedUser = authenticator.authenticateUser();
+        String authenticatedUser = AuthenticatedCaller.getCurrentDirectPrincipal();
 
         GrpcRequestValidation.validateParameterNotEmpty("session_token", request.getSessionToken());
 
@@ -44,8 +44,9 @@ public class CancelSessionToken {
             throw Status.PERMISSION_DENIED.withDescription(String.format("Unauthorized renewer: %s", authenticatedUser)).asRuntimeException();
         }
 
-        // Cancel the token
+        // Cancel the token, then drop it from the caches so that it can't be used anymore
         AbstractDatabaseBackend.getInstance().delete(session);
+        new SessionCacheFetcher(request.getSessionToken()).invalidate();
 
         // Log success message
         MDC.put(LoggingUtils.MDC_AUTH_MODE_KEY, LoggingUtils.MDC_AUTH_MODE_VALUE_DIRECT);
@@ -58,7 +59,5 @@ public class CancelSessionToken {
         CancelSessionTokenResponse response = CancelSessionTokenResponse.newBuilder().build();
         responseObserver.onNext(response);
         responseObserver.onCompleted();
-
-        // TODO: Delete session token from SessionCacheFetcher
     }
 }
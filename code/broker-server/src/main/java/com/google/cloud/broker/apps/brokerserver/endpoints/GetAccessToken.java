@@ -17,15 +17,15 @@ import java.util.List;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.MDC;
 
+import com.google.cloud.broker.apps.brokerserver.AuthenticatedCaller;
 import com.google.cloud.broker.apps.brokerserver.logging.LoggingUtils;
 import com.google.cloud.broker.apps.brokerserver.validation.GrpcRequestValidation;
 import com.google.cloud.broker.apps.brokerserver.validation.ProxyUserValidation;
 import com.google.cloud.broker.apps.brokerserver.validation.ScopeValidation;
-import com.google.cloud.broker.apps.brokerserver.sessions.SessionAuthenticator;
-import com.google.cloud.broker.authentication.backends.AbstractAuthenticationBackend;
 import com.google.cloud.broker.apps.brokerserver.sessions.Session;
 import com.google.cloud.broker.apps.brokerserver.accesstokens.AccessToken;
 import com.google.cloud.broker.apps.brokerserver.accesstokens.AccessTokenCacheFetcher;
+import com.google.cloud.broker.apps.brokerserver.accesstokens.AccessTokenWarmUp;
 
 // Classes dynamically generated by protobuf-maven-plugin:
 import com.google.cloud.broker.apps.brokerserver.protobuf.GetAccessTokenRequest;
@@ -37,9 +37,9 @@ public class GetAccessToken {
     public static void run(GetAccessTokenRequest request, StreamObserver<GetAccessTokenResponse> responseObserver) {
         MDC.put(LoggingUtils.MDC_METHOD_NAME_KEY, GetAccessToken.class.getSimpleName());
 
-        // First try to authenticate the session, if any.
-        SessionAuthenticator sessionAuthenticator = new SessionAuthenticator();
-        Session session = sessionAuthenticator.authenticateSession();
+        // The session, if the client authenticated with a session token
+        AuthenticatedCaller caller = AuthenticatedCaller.getCurrent();
+        Session session = caller.getSession();
 
         // Fetch parameters from the request
         String owner = request.getOwner();
@@ -53,9 +53,7 @@ public class GetAccessToken {
             ScopeValidation.validateScopes(scopes);
 
             // No session token was provided. The client is using direct authentication.
-            // So let's authenticate the user.
-            AbstractAuthenticationBackend authenticator = AbstractAuthenticationBackend.getInstance();
-            String authenticatedUser = authenticator.authenticateUser();
+            String authenticatedUser = caller.getPrincipal();
 
             // If the authenticated user requests an access token for another user,
             // verify that it is allowed to do so.
@@ -84,6 +82,7 @@ public class GetAccessToken {
 
         // Fetch the access token
         AccessToken accessToken = (AccessToken) new AccessTokenCacheFetcher(owner, scopes, target).fetch();
+        AccessTokenWarmUp.record(owner, scopes, target);
 
         // Log success message
         MDC.put(LoggingUtils.MDC_OWNER_KEY, owner);
@@ -0,0 +1,71 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.endpoints;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.MDC;
+
+import com.google.cloud.broker.apps.brokerserver.AuthenticatedCaller;
+import com.google.cloud.broker.apps.brokerserver.logging.LoggingUtils;
+import com.google.cloud.broker.caching.CacheStats;
+import com.google.cloud.broker.caching.local.LocalCache;
+import com.google.cloud.broker.settings.AppSettings;
+
+// Classes dynamically generated by protobuf-maven-plugin:
+import com.google.cloud.broker.apps.brokerserver.protobuf.CacheHistogram;
+import com.google.cloud.broker.apps.brokerserver.protobuf.CacheStatsEntry;
+import com.google.cloud.broker.apps.brokerserver.protobuf.GetCacheStatsRequest;
+import com.google.cloud.broker.apps.brokerserver.protobuf.GetCacheStatsResponse;
+
+public class GetCacheStats {
+
+    public static void run(GetCacheStatsRequest request, StreamObserver<GetCacheStatsResponse> responseObserver) {
+        MDC.put(LoggingUtils.MDC_METHOD_NAME_KEY, GetCacheStats.class.getSimpleName());
+
+        // Only allow the administrators
+        String authenticatedUser = AuthenticatedCaller.getCurrentDirectPrincipal();
+        if (!AppSettings.getInstance().getStringList(AppSettings.ADMIN_USERS).contains(authenticatedUser)) {
+            throw Status.PERMISSION_DENIED.withDescription(String.format("Unauthorized administrator: %s", authenticatedUser)).asRuntimeException();
+        }
+
+        GetCacheStatsResponse.Builder response = GetCacheStatsResponse.newBuilder()
+            .setLocalCacheSize(LocalCache.size());
+        for (CacheStats stats : CacheStats.getAll().values()) {
+            CacheStatsEntry.Builder entry = CacheStatsEntry.newBuilder()
+                .setName(stats.getName())
+                .putAllCounters(stats.getCounters());
+            for (Map.Entry<String, CacheStats.Histogram> histogram : stats.getHistograms().entrySet()) {
+                entry.addHistograms(CacheHistogram.newBuilder()
+                    .setName(histogram.getKey())
+                    .setCount(histogram.getValue().getCount())
+                    .setSumMillis(histogram.getValue().getSum())
+                    .addAllBucketBoundsMillis(Arrays.stream(CacheStats.Histogram.BUCKET_BOUNDS).boxed().collect(Collectors.toList()))
+                    .addAllBucketCounts(histogram.getValue().getBucketCounts()));
+            }
+            response.addStats(entry);
+        }
+
+        // Log success message
+        MDC.put(LoggingUtils.MDC_AUTH_MODE_KEY, LoggingUtils.MDC_AUTH_MODE_VALUE_DIRECT);
+        LoggingUtils.successAuditLog();
+
+        // Return response
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+}
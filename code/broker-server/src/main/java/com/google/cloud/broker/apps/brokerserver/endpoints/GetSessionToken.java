@@ -17,13 +17,13 @@ import com.google.protobuf.UnmodifiableLazyStringList;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.MDC;
 
+import com.google.cloud.broker.apps.brokerserver.AuthenticatedCaller;
 import com.google.cloud.broker.apps.brokerserver.validation.ScopeValidation;
 import com.google.cloud.broker.apps.brokerserver.logging.LoggingUtils;
 import com.google.cloud.broker.apps.brokerserver.sessions.Session;
 import com.google.cloud.broker.apps.brokerserver.sessions.SessionTokenUtils;
 import com.google.cloud.broker.apps.brokerserver.validation.GrpcRequestValidation;
 import com.google.cloud.broker.apps.brokerserver.validation.ProxyUserValidation;
-import com.google.cloud.broker.authentication.backends.AbstractAuthenticationBackend;
 import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
 
 // Classes dynamically generated by protobuf-maven-plugin:
@@ -36,8 +36,7 @@ public class GetSessionToken {
     public static void run(GetSessionTokenRequest request, StreamObserver<GetSessionTokenResponse> responseObserver) {
         MDC.put(LoggingUtils.MDC_METHOD_NAME_KEY, GetSessionToken.class.getSimpleName());
 
-        AbstractAuthenticationBackend authenticator = AbstractAuthenticationBackend.getInstance();
-        String authenticatedUser = authenticator.authenticateUser();
+        String authenticatedUser = AuthenticatedCaller.getCurrentDirectPrincipal();
         List<String> scopes = (List<String>) ((UnmodifiableLazyStringList) request.getScopesList()).getUnmodifiableView().getUnderlyingElements();
 
         GrpcRequestValidation.validateParameterNotEmpty("owner", request.getOwner());
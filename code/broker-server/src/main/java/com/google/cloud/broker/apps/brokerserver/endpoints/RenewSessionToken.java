@@ -11,14 +11,15 @@
 
 package com.google.cloud.broker.apps.brokerserver.endpoints;
 
+import com.google.cloud.broker.apps.brokerserver.AuthenticatedCaller;
 import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
 import com.google.cloud.broker.apps.brokerserver.sessions.SessionTokenUtils;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.MDC;
 
-import com.google.cloud.broker.authentication.backends.AbstractAuthenticationBackend;
 import com.google.cloud.broker.apps.brokerserver.sessions.Session;
+import com.google.cloud.broker.apps.brokerserver.sessions.SessionCacheFetcher;
 import com.google.cloud.broker.apps.brokerserver.logging.LoggingUtils;
 import com.google.cloud.broker.apps.brokerserver.validation.GrpcRequestValidation;
 
@@ -32,8 +33,7 @@ public class RenewSessionToken {
     public static void run(RenewSessionTokenRequest request, StreamObserver<RenewSessionTokenResponse> responseObserver) {
         MDC.put(LoggingUtils.MDC_METHOD_NAME_KEY, RenewSessionToken.class.getSimpleName());
 
-        AbstractAuthenticationBackend authenticator = AbstractAuthenticationBackend.getInstance();
-        String authenticatedUser = authenticator.authenticateUser();
+        String authenticatedUser = AuthenticatedCaller.getCurrentDirectPrincipal();
 
         GrpcRequestValidation.validateParameterNotEmpty("session_token", request.getSessionToken());
 
@@ -45,9 +45,10 @@ public class RenewSessionToken {
             throw Status.PERMISSION_DENIED.withDescription(String.format("Unauthorized renewer: %s", authenticatedUser)).asRuntimeException();
         }
 
-        // Extend session's lifetime
+        // Extend session's lifetime, then drop the session from the caches so that the new expiry is used right away
         session.extendLifetime();
         AbstractDatabaseBackend.getInstance().save(session);
+        new SessionCacheFetcher(request.getSessionToken()).invalidate();
 
         // Log success message
         MDC.put(LoggingUtils.MDC_AUTH_MODE_KEY, LoggingUtils.MDC_AUTH_MODE_VALUE_DIRECT);
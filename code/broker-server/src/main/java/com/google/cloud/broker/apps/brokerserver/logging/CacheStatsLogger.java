@@ -0,0 +1,67 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.logging;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.broker.caching.CacheStats;
+import com.google.cloud.broker.caching.local.LocalCache;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.PeriodicTask;
+
+/**
+ * Periodically logs the cache statistics as JSON, e.g. to derive log-based metrics from them.
+ */
+public class CacheStatsLogger {
+
+    private static final Class<?> klass = MethodHandles.lookup().lookupClass();
+    private static final Logger logger = LoggerFactory.getLogger(klass);
+
+    private final int interval;
+    private final PeriodicTask task = new PeriodicTask(klass, "log cache stats", () -> logger.info("Cache stats: " + getStatsJson()));
+
+    public CacheStatsLogger() {
+        interval = AppSettings.getInstance().getInt(AppSettings.LOGGING_CACHE_STATS_INTERVAL);
+    }
+
+    public void start() {
+        task.start(interval, interval);
+    }
+
+    public void stop() {
+        task.stop();
+    }
+
+    static String getStatsJson() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (CacheStats cacheStats : CacheStats.getAll().values()) {
+            stats.add(cacheStats.toMap());
+        }
+        try {
+            return new ObjectMapper().writeValueAsString(Map.of(
+                "localCacheSize", LocalCache.size(),
+                "bucketBoundsMillis", CacheStats.Histogram.BUCKET_BOUNDS,
+                "stats", stats));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
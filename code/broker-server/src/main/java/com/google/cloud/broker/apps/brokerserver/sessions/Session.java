@@ -11,13 +11,11 @@
 
 package com.google.cloud.broker.apps.brokerserver.sessions;
 
-import java.util.Map;
-import java.util.HashMap;
-
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.database.models.ModelCodec;
 import com.google.cloud.broker.settings.AppSettings;
 import com.google.cloud.broker.utils.TimeUtils;
 
@@ -61,29 +59,36 @@ public class Session extends Model {
         return getId();
     }
 
-    public Map<String, Object> toMap() {
-        HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put("id", id);
-        map.put("owner", owner);
-        map.put("renewer", renewer);
-        map.put("target", target);
-        map.put("scopes", scopes);
-        map.put("expiresAt", expiresAt);
-        map.put("creationTime", creationTime);
-        return map;
-    }
-
-    public static Model fromMap(Map<String, Object> map) {
-        return new Session(
-            (String) map.get("id"),
-            (String) map.get("owner"),
-            (String) map.get("renewer"),
-            (String) map.get("target"),
-            (String) map.get("scopes"),
-            (Long) map.get("expiresAt"),
-            (Long) map.get("creationTime")
-        );
-    }
+    public static final ModelCodec<Session> CODEC = new ModelCodec<>(
+        ModelCodec.stringField("id"),
+        ModelCodec.stringField("owner"),
+        ModelCodec.stringField("renewer"),
+        ModelCodec.stringField("target"),
+        ModelCodec.stringField("scopes"),
+        ModelCodec.longField("expiresAt"),
+        ModelCodec.longField("creationTime")) {
+
+        @Override
+        public Session decode(Object[] values) {
+            return new Session(
+                (String) values[0],
+                (String) values[1],
+                (String) values[2],
+                (String) values[3],
+                (String) values[4],
+                (Long) values[5],
+                (Long) values[6]
+            );
+        }
+
+        @Override
+        public Object[] encode(Session session) {
+            return new Object[] {
+                session.id, session.owner, session.renewer, session.target,
+                session.scopes, session.expiresAt, session.creationTime
+            };
+        }
+    };
 
     public void extendLifetime() {
         long now = TimeUtils.currentTimeMillis();
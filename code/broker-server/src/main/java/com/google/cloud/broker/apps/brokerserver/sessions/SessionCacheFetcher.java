@@ -26,9 +26,9 @@ public class SessionCacheFetcher extends CacheFetcher {
 
     public SessionCacheFetcher(String rawToken) {
         this.rawToken = rawToken;
-        // Disallow remote cache because the cache key contains sensitive information
-        // (i.e. the session tokens)
-        this.allowRemoteCache = false;
+        // The cache key contains sensitive information (i.e. the session token), so only
+        // allow the remote cache if it never sees the cache key itself but its hash.
+        this.allowRemoteCache = AppSettings.getInstance().getBoolean(AppSettings.REMOTE_CACHE_KEY_HASHING_ENABLED);
     }
 
     @Override
@@ -43,8 +43,7 @@ public class SessionCacheFetcher extends CacheFetcher {
 
     @Override
     protected int getRemoteCacheTime() {
-        // Remote cache not enabled
-        throw new UnsupportedOperationException();
+        return AppSettings.getInstance().getInt(AppSettings.SESSION_REMOTE_CACHE_TIME);
     }
 
     @Override
@@ -0,0 +1,78 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.sessions;
+
+import java.lang.invoke.MethodHandles;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.PeriodicTask;
+import com.google.cloud.broker.utils.TimeUtils;
+
+/**
+ * Periodically deletes expired sessions from within the broker server, in small batches
+ * and under a rate limit, as an alternative to running `SessionCleanup` as a separate job.
+ */
+public class SessionSweeper {
+
+    private static final Class<?> klass = MethodHandles.lookup().lookupClass();
+    private static final Logger logger = LoggerFactory.getLogger(klass);
+
+    private final int interval;
+    private final int batchSize;
+    private final RateLimiter rateLimiter;
+    private final PeriodicTask task = new PeriodicTask(klass, "delete expired sessions", this::run);
+
+    public SessionSweeper() {
+        interval = AppSettings.getInstance().getInt(AppSettings.SESSION_SWEEPER_INTERVAL);
+        batchSize = AppSettings.getInstance().getInt(AppSettings.SESSION_SWEEPER_BATCH_SIZE);
+        rateLimiter = RateLimiter.create(AppSettings.getInstance().getDouble(AppSettings.SESSION_SWEEPER_RATE_LIMIT));
+    }
+
+    public void start() {
+        task.start(interval, interval);
+    }
+
+    public void stop() {
+        task.stop();
+    }
+
+    private void run() {
+        int numDeletedSessions = sweep();
+        if (numDeletedSessions > 0) {
+            logger.info(klass.getSimpleName() + " - Deleted expired session(s): " + numDeletedSessions);
+        }
+    }
+
+    /**
+     * Deletes the sessions that had expired when the sweep started, oldest first, one batch at a time.
+     * Returns the number of deleted sessions.
+     */
+    int sweep() {
+        long now = TimeUtils.currentTimeMillis();
+        int numDeletedSessions = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            rateLimiter.acquire(batchSize);
+            int numDeletedInBatch = AbstractDatabaseBackend.getInstance().deleteExpiredItems(
+                Session.class, "expiresAt", now, batchSize);
+            numDeletedSessions += numDeletedInBatch;
+            if (numDeletedInBatch < batchSize) {
+                break;
+            }
+        }
+        return numDeletedSessions;
+    }
+
+}
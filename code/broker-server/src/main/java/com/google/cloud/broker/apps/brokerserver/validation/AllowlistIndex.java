@@ -0,0 +1,137 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.validation;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+
+import com.google.cloud.broker.settings.AppSettings;
+
+/**
+ * Immutable index of the `proxy-users` and `scopes.allowlist` settings, so that validating a request
+ * doesn't re-read the settings. The index is compiled from the current settings on first use, and
+ * compiled again whenever the settings are replaced.
+ */
+public final class AllowlistIndex {
+
+    private final static String CONFIG_PROXY = "proxy";
+    private final static String CONFIG_GROUPS = "groups";
+    private final static String CONFIG_USERS = "users";
+    private final static String WILDCARD = "*";
+
+    private static volatile AllowlistIndex instance;
+
+    /**
+     * What a given proxy user is allowed to impersonate, merged from all the entries for that proxy.
+     */
+    static final class ProxyEntry {
+        private final boolean anyUser;
+        private final Set<String> users;
+        private final boolean anyGroup;
+        private final Set<String> groups;
+
+        private ProxyEntry(boolean anyUser, Set<String> users, boolean anyGroup, Set<String> groups) {
+            this.anyUser = anyUser;
+            this.users = users;
+            this.anyGroup = anyGroup;
+            this.groups = groups;
+        }
+
+        boolean isAllowlistedByUsername(String impersonated) {
+            return anyUser || users.contains(impersonated);
+        }
+
+        boolean isAnyGroup() {
+            return anyGroup;
+        }
+
+        Set<String> getGroups() {
+            return groups;
+        }
+    }
+
+    private final Config source;
+    private final Map<String, ProxyEntry> proxies;
+    private final Set<String> groups;
+    private final Set<String> scopes;
+
+    private AllowlistIndex(Config source) {
+        this.source = source;
+
+        Map<String, Set<String>> users = new HashMap<>();
+        Map<String, Set<String>> groupsByProxy = new HashMap<>();
+        Set<String> allGroups = new LinkedHashSet<>();
+        for (Config proxyConfig : source.getConfigList(AppSettings.PROXY_USERS)) {
+            String proxy = proxyConfig.getString(CONFIG_PROXY);
+            users.computeIfAbsent(proxy, key -> new LinkedHashSet<>()).addAll(getStringList(proxyConfig, CONFIG_USERS));
+            List<String> proxyGroups = getStringList(proxyConfig, CONFIG_GROUPS);
+            groupsByProxy.computeIfAbsent(proxy, key -> new LinkedHashSet<>()).addAll(proxyGroups);
+            allGroups.addAll(proxyGroups);
+        }
+        Map<String, ProxyEntry> proxies = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : users.entrySet()) {
+            Set<String> proxyUsers = entry.getValue();
+            Set<String> proxyGroups = groupsByProxy.get(entry.getKey());
+            proxies.put(entry.getKey(), new ProxyEntry(
+                proxyUsers.remove(WILDCARD), Set.copyOf(proxyUsers),
+                proxyGroups.remove(WILDCARD), Set.copyOf(proxyGroups)));
+        }
+        this.proxies = Map.copyOf(proxies);
+        allGroups.remove(WILDCARD);
+        this.groups = Set.copyOf(allGroups);
+        this.scopes = Set.copyOf(source.getStringList(AppSettings.SCOPES_ALLOWLIST));
+    }
+
+    private static List<String> getStringList(Config config, String path) {
+        try {
+            return config.getStringList(path);
+        } catch (ConfigException.Missing e) {
+            // Setting not specified
+            return List.of();
+        }
+    }
+
+    public static AllowlistIndex getInstance() {
+        Config settings = AppSettings.getInstance();
+        AllowlistIndex current = instance;
+        if (current == null || current.source != settings) {
+            current = new AllowlistIndex(settings);
+            instance = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the entry of the given proxy user, or null if the user isn't a proxy user.
+     */
+    ProxyEntry getProxy(String proxy) {
+        return proxies.get(proxy);
+    }
+
+    /**
+     * Returns all the groups listed in the `proxy-users` setting, except the wildcard.
+     */
+    Set<String> getGroups() {
+        return groups;
+    }
+
+    boolean isAllowlistedScope(String scope) {
+        return scopes.contains(scope);
+    }
+
+}
@@ -0,0 +1,150 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.validation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.directory.Directory;
+import com.google.api.services.directory.model.Member;
+import com.google.api.services.directory.model.Members;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.PeriodicTask;
+
+/**
+ * Keeps the members of the groups listed in the `proxy-users` setting in memory, so that
+ * validating a proxy user doesn't call the Directory API. Each group is listed in full
+ * (i.e. all pages) the first time it's checked, then re-listed in the background at a fixed
+ * interval. A group that fails to refresh keeps its previous members, unless the Directory API
+ * reports that it no longer exists.
+ */
+public class GroupMembershipCache {
+
+    private static final Class<?> klass = MethodHandles.lookup().lookupClass();
+    private static final Logger logger = LoggerFactory.getLogger(klass);
+
+    private static final int PAGE_SIZE = 200;  // Maximum allowed by the Directory API
+
+    interface MemberLister {
+        Set<String> list(String group) throws IOException;
+    }
+
+    private static volatile GroupMembershipCache instance;
+
+    private final MemberLister lister;
+    // Members' emails, by group
+    private final ConcurrentMap<String, Set<String>> snapshots = new ConcurrentHashMap<>();
+    private final PeriodicTask task = new PeriodicTask(klass, "refresh groups", this::refresh);
+
+    GroupMembershipCache(MemberLister lister) {
+        this.lister = lister;
+    }
+
+    public static GroupMembershipCache getInstance() {
+        if (instance == null) {
+            synchronized (GroupMembershipCache.class) {
+                if (instance == null) {
+                    instance = new GroupMembershipCache(GroupMembershipCache::listDirectoryMembers);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static int getRefreshInterval() {
+        return AppSettings.getInstance().getInt(AppSettings.PROXY_USER_GROUPS_REFRESH_INTERVAL);
+    }
+
+    public boolean isMember(String group, String email) {
+        if (getRefreshInterval() <= 0) {
+            // Caching is disabled
+            return list(group).contains(email);
+        }
+        return snapshots.computeIfAbsent(group, this::list).contains(email);
+    }
+
+    private Set<String> list(String group) {
+        try {
+            return Collections.unmodifiableSet(lister.list(group));
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() != 404) {
+                // Other errors (e.g. quota exceeded or missing permissions) may be transient,
+                // so they're thrown and the previous members are kept
+                throw new UncheckedIOException(e);
+            }
+            // The group doesn't exist, so nobody can be impersonated through it
+            logger.warn(klass.getSimpleName() + " - Group `" + group + "` not found");
+            return Set.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Re-lists the configured groups one at a time, and drops the ones that are no longer configured.
+     */
+    void refresh() {
+        Set<String> configuredGroups = AllowlistIndex.getInstance().getGroups();
+        snapshots.keySet().retainAll(configuredGroups);
+        for (String group : configuredGroups) {
+            try {
+                snapshots.put(group, list(group));
+            } catch (Exception e) {
+                logger.error(klass.getSimpleName() + " - Failed to refresh group `" + group + "`", e);
+            }
+        }
+    }
+
+    int size() {
+        return snapshots.size();
+    }
+
+    public void start() {
+        // The first run loads all the configured groups
+        task.start(0, getRefreshInterval());
+    }
+
+    public void stop() {
+        task.stop();
+    }
+
+    private static Set<String> listDirectoryMembers(String group) throws IOException {
+        Directory directory = ProxyUserValidation.getDirectoryService();
+        Set<String> emails = new HashSet<>();
+        String pageToken = null;
+        do {
+            Members page = directory.members().list(group).setMaxResults(PAGE_SIZE).setPageToken(pageToken).execute();
+            List<Member> members = page.getMembers();
+            if (members != null) {
+                for (Member member : members) {
+                    if (member.getEmail() != null) {
+                        emails.add(member.getEmail());
+                    }
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return emails;
+    }
+
+}
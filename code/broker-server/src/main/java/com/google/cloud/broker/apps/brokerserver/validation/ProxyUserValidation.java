@@ -11,19 +11,15 @@
 
 package com.google.cloud.broker.apps.brokerserver.validation;
 
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
 import java.util.List;
 
 import com.google.api.client.auth.oauth2.BearerToken;
 import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.googleapis.util.Utils;
 import com.google.api.services.directory.Directory;
 import com.google.api.services.directory.DirectoryScopes;
-import com.google.api.services.directory.model.Member;
-import com.typesafe.config.Config;
-import com.typesafe.config.ConfigException;
 import io.grpc.Status;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -40,60 +36,29 @@ public class ProxyUserValidation {
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
-    private final static String CONFIG_PROXY = "proxy";
-    private final static String CONFIG_GROUPS = "groups";
-    private final static String CONFIG_USERS = "users";
+    private final static long DIRECTORY_EXPIRY_MARGIN = 60 * 1000;  // In milliseconds
 
-    private static boolean isAllowlistedByUsername(Config proxyConfig, String impersonated) {
-        // Check if user is allowlisted directly by name
-        List<String> proxyableUsers;
-        try {
-            proxyableUsers = proxyConfig.getStringList(CONFIG_USERS);
-        } catch (ConfigException.Missing e) {
-            // No users setting specified
-            return false;
-        }
-
-        if (proxyableUsers.contains("*")) {
-            // Any users can be impersonated
-            return true;
-        }
-
-        return proxyableUsers.contains(impersonated);
-    }
-
-    private static boolean isAllowlistedByGroupMembership(Config proxyConfig, String impersonated) {
-        List<String> proxyableGroups;
-        try {
-            proxyableGroups = proxyConfig.getStringList(CONFIG_GROUPS);
-        } catch (ConfigException.Missing e) {
-            // No groups setting specified
-            return false;
-        }
+    private static Directory directory;
+    private static long directoryExpiresAt;
 
-        if (proxyableGroups.contains("*")) {
+    static boolean isAllowlistedByGroupMembership(AllowlistIndex.ProxyEntry proxyEntry, String impersonated, GroupMembershipCache cache) {
+        if (proxyEntry.isAnyGroup()) {
             // Any users from any groups can be impersonated
             return true;
         }
-
-        try {
-            Directory directory = getDirectoryService();
-            for (String proxyableGroup : proxyableGroups) {
-                try {
-                    List<Member> members = directory.members().list(proxyableGroup).execute().getMembers();
-                    for (Member member : members) {
-                        if (member.getEmail().equals(impersonated)) {
-                            // User is member of allowlisted group
-                            return true;
-                        }
-                    }
-                }
-                catch (GoogleJsonResponseException e) {
-                    // Continue
-                }
+        for (String proxyableGroup : proxyEntry.getGroups()) {
+            boolean isMember;
+            try {
+                isMember = cache.isMember(proxyableGroup, impersonated);
+            } catch (UncheckedIOException e) {
+                // The group can't be listed, so move on to the next one
+                logger.error("Cannot list group `" + proxyableGroup + "`", e);
+                continue;
+            }
+            if (isMember) {
+                // User is member of allowlisted group
+                return true;
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
         return false;
     }
@@ -109,18 +74,14 @@ public class ProxyUserValidation {
         if (mappedImpersonated != null) {
             EmailValidation.validateEmail(mappedImpersonated);
             MDC.put(LoggingUtils.MDC_AUTH_MODE_PROXY_IMPERSONATED_USER_KEY, impersonated);
-            List<? extends Config> proxyConfigs = AppSettings.getInstance()
-                .getConfigList(AppSettings.PROXY_USERS);
-            for (Config proxyConfig : proxyConfigs) {
-                String proxy = proxyConfig.getString(CONFIG_PROXY);
-                if (impersonator.equals(proxy)) {
-                    if (isAllowlistedByUsername(proxyConfig, mappedImpersonated)) {
-                        // The user is directly allowlisted by its username
-                        return;
-                    } else if (isAllowlistedByGroupMembership(proxyConfig, mappedImpersonated)) {
-                        // The user is allowlisted by group membership
-                        return;
-                    }
+            AllowlistIndex.ProxyEntry proxyEntry = AllowlistIndex.getInstance().getProxy(impersonator);
+            if (proxyEntry != null) {
+                if (proxyEntry.isAllowlistedByUsername(mappedImpersonated)) {
+                    // The user is directly allowlisted by its username
+                    return;
+                } else if (isAllowlistedByGroupMembership(proxyEntry, mappedImpersonated, GroupMembershipCache.getInstance())) {
+                    // The user is allowlisted by group membership
+                    return;
                 }
             }
         }
@@ -129,14 +90,21 @@ public class ProxyUserValidation {
             .asRuntimeException();
     }
 
-    public static Directory getDirectoryService() {
-        DomainWideDelegationAuthorityProvider provider = new DomainWideDelegationAuthorityProvider();
-        AccessToken accessToken = provider.getAccessToken(
-            AppSettings.getInstance().getString(AppSettings.GSUITE_ADMIN),
-            List.of(DirectoryScopes.ADMIN_DIRECTORY_GROUP_MEMBER_READONLY));
-        Credential credential = new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken(accessToken.getValue());
-        return new Directory.Builder(Utils.getDefaultTransport(), Utils.getDefaultJsonFactory(), credential)
-            .setApplicationName(Constants.APPLICATION_NAME).build();
+    /**
+     * Returns a Directory client shared by all threads, renewed shortly before its access token expires.
+     */
+    public static synchronized Directory getDirectoryService() {
+        if (directory == null || directoryExpiresAt - DIRECTORY_EXPIRY_MARGIN <= System.currentTimeMillis()) {
+            DomainWideDelegationAuthorityProvider provider = new DomainWideDelegationAuthorityProvider();
+            AccessToken accessToken = provider.getAccessToken(
+                AppSettings.getInstance().getString(AppSettings.GSUITE_ADMIN),
+                List.of(DirectoryScopes.ADMIN_DIRECTORY_GROUP_MEMBER_READONLY));
+            Credential credential = new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken(accessToken.getValue());
+            directory = new Directory.Builder(Utils.getDefaultTransport(), Utils.getDefaultJsonFactory(), credential)
+                .setApplicationName(Constants.APPLICATION_NAME).build();
+            directoryExpiresAt = accessToken.getExpiresAt();
+        }
+        return directory;
     }
 
-}
\ No newline at end of file
+}
@@ -11,24 +11,20 @@
 
 package com.google.cloud.broker.apps.brokerserver.validation;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import io.grpc.Status;
 
-import com.google.cloud.broker.settings.AppSettings;
-
 public class ScopeValidation {
 
     public static void validateScopes(List<String> scopes) {
-        List<String> allowlist = AppSettings.getInstance().getStringList(AppSettings.SCOPES_ALLOWLIST);
-        Set<String> scopeSet = new HashSet<String>(scopes);
-        Set<String> allowlistSet = new HashSet<String>(allowlist);
-        if (!allowlistSet.containsAll(scopeSet)) {
-            throw Status.PERMISSION_DENIED
-                .withDescription(String.format("`[%s]` are not allowlisted scopes", String.join(",", scopes)))
-                .asRuntimeException();
+        AllowlistIndex allowlists = AllowlistIndex.getInstance();
+        for (int i = 0; i < scopes.size(); i++) {
+            if (!allowlists.isAllowlistedScope(scopes.get(i))) {
+                throw Status.PERMISSION_DENIED
+                    .withDescription(String.format("`[%s]` are not allowlisted scopes", String.join(",", scopes)))
+                    .asRuntimeException();
+            }
         }
     }
 
@@ -0,0 +1,116 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.cloud.broker.apps.brokerserver.protobuf.BrokerGrpc;
+import com.google.cloud.broker.apps.brokerserver.protobuf.GetSessionTokenRequest;
+import com.google.cloud.broker.apps.brokerserver.sessions.Session;
+import com.google.cloud.broker.authentication.AuthorizationHeaderServerInterceptor;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class AuthenticationServerInterceptorTest {
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.AUTHENTICATION_BACKEND, "com.google.cloud.broker.authentication.backends.MockAuthenticator"
+    ));
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private BrokerGrpc.BrokerBlockingStub getStub(String authorizationHeader) {
+        String serverName = InProcessServerBuilder.generateName();
+        try {
+            grpcCleanup.register(InProcessServerBuilder
+                .forName(serverName).directExecutor().addService(BrokerServer.getServiceDefinition()).build().start());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        BrokerGrpc.BrokerBlockingStub stub = BrokerGrpc.newBlockingStub(
+            grpcCleanup.register(InProcessChannelBuilder.forName(serverName).directExecutor().build()));
+        if (authorizationHeader != null) {
+            Metadata metadata = new Metadata();
+            metadata.put(Metadata.Key.of("broker-authorization", Metadata.ASCII_STRING_MARSHALLER), authorizationHeader);
+            stub = MetadataUtils.attachHeaders(stub, metadata);
+        }
+        return stub;
+    }
+
+    private void assertUnauthenticated(String authorizationHeader, String expectedDescription) {
+        try {
+            getStub(authorizationHeader).getSessionToken(GetSessionTokenRequest.newBuilder().build());
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.UNAUTHENTICATED.getCode(), e.getStatus().getCode());
+            assertEquals(expectedDescription, e.getStatus().getDescription());
+        }
+    }
+
+    @Test
+    public void testRejectedBeforeDispatch() {
+        // Missing header
+        assertUnauthenticated(null, "Missing `broker-authorization` metadata");
+        // Rejected by the authentication backend
+        assertUnauthenticated("Blah alice@EXAMPLE.COM", null);
+    }
+
+    @Test
+    public void testAuthenticate() throws Exception {
+        Context context = Context.current().withValue(
+            AuthorizationHeaderServerInterceptor.BROKER_AUTHORIZATION_CONTEXT_KEY, "Negotiate alice@EXAMPLE.COM");
+        AuthenticatedCaller caller = context.call(AuthenticationServerInterceptor::authenticate);
+        assertEquals("alice@EXAMPLE.COM", caller.getPrincipal());
+        assertEquals(AuthenticatedCaller.Mode.DIRECT, caller.getMode());
+        assertNull(caller.getSession());
+
+        // The endpoints read the caller from the context
+        context = Context.current().withValue(AuthenticatedCaller.CONTEXT_KEY, caller);
+        assertEquals("alice@EXAMPLE.COM", context.call(AuthenticatedCaller::getCurrentDirectPrincipal));
+    }
+
+    @Test
+    public void testDelegatedCaller() throws Exception {
+        Session session = new Session(null, "alice@EXAMPLE.COM", "yarn@FOO.BAR", "", "scope", null, null);
+        AuthenticatedCaller caller = AuthenticatedCaller.delegated(session);
+        assertEquals("alice@EXAMPLE.COM", caller.getPrincipal());
+        assertEquals(AuthenticatedCaller.Mode.DELEGATED, caller.getMode());
+        assertSame(session, caller.getSession());
+
+        // Session tokens are only accepted by some endpoints
+        Context context = Context.current().withValue(AuthenticatedCaller.CONTEXT_KEY, caller);
+        try {
+            context.call(AuthenticatedCaller::getCurrentDirectPrincipal);
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.UNAUTHENTICATED.getCode(), e.getStatus().getCode());
+            assertEquals("Session tokens can only be used to get access tokens", e.getStatus().getDescription());
+        }
+    }
+
+}
@@ -27,7 +27,9 @@ import com.google.cloud.broker.apps.brokerserver.accesstokens.AccessBoundaryUtil
 import com.google.cloud.broker.apps.brokerserver.accesstokens.MockAccessBoundary;
 import com.google.cloud.broker.apps.brokerserver.protobuf.*;
 import com.google.cloud.broker.apps.brokerserver.sessions.Session;
+import com.google.cloud.broker.apps.brokerserver.sessions.SessionCacheFetcher;
 import com.google.cloud.broker.apps.brokerserver.sessions.SessionTokenUtils;
+import com.google.cloud.broker.caching.CacheStats;
 import com.google.cloud.broker.database.DatabaseObjectNotFound;
 import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
 import com.google.cloud.broker.database.backends.DummyDatabaseBackend;
@@ -88,6 +90,7 @@ public class BrokerServerTest {
         map.put(AppSettings.SESSION_RENEW_PERIOD, SESSION_RENEW_PERIOD.toString());
         map.put(AppSettings.SESSION_MAXIMUM_LIFETIME, SESSION_MAXIMUM_LIFETIME.toString());
         map.put(AppSettings.USER_MAPPER, "com.google.cloud.broker.usermapping.MockUserMapper");
+        map.put(AppSettings.ADMIN_USERS, "[\"admin@EXAMPLE.COM\"]");
 
         // Keep reference to old config file, if any
         configFileBackup = System.getProperty(AppSettings.CONFIG_FILE_PROPERTY);
@@ -122,6 +125,23 @@ public class BrokerServerTest {
             grpcCleanup.register(InProcessChannelBuilder.forName(serverName).directExecutor().build()));
     }
 
+    private BrokerAdminGrpc.BrokerAdminBlockingStub getAdminStub(String principal) {
+        String serverName = InProcessServerBuilder.generateName();
+
+        try {
+            grpcCleanup.register(InProcessServerBuilder
+                .forName(serverName).directExecutor().addService(BrokerServer.getAdminServiceDefinition()).build().start());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        Metadata metadata = new Metadata();
+        Metadata.Key<String> key = Metadata.Key.of("broker-authorization", Metadata.ASCII_STRING_MARSHALLER);
+        metadata.put(key, "Negotiate " + principal);
+        return MetadataUtils.attachHeaders(BrokerAdminGrpc.newBlockingStub(
+            grpcCleanup.register(InProcessChannelBuilder.forName(serverName).directExecutor().build())), metadata);
+    }
+
     public BrokerBlockingStub addSPNEGOTokenToMetadata(BrokerBlockingStub stub, String principal) {
         Metadata metadata = new Metadata();
         Metadata.Key<String> key = Metadata.Key.of("broker-authorization", Metadata.ASCII_STRING_MARSHALLER);
@@ -248,6 +268,35 @@ public class BrokerServerTest {
         assertEquals( newNow + SESSION_RENEW_PERIOD, session.getExpiresAt().longValue());
     }
 
+    @Test
+    public void testRenewSessionToken_InvalidatesCache() {
+        // Mock the system time
+        mockStatic(TimeUtils.class);
+        Long now = 1000000000000L;
+        PowerMockito.when(TimeUtils.currentTimeMillis()).thenReturn(now);
+
+        // Create a session in the database, and read it through the caches
+        Session session = createSession();
+        String rawToken = SessionTokenUtils.marshallSessionToken(session);
+        Session cached = (Session) new SessionCacheFetcher(rawToken).fetch();
+        assertEquals(now + SESSION_RENEW_PERIOD, cached.getExpiresAt().longValue());
+
+        // Change the system time again to simulate elapsing time
+        Long newNow = now + 5000L;
+        PowerMockito.when(TimeUtils.currentTimeMillis()).thenReturn(newNow);
+
+        // Send the Renew request
+        BrokerBlockingStub stub = getStub();
+        stub = addSPNEGOTokenToMetadata(stub, "yarn@FOO.BAR");
+        stub.renewSessionToken(RenewSessionTokenRequest.newBuilder()
+            .setSessionToken(rawToken)
+            .build());
+
+        // Check that the caches serve the new expiry
+        cached = (Session) new SessionCacheFetcher(rawToken).fetch();
+        assertEquals(newNow + SESSION_RENEW_PERIOD, cached.getExpiresAt().longValue());
+    }
+
     @Test
     public void testRenewSessionToken_MaxLifeTime() throws DatabaseObjectNotFound {
         // Mock the system time
@@ -364,4 +413,31 @@ public class BrokerServerTest {
         assertEquals(999999999L, response.getExpiresAt());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGetCacheStats() {
+        CacheStats.get("TestCacheFetcher").increment(CacheStats.LOCAL_HIT);
+        CacheStats.get("TestCacheFetcher").record(CacheStats.LOAD_TIME, 7);
+
+        GetCacheStatsResponse response = getAdminStub("admin@EXAMPLE.COM").getCacheStats(GetCacheStatsRequest.newBuilder().build());
+        CacheStatsEntry entry = response.getStatsList().stream()
+            .filter(stats -> stats.getName().equals("TestCacheFetcher")).findFirst().get();
+        assertEquals(1L, entry.getCountersOrThrow(CacheStats.LOCAL_HIT));
+        CacheHistogram histogram = entry.getHistograms(0);
+        assertEquals(CacheStats.LOAD_TIME, histogram.getName());
+        assertEquals(1L, histogram.getCount());
+        assertEquals(7L, histogram.getSumMillis());
+        // 7ms falls in the (5, 10] bucket
+        assertEquals(1L, histogram.getBucketCounts(2));
+    }
+
+    @Test
+    public void testGetCacheStats_NotAdmin() {
+        try {
+            getAdminStub(ALICE).getCacheStats(GetCacheStatsRequest.newBuilder().build());
+            fail("StatusRuntimeException not thrown");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.PERMISSION_DENIED.getCode(), e.getStatus().getCode());
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.accesstokens;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import com.google.cloud.broker.caching.local.LocalCache;
+import com.google.cloud.broker.caching.remote.AbstractRemoteCache;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class AccessTokenWarmUpTest {
+
+    private static final List<String> SCOPES = List.of("https://www.googleapis.com/auth/devstorage.read_write");
+    private static final String TARGET = "//storage.googleapis.com/projects/_/buckets/example";
+    private static final String ALICE = "alice@EXAMPLE.COM";
+    private static final String BOB = "bob@EXAMPLE.COM";
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.REMOTE_CACHE, "com.google.cloud.broker.caching.CacheFetcherTest$InMemoryCache",
+        AppSettings.ENCRYPTION_BACKEND, "com.google.cloud.broker.encryption.backends.DummyEncryptionBackend",
+        AppSettings.ACCESS_TOKEN_WARM_UP_ENABLED, true
+    ));
+
+    @After
+    public void teardown() {
+        AbstractRemoteCache.getInstance().delete(AccessTokenWarmUp.SNAPSHOT_KEY);
+    }
+
+    @Test
+    public void testWarmUp() {
+        AccessTokenCacheFetcher alice = new AccessTokenCacheFetcher(ALICE, SCOPES, TARGET);
+        AccessTokenCacheFetcher bob = new AccessTokenCacheFetcher(BOB, SCOPES, TARGET);
+        AccessTokenWarmUp.record(ALICE, SCOPES, TARGET);
+        AccessTokenWarmUp.record(BOB, SCOPES, TARGET);
+        AccessTokenWarmUp warmUp = new AccessTokenWarmUp();
+        assertEquals(2, warmUp.saveSnapshot());
+
+        // Only Alice's access token is still in the remote cache
+        AbstractRemoteCache.getInstance().set(alice.getCacheKey(), "{\"value\": \"abcd\", \"expiresAt\": 1000}".getBytes(), 60);
+        try {
+            assertEquals(1, warmUp.warmUp());
+            AccessToken token = (AccessToken) LocalCache.get(alice.getCacheKey());
+            assertEquals("abcd", token.getValue());
+            assertNull(LocalCache.get(bob.getCacheKey()));
+        } finally {
+            AbstractRemoteCache.getInstance().delete(alice.getCacheKey());
+            LocalCache.delete(alice.getCacheKey());
+        }
+    }
+
+    @Test
+    public void testMergedSnapshots() {
+        // Two instances, each with its own recent requests
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.ACCESS_TOKEN_WARM_UP_MAXIMUM_SIZE, 10))) {
+            AccessTokenWarmUp.record(ALICE, SCOPES, TARGET);
+            assertEquals(1, new AccessTokenWarmUp().saveSnapshot());
+        }
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.ACCESS_TOKEN_WARM_UP_MAXIMUM_SIZE, 20))) {
+            AccessTokenWarmUp.record(BOB, SCOPES, TARGET);
+            AccessTokenWarmUp.record(BOB, SCOPES, TARGET);
+            // The second instance doesn't overwrite the first one's requests
+            assertEquals(2, new AccessTokenWarmUp().saveSnapshot());
+        }
+        // The maximum size applies to the merged snapshot
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.ACCESS_TOKEN_WARM_UP_MAXIMUM_SIZE, 1))) {
+            AccessTokenWarmUp.record(BOB, SCOPES, TARGET);
+            assertEquals(1, new AccessTokenWarmUp().saveSnapshot());
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.ACCESS_TOKEN_WARM_UP_ENABLED, false))) {
+            AccessTokenWarmUp.record(ALICE, SCOPES, TARGET);
+            assertEquals(0, new AccessTokenWarmUp().saveSnapshot());
+        }
+    }
+
+    @Test
+    public void testNoSnapshot() {
+        assertEquals(0, new AccessTokenWarmUp().warmUp());
+    }
+
+}
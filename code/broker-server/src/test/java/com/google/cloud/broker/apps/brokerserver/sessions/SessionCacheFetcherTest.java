@@ -34,6 +34,7 @@ public class SessionCacheFetcherTest {
     @ClassRule
     public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
         AppSettings.SESSION_LOCAL_CACHE_TIME, "1234",
+        AppSettings.SESSION_REMOTE_CACHE_TIME, "6789",
         AppSettings.SESSION_RENEW_PERIOD, SESSION_RENEW_PERIOD.toString(),
         AppSettings.SESSION_MAXIMUM_LIFETIME, SESSION_MAXIMUM_LIFETIME.toString(),
         AppSettings.DATABASE_BACKEND, "com.google.cloud.broker.database.backends.DummyDatabaseBackend",
@@ -98,12 +99,7 @@ public class SessionCacheFetcherTest {
     @Test
     public void testGetRemoteCacheTime() {
         SessionCacheFetcher fetcher = new SessionCacheFetcher("xxxx");
-        try {
-            fetcher.getRemoteCacheTime();
-            fail();
-        } catch(UnsupportedOperationException e) {
-            // Expected
-        }
+        assertEquals(6789, fetcher.getRemoteCacheTime());
     }
 
 }
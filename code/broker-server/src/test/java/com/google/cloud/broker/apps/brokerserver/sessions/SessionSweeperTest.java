@@ -0,0 +1,68 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.sessions;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
+import com.google.cloud.broker.database.backends.DummyDatabaseBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+import com.google.cloud.broker.utils.TimeUtils;
+
+public class SessionSweeperTest {
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.DATABASE_BACKEND, "com.google.cloud.broker.database.backends.DummyDatabaseBackend",
+        AppSettings.SESSION_SWEEPER_INTERVAL, 60,
+        AppSettings.SESSION_SWEEPER_BATCH_SIZE, 2,
+        AppSettings.SESSION_SWEEPER_RATE_LIMIT, 1000
+    ));
+
+    @After
+    public void teardown() {
+        DummyDatabaseBackend.getCache().clear();
+    }
+
+    private static void createSession(String id, long expiresAt) {
+        Session session = new Session(id, "alice@EXAMPLE.COM", "yarn@FOO.BAR", "//example", "scope", expiresAt, 0L);
+        AbstractDatabaseBackend.getInstance().save(session);
+    }
+
+    @Test
+    public void testSweep() {
+        long now = TimeUtils.currentTimeMillis();
+        // Expired sessions, more than a single batch
+        createSession("a", now - 3000);
+        createSession("b", now - 2000);
+        createSession("c", now - 1000);
+        createSession("d", now - 1);
+        createSession("e", now - 500);
+        // Active sessions
+        createSession("f", now + 60000);
+        createSession("g", now + 120000);
+
+        SessionSweeper sweeper = new SessionSweeper();
+        assertEquals(5, sweeper.sweep());
+        assertEquals(2, DummyDatabaseBackend.getCache().size());
+        assertTrue(DummyDatabaseBackend.getCache().containsKey("Session-f"));
+        assertTrue(DummyDatabaseBackend.getCache().containsKey("Session-g"));
+
+        // Nothing left to delete
+        assertEquals(0, sweeper.sweep());
+    }
+
+}
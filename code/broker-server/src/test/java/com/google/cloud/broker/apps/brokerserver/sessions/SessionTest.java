@@ -13,6 +13,7 @@ package com.google.cloud.broker.apps.brokerserver.sessions;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -26,7 +27,18 @@ public class SessionTest {
     private static final String GCS = "https://www.googleapis.com/auth/devstorage.read_write";
     private static final String MOCK_BUCKET = "//storage.googleapis.com/projects/_/buckets/example";
 
-    // TODO: testToMap
+    @Test
+    public void testToMap() {
+        Session session = new Session("123456789", ALICE, YARN, MOCK_BUCKET, GCS, 2222222222222L, 11111111111111L);
+        Map<String, Object> values = session.toMap();
+        assertEquals("123456789", values.get("id"));
+        assertEquals(ALICE, values.get("owner"));
+        assertEquals(YARN, values.get("renewer"));
+        assertEquals(MOCK_BUCKET, values.get("target"));
+        assertEquals(GCS, values.get("scopes"));
+        assertEquals(11111111111111L, values.get("creationTime"));
+        assertEquals(2222222222222L, values.get("expiresAt"));
+    }
 
     @Test
     public void testFromMap() {
@@ -0,0 +1,86 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.validation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class AllowlistIndexTest {
+
+    private static final String HIVE = "hive/testhost@EXAMPLE.COM";
+    private static final String OOZIE = "oozie/testhost@EXAMPLE.COM";
+    private static final String PRESTO = "presto/testhost@EXAMPLE.COM";
+    private static final String SCOPE = "https://www.googleapis.com/auth/devstorage.read_write";
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.PROXY_USERS, ConfigFactory.parseString(
+            AppSettings.PROXY_USERS + "=[" +
+                "{proxy=\"" + HIVE + "\", users=[\"alice@example.com\"]}," +
+                "{proxy=\"" + HIVE + "\", users=[\"bob@example.com\"], groups=[\"datascience@example.com\"]}," +
+                "{proxy=\"" + OOZIE + "\", groups=[\"*\", \"finance@example.com\"]}," +
+                "{proxy=\"" + PRESTO + "\", users=[\"*\"]}" +
+            "]").getAnyRef(AppSettings.PROXY_USERS),
+        AppSettings.SCOPES_ALLOWLIST, List.of(SCOPE)
+    ));
+
+    @Test
+    public void testProxyUsers() {
+        AllowlistIndex index = AllowlistIndex.getInstance();
+
+        // Entries for the same proxy are merged
+        AllowlistIndex.ProxyEntry hive = index.getProxy(HIVE);
+        assertTrue(hive.isAllowlistedByUsername("alice@example.com"));
+        assertTrue(hive.isAllowlistedByUsername("bob@example.com"));
+        assertFalse(hive.isAllowlistedByUsername("charlie@example.com"));
+        assertFalse(hive.isAnyGroup());
+        assertEquals(Set.of("datascience@example.com"), hive.getGroups());
+
+        // Wildcards
+        assertTrue(index.getProxy(PRESTO).isAllowlistedByUsername("charlie@example.com"));
+        assertTrue(index.getProxy(OOZIE).isAnyGroup());
+        assertFalse(index.getProxy(OOZIE).isAllowlistedByUsername("charlie@example.com"));
+
+        // Unknown proxy
+        assertNull(index.getProxy("spark/testhost@EXAMPLE.COM"));
+
+        // All groups, except the wildcard
+        assertEquals(Set.of("datascience@example.com", "finance@example.com"), index.getGroups());
+    }
+
+    @Test
+    public void testScopes() {
+        assertTrue(AllowlistIndex.getInstance().isAllowlistedScope(SCOPE));
+        assertFalse(AllowlistIndex.getInstance().isAllowlistedScope("https://www.googleapis.com/auth/cloud-platform"));
+    }
+
+    @Test
+    public void testRecompiledWithNewSettings() {
+        AllowlistIndex index = AllowlistIndex.getInstance();
+        assertSame(index, AllowlistIndex.getInstance());
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.SCOPES_ALLOWLIST, List.of()))) {
+            assertNotSame(index, AllowlistIndex.getInstance());
+            assertFalse(AllowlistIndex.getInstance().isAllowlistedScope(SCOPE));
+        }
+        assertTrue(AllowlistIndex.getInstance().isAllowlistedScope(SCOPE));
+    }
+
+}
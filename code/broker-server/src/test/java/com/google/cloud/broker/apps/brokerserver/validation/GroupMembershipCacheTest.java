@@ -0,0 +1,165 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.apps.brokerserver.validation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class GroupMembershipCacheTest {
+
+    private static final String DATASCIENCE = "datascience@example.com";
+    private static final String FINANCE = "finance@example.com";
+    private static final String ALICE = "alice@example.com";
+    private static final String BOB = "bob@example.com";
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.PROXY_USERS, ConfigFactory.parseString(
+            AppSettings.PROXY_USERS + "=[" +
+                "{proxy=\"hive/testhost@EXAMPLE.COM\", groups=[\"" + DATASCIENCE + "\"]}," +
+                "{proxy=\"oozie/testhost@EXAMPLE.COM\", groups=[\"*\"]}" +
+            "]").getAnyRef(AppSettings.PROXY_USERS)
+    ));
+
+    private static class FakeLister implements GroupMembershipCache.MemberLister {
+        final Map<String, Set<String>> groups = new HashMap<>();
+        final AtomicInteger calls = new AtomicInteger();
+        // Errors thrown when listing a group, by group
+        final Map<String, IOException> errors = new HashMap<>();
+
+        @Override
+        public Set<String> list(String group) throws IOException {
+            calls.incrementAndGet();
+            IOException error = errors.get(group);
+            if (error != null) {
+                throw error;
+            }
+            return groups.getOrDefault(group, Set.of());
+        }
+    }
+
+    @Test
+    public void testCached() {
+        FakeLister lister = new FakeLister();
+        lister.groups.put(DATASCIENCE, Set.of(ALICE));
+        GroupMembershipCache cache = new GroupMembershipCache(lister);
+        assertTrue(cache.isMember(DATASCIENCE, ALICE));
+        assertFalse(cache.isMember(DATASCIENCE, BOB));
+        // The group was only listed once
+        assertEquals(1, lister.calls.get());
+    }
+
+    @Test
+    public void testRefresh() {
+        FakeLister lister = new FakeLister();
+        lister.groups.put(DATASCIENCE, Set.of(ALICE));
+        GroupMembershipCache cache = new GroupMembershipCache(lister);
+        assertTrue(cache.isMember(DATASCIENCE, ALICE));
+        assertFalse(cache.isMember(FINANCE, ALICE));
+        assertEquals(2, cache.size());
+
+        // Membership changes are picked up by the next refresh, and groups that aren't configured are dropped
+        lister.groups.put(DATASCIENCE, Set.of(BOB));
+        cache.refresh();
+        assertEquals(1, cache.size());
+        assertFalse(cache.isMember(DATASCIENCE, ALICE));
+        assertTrue(cache.isMember(DATASCIENCE, BOB));
+
+        // Failed refreshes keep the previous members
+        lister.errors.put(DATASCIENCE, new IOException("Directory API unavailable"));
+        cache.refresh();
+        assertTrue(cache.isMember(DATASCIENCE, BOB));
+    }
+
+    private static GoogleJsonResponseException newDirectoryError(int statusCode) {
+        return new GoogleJsonResponseException(
+            new HttpResponseException.Builder(statusCode, "Error " + statusCode, new HttpHeaders()), null);
+    }
+
+    @Test
+    public void testRefreshClientErrors() {
+        FakeLister lister = new FakeLister();
+        lister.groups.put(DATASCIENCE, Set.of(ALICE));
+        GroupMembershipCache cache = new GroupMembershipCache(lister);
+        assertTrue(cache.isMember(DATASCIENCE, ALICE));
+
+        // Client errors other than 404 (e.g. quota exceeded) keep the previous members
+        for (int statusCode : new int[]{400, 403, 429}) {
+            lister.errors.put(DATASCIENCE, newDirectoryError(statusCode));
+            cache.refresh();
+            assertTrue(cache.isMember(DATASCIENCE, ALICE));
+        }
+
+        // A group that no longer exists has no members
+        lister.errors.put(DATASCIENCE, newDirectoryError(404));
+        cache.refresh();
+        assertFalse(cache.isMember(DATASCIENCE, ALICE));
+    }
+
+    @Test
+    public void testClientErrorOnFirstCheck() {
+        String proxy = "hive/testhost@EXAMPLE.COM";
+        Map<String, Object> settings = Map.of(
+            AppSettings.PROXY_USERS, ConfigFactory.parseString(
+                AppSettings.PROXY_USERS + "=[" +
+                    "{proxy=\"" + proxy + "\", groups=[\"" + DATASCIENCE + "\", \"" + FINANCE + "\"]}" +
+                "]").getAnyRef(AppSettings.PROXY_USERS));
+        for (int refreshInterval : new int[]{300, 0}) {
+            Map<String, Object> overrides = new HashMap<>(settings);
+            overrides.put(AppSettings.PROXY_USER_GROUPS_REFRESH_INTERVAL, refreshInterval);
+            try (SettingsOverride override = SettingsOverride.apply(overrides)) {
+                FakeLister lister = new FakeLister();
+                lister.errors.put(DATASCIENCE, newDirectoryError(403));
+                lister.groups.put(FINANCE, Set.of(ALICE));
+                GroupMembershipCache cache = new GroupMembershipCache(lister);
+                AllowlistIndex.ProxyEntry entry = AllowlistIndex.getInstance().getProxy(proxy);
+
+                // The group that can't be listed is skipped, and the next groups are still checked
+                assertTrue(ProxyUserValidation.isAllowlistedByGroupMembership(entry, ALICE, cache));
+                assertFalse(ProxyUserValidation.isAllowlistedByGroupMembership(entry, BOB, cache));
+                // Nothing is cached for the group that failed, so the next check lists it again
+                assertEquals(refreshInterval > 0 ? 1 : 0, cache.size());
+                lister.errors.clear();
+                lister.groups.put(DATASCIENCE, Set.of(BOB));
+                assertTrue(ProxyUserValidation.isAllowlistedByGroupMembership(entry, BOB, cache));
+            }
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        FakeLister lister = new FakeLister();
+        lister.groups.put(DATASCIENCE, Set.of(ALICE));
+        GroupMembershipCache cache = new GroupMembershipCache(lister);
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.PROXY_USER_GROUPS_REFRESH_INTERVAL, 0))) {
+            assertTrue(cache.isMember(DATASCIENCE, ALICE));
+            assertTrue(cache.isMember(DATASCIENCE, ALICE));
+            assertEquals(2, lister.calls.get());
+            assertEquals(0, cache.size());
+        }
+    }
+
+}
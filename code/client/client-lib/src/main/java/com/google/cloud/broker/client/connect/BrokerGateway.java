@@ -21,9 +21,24 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-
+import java.security.AccessController;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import com.google.auth.oauth2.AccessToken;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 import io.grpc.stub.MetadataUtils;
 import com.google.common.io.BaseEncoding;
 import java.util.List;
@@ -42,6 +57,19 @@ public class BrokerGateway {
     public static String SESSION_AUTH_HEADER = "BrokerSession";
     public static String NEGOTIATE_AUTH_HEADER = "Negotiate";
     public static String BEARER_AUTH_HEADER = "Bearer";
+    public static String AUTH_COOKIE_AUTH_HEADER = "BrokerAuth";
+    public static final Metadata.Key<String> BROKER_AUTH_COOKIE_METADATA_KEY =
+        Metadata.Key.of("broker-auth-cookie", Metadata.ASCII_STRING_MARSHALLER);
+
+    // Credentials are only reused if they remain valid for at least this long (in milliseconds),
+    // to leave room for the call itself and for clock skew
+    private static final long EXPIRY_MARGIN = 60 * 1000;
+
+    // Authentication cookies issued by broker servers, keyed by server URI and Kerberos user
+    private static final ConcurrentMap<String, String> authCookies = new ConcurrentHashMap<>();
+    // Google ID tokens, keyed by server URI
+    private static final ConcurrentMap<String, AccessToken> idTokens = new ConcurrentHashMap<>();
+
     private BrokerGrpc.BrokerBlockingStub stub;
     private ManagedChannel managedChannel;
     private BrokerServerInfo serverInfo;
@@ -107,34 +135,113 @@ public class BrokerGateway {
     }
 
     public void setSPNEGOToken() {
-        String encodedToken;
-        try {
-            encodedToken = BaseEncoding.base64().encode(SpnegoUtils.newSPNEGOToken(serverInfo.getKerberosPrincipal()));
-        } catch (GSSException e) {
-            // Clean up the channel before re-throwing the exception
-            managedChannel.shutdownNow();
-            throw new RuntimeException(
-                "Failed creating a SPNEGO token. Make sure that you have run kinit and that your Kerberos configuration is correct. See the full Kerberos error message: " + e.getMessage());
+        // Cookies are only reused by the Kerberos user they were issued to. If the user isn't known
+        // (i.e. the SPNEGO token is created from the default ticket cache), cookies aren't used at all.
+        String kerberosUser = getKerberosUser();
+        String cookieKey = (kerberosUser == null) ? null : serverInfo.getServerUri() + "\n" + kerberosUser;
+        String cookie = (cookieKey == null) ? null : authCookies.get(cookieKey);
+        String authorizationHeader;
+        if (cookie != null && isValidCookie(cookie)) {
+            // Authenticate with the cookie issued after a previous SPNEGO authentication
+            authorizationHeader = AUTH_COOKIE_AUTH_HEADER + " " + cookie;
+        }
+        else {
+            cookie = null;
+            String encodedToken;
+            try {
+                encodedToken = BaseEncoding.base64().encode(SpnegoUtils.newSPNEGOToken(serverInfo.getKerberosPrincipal()));
+            } catch (GSSException e) {
+                // Clean up the channel before re-throwing the exception
+                managedChannel.shutdownNow();
+                throw new RuntimeException(
+                    "Failed creating a SPNEGO token. Make sure that you have run kinit and that your Kerberos configuration is correct. See the full Kerberos error message: " + e.getMessage());
+            }
+            authorizationHeader = NEGOTIATE_AUTH_HEADER + " " + encodedToken;
         }
-        // Get the Google IDToken, which is necessary to authenticate with the Google load balancer
-        String idToken =
-            OAuthUtils.getApplicationDefaultIdToken(serverInfo.getServerUri()).getTokenValue();
         // Set authorization headers
         Metadata metadata = new Metadata();
-        metadata.put(GCP_AUTHORIZATION_METADATA_KEY, BEARER_AUTH_HEADER + " " + idToken);
-        metadata.put(BROKER_AUTHORIZATION_METADATA_KEY, NEGOTIATE_AUTH_HEADER + " " + encodedToken);
+        metadata.put(GCP_AUTHORIZATION_METADATA_KEY, BEARER_AUTH_HEADER + " " + getIdToken());
+        metadata.put(BROKER_AUTHORIZATION_METADATA_KEY, authorizationHeader);
         stub = MetadataUtils.attachHeaders(stub, metadata);
+        if (cookieKey != null) {
+            stub = stub.withInterceptors(newAuthCookieInterceptor(cookieKey, cookie));
+        }
     }
 
     public void setSessionToken(String sessionToken) {
-        // Get the Google IDToken, which is necessary to authenticate with the Google load balancer
-        String idToken =
-            OAuthUtils.getApplicationDefaultIdToken(serverInfo.getServerUri()).getTokenValue();
         // Set authorization headers
         Metadata metadata = new Metadata();
-        metadata.put(GCP_AUTHORIZATION_METADATA_KEY, BEARER_AUTH_HEADER + " " + idToken);
+        metadata.put(GCP_AUTHORIZATION_METADATA_KEY, BEARER_AUTH_HEADER + " " + getIdToken());
         metadata.put(BROKER_AUTHORIZATION_METADATA_KEY, SESSION_AUTH_HEADER + " " + sessionToken);
         stub = MetadataUtils.attachHeaders(stub, metadata);
     }
 
-}
\ No newline at end of file
+    // Get the Google IDToken, which is necessary to authenticate with the Google load balancer
+    private String getIdToken() {
+        AccessToken idToken = idTokens.get(serverInfo.getServerUri());
+        if (idToken == null || idToken.getExpirationTime() == null ||
+            idToken.getExpirationTime().getTime() - EXPIRY_MARGIN < System.currentTimeMillis()) {
+            idToken = OAuthUtils.getApplicationDefaultIdToken(serverInfo.getServerUri());
+            idTokens.put(serverInfo.getServerUri(), idToken);
+        }
+        return idToken.getTokenValue();
+    }
+
+    // Returns the Kerberos user that the SPNEGO token would be created for, or null if unknown
+    private static String getKerberosUser() {
+        Subject subject = Subject.getSubject(AccessController.getContext());
+        if (subject != null) {
+            Set<KerberosPrincipal> principals = subject.getPrincipals(KerberosPrincipal.class);
+            if (!principals.isEmpty()) {
+                return principals.iterator().next().getName();
+            }
+        }
+        return null;
+    }
+
+    // The cookie starts with its expiry time in milliseconds
+    static boolean isValidCookie(String cookie) {
+        try {
+            long expiresAt = Long.parseLong(cookie.substring(0, cookie.indexOf('.')));
+            return expiresAt - EXPIRY_MARGIN > System.currentTimeMillis();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keeps the cookie returned by the server, if any, for the next calls. Forgets the cookie that was
+     * used if the server rejects it, so that the next calls use SPNEGO again.
+     */
+    private static ClientInterceptor newAuthCookieInterceptor(String cookieKey, String usedCookie) {
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+                return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+                    @Override
+                    public void start(Listener<RespT> responseListener, Metadata headers) {
+                        super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                            @Override
+                            public void onHeaders(Metadata headers) {
+                                String cookie = headers.get(BROKER_AUTH_COOKIE_METADATA_KEY);
+                                if (cookie != null) {
+                                    authCookies.put(cookieKey, cookie);
+                                }
+                                super.onHeaders(headers);
+                            }
+
+                            @Override
+                            public void onClose(Status status, Metadata trailers) {
+                                if (usedCookie != null && status.getCode() == Status.Code.UNAUTHENTICATED) {
+                                    authCookies.remove(cookieKey, usedCookie);
+                                }
+                                super.onClose(status, trailers);
+                            }
+                        }, headers);
+                    }
+                };
+            }
+        };
+    }
+
+}
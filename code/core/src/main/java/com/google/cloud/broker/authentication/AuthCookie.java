@@ -0,0 +1,126 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.grpc.Status;
+
+import com.google.cloud.broker.encryption.backends.AbstractEncryptionBackend;
+import com.google.cloud.broker.settings.AppSettings;
+
+/**
+ * Short-lived credential that the broker issues to a client after a successful authentication
+ * (e.g. SPNEGO), so that the client can authenticate its next calls without another handshake.
+ *
+ * Format: "[expiry time in milliseconds].[base64 user].[base64 HMAC-SHA256 of the first two parts]".
+ * The HMAC key is derived from the encryption backend's key material, so all broker instances
+ * issue and accept the same cookies.
+ */
+public class AuthCookie {
+
+    public final static String AUTH_HEADER = "BrokerAuth";
+
+    private final static String ALGORITHM = "HmacSHA256";
+    private final static String KEY_PURPOSE = "auth-cookies";
+    private final static Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private final static Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    private static volatile SigningKey signingKey;
+
+    private static class SigningKey {
+        final AbstractEncryptionBackend backend;
+        final SecretKeySpec key;
+
+        SigningKey(AbstractEncryptionBackend backend) {
+            this.backend = backend;
+            this.key = new SecretKeySpec(backend.deriveKey(KEY_PURPOSE), ALGORITHM);
+        }
+    }
+
+    private static SecretKeySpec getKey() {
+        AbstractEncryptionBackend backend = AbstractEncryptionBackend.getInstance();
+        SigningKey current = signingKey;
+        if (current == null || current.backend != backend) {
+            current = new SigningKey(backend);
+            signingKey = current;
+        }
+        return current.key;
+    }
+
+    private static byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(getKey());
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long getLifetime() {
+        return AppSettings.getInstance().getLong(AppSettings.AUTHENTICATION_COOKIE_LIFETIME);
+    }
+
+    public static boolean isEnabled() {
+        return getLifetime() > 0;
+    }
+
+    public static String issue(String user) {
+        long expiresAt = System.currentTimeMillis() + getLifetime() * 1000;
+        String payload = expiresAt + "." + encoder.encodeToString(user.getBytes(StandardCharsets.UTF_8));
+        return payload + "." + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * Returns the user that the cookie was issued to. Throws an UNAUTHENTICATED status if the cookie
+     * is invalid or expired.
+     */
+    public static String verify(String cookie) {
+        if (!isEnabled()) {
+            throw Status.UNAUTHENTICATED.withDescription("Authentication cookies are disabled").asRuntimeException();
+        }
+        String[] parts = cookie.split("\\.");
+        try {
+            if (parts.length != 3) {
+                throw new IllegalArgumentException();
+            }
+            String payload = parts[0] + "." + parts[1];
+            if (!MessageDigest.isEqual(sign(payload), decoder.decode(parts[2]))) {
+                throw new IllegalArgumentException();
+            }
+            if (Long.parseLong(parts[0]) <= System.currentTimeMillis()) {
+                throw Status.UNAUTHENTICATED.withDescription("Expired authentication cookie").asRuntimeException();
+            }
+            return new String(decoder.decode(parts[1]), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw Status.UNAUTHENTICATED.withDescription("Invalid authentication cookie").asRuntimeException();
+        }
+    }
+
+    /**
+     * Issues a cookie to the given user and sends it back with the current call's response headers.
+     */
+    public static void issueToCaller(String user) {
+        AtomicReference<String> holder = AuthorizationHeaderServerInterceptor.AUTH_COOKIE_CONTEXT_KEY.get();
+        if (holder != null && isEnabled()) {
+            holder.set(issue(user));
+        }
+    }
+
+}
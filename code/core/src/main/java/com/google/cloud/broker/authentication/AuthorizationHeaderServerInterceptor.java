@@ -11,6 +11,10 @@
 
 package com.google.cloud.broker.authentication;
 
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
 import io.grpc.*;
 
 
@@ -18,11 +22,41 @@ public class AuthorizationHeaderServerInterceptor implements ServerInterceptor {
 
     private static final Metadata.Key<String> BROKER_AUTHORIZATION_METADATA_KEY = Metadata.Key.of("broker-authorization", Metadata.ASCII_STRING_MARSHALLER);
     public static final Context.Key<String> BROKER_AUTHORIZATION_CONTEXT_KEY = Context.key("BrokerAuthorizationHeader");
+    // Address (including the port) of the client's connection. Null if the request was forwarded by a proxy
+    // (e.g. a load balancer), as the connection then is the proxy's and is shared by many clients.
+    public static final Context.Key<String> REMOTE_ADDRESS_CONTEXT_KEY = Context.key("BrokerRemoteAddress");
+    // Headers added by proxies to the requests they forward
+    private static final List<Metadata.Key<String>> FORWARDING_METADATA_KEYS = List.of(
+        Metadata.Key.of("forwarded", Metadata.ASCII_STRING_MARSHALLER),
+        Metadata.Key.of("x-forwarded-for", Metadata.ASCII_STRING_MARSHALLER),
+        Metadata.Key.of("via", Metadata.ASCII_STRING_MARSHALLER));
+    // Authentication cookie issued during the call, if any, to be sent back with the response headers
+    public static final Metadata.Key<String> BROKER_AUTH_COOKIE_METADATA_KEY = Metadata.Key.of("broker-auth-cookie", Metadata.ASCII_STRING_MARSHALLER);
+    public static final Context.Key<AtomicReference<String>> AUTH_COOKIE_CONTEXT_KEY = Context.key("BrokerAuthCookie");
 
     @Override
     public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> serverCall, Metadata metadata, ServerCallHandler<ReqT, RespT> serverCallHandler) {
         String authorizationHeader = metadata.get(BROKER_AUTHORIZATION_METADATA_KEY);
-        Context ctx = Context.current().withValue(BROKER_AUTHORIZATION_CONTEXT_KEY, authorizationHeader);
-        return Contexts.interceptCall(ctx, serverCall, metadata, serverCallHandler);
+        SocketAddress remoteAddress = isForwarded(metadata) ? null : serverCall.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        AtomicReference<String> authCookie = new AtomicReference<>();
+        Context ctx = Context.current()
+            .withValue(BROKER_AUTHORIZATION_CONTEXT_KEY, authorizationHeader)
+            .withValue(REMOTE_ADDRESS_CONTEXT_KEY, remoteAddress == null ? null : remoteAddress.toString())
+            .withValue(AUTH_COOKIE_CONTEXT_KEY, authCookie);
+        ServerCall<ReqT, RespT> call = new ForwardingServerCall.SimpleForwardingServerCall<>(serverCall) {
+            @Override
+            public void sendHeaders(Metadata headers) {
+                String cookie = authCookie.get();
+                if (cookie != null) {
+                    headers.put(BROKER_AUTH_COOKIE_METADATA_KEY, cookie);
+                }
+                super.sendHeaders(headers);
+            }
+        };
+        return Contexts.interceptCall(ctx, call, metadata, serverCallHandler);
+    }
+
+    static boolean isForwarded(Metadata metadata) {
+        return FORWARDING_METADATA_KEYS.stream().anyMatch(metadata::containsKey);
     }
 }
\ No newline at end of file
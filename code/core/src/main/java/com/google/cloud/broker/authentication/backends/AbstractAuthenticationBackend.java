@@ -11,32 +11,155 @@
 
 package com.google.cloud.broker.authentication.backends;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.google.cloud.broker.authentication.AuthCookie;
 import com.google.cloud.broker.authentication.AuthorizationHeaderServerInterceptor;
 import com.google.cloud.broker.settings.AppSettings;
-import com.google.cloud.broker.utils.InstanceUtils;
+import com.google.cloud.broker.utils.ComponentRegistry;
 
 
 public abstract class AbstractAuthenticationBackend {
 
-    private static AbstractAuthenticationBackend instance;
+    private static final ComponentRegistry.Component<AbstractAuthenticationBackend> component =
+        ComponentRegistry.register(AppSettings.AUTHENTICATION_BACKEND, AbstractAuthenticationBackend.class);
     public static final String AUTHENTICATED_USER = "authenticatedUser";
 
     public static AbstractAuthenticationBackend getInstance() {
-        String className = AppSettings.getInstance().getString(AppSettings.AUTHENTICATION_BACKEND);
-        if (instance == null || !className.equals(instance.getClass().getCanonicalName())) {
-            instance = (AbstractAuthenticationBackend) InstanceUtils.invokeConstructor(className);
+        return component.get();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractAuthenticationBackend.class);
+
+    // Recently authenticated headers, keyed by digest. Created on first use.
+    private volatile Cache<String, CachedAuthentication> cache;
+    private final AtomicBoolean proxyWarningLogged = new AtomicBoolean();
+
+    protected AbstractAuthenticationBackend() {
+        // Results are bound to the client's connection, which is only meaningful if clients connect directly
+        Config settings = AppSettings.getInstance();
+        if (settings.getInt(AppSettings.AUTHENTICATION_CACHE_TTL) > 0 &&
+            !settings.getBoolean(AppSettings.AUTHENTICATION_CACHE_DIRECT_CONNECTIONS)) {
+            throw new IllegalStateException(String.format(
+                "The `%s` setting requires `%s` to be enabled, which must only be done if clients connect to the " +
+                "broker directly, not through a load balancer or proxy",
+                AppSettings.AUTHENTICATION_CACHE_TTL, AppSettings.AUTHENTICATION_CACHE_DIRECT_CONNECTIONS));
+        }
+    }
+
+    /**
+     * Result of a successful authentication, and for how long (in seconds) it remains valid.
+     */
+    protected static class Authentication {
+        final String user;
+        final long lifetime;
+
+        protected Authentication(String user, long lifetime) {
+            this.user = user;
+            this.lifetime = lifetime;
+        }
+    }
+
+    private static class CachedAuthentication {
+        final String user;
+        final long expiresAt;
+
+        CachedAuthentication(String user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
         }
-        return instance;
     }
 
     public String authenticateUser() {
         String authorizationHeader = AuthorizationHeaderServerInterceptor.BROKER_AUTHORIZATION_CONTEXT_KEY.get();
-        String authenticatedUser = authenticateUser(authorizationHeader);
+        String remoteAddress = AuthorizationHeaderServerInterceptor.REMOTE_ADDRESS_CONTEXT_KEY.get();
+        String authenticatedUser;
+        if (authorizationHeader != null && authorizationHeader.startsWith(AuthCookie.AUTH_HEADER + " ")) {
+            // Cookie issued by a previous call, which is verified locally
+            authenticatedUser = AuthCookie.verify(authorizationHeader.substring(AuthCookie.AUTH_HEADER.length() + 1).trim());
+        }
+        else {
+            Cache<String, CachedAuthentication> cache = getCache();
+            if (authorizationHeader != null && remoteAddress != null && cache != null) {
+                authenticatedUser = authenticateCached(authorizationHeader, remoteAddress);
+            }
+            else {
+                if (cache != null && remoteAddress == null && !proxyWarningLogged.getAndSet(true)) {
+                    logger.warn("The authentication cache is disabled for requests forwarded by a proxy, " +
+                        "as the client connection can't be identified. Set `" + AppSettings.AUTHENTICATION_CACHE_TTL +
+                        "` to 0 and `" + AppSettings.AUTHENTICATION_CACHE_DIRECT_CONNECTIONS +
+                        "` to false when the broker is behind a load balancer.");
+                }
+                authenticatedUser = authenticateUser(authorizationHeader);
+            }
+            AuthCookie.issueToCaller(authenticatedUser);
+        }
         MDC.put(AUTHENTICATED_USER, authenticatedUser);
         return authenticatedUser;
     }
 
+    private Cache<String, CachedAuthentication> getCache() {
+        int ttl = AppSettings.getInstance().getInt(AppSettings.AUTHENTICATION_CACHE_TTL);
+        if (ttl <= 0 || !AppSettings.getInstance().getBoolean(AppSettings.AUTHENTICATION_CACHE_DIRECT_CONNECTIONS)) {
+            return null;
+        }
+        Cache<String, CachedAuthentication> result = cache;
+        if (result == null) {
+            synchronized (this) {
+                if (cache == null) {
+                    cache = CacheBuilder.newBuilder()
+                        .maximumSize(AppSettings.getInstance().getLong(AppSettings.AUTHENTICATION_CACHE_MAXIMUM_SIZE))
+                        .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                        .build();
+                }
+                result = cache;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Authenticates the header, or returns the result of a previous authentication of the same header
+     * received over the same connection. Binding the result to the connection keeps replay protection:
+     * a header replayed over any other connection is fully verified again, and so rejected by the
+     * backend's own replay detection. This only holds if the connection is the client's own, so this
+     * must not be used for requests forwarded by a proxy.
+     */
+    String authenticateCached(String authorizationHeader, String remoteAddress) {
+        Cache<String, CachedAuthentication> cache = getCache();
+        String key = Hashing.sha256().hashString(remoteAddress + "\n" + authorizationHeader, StandardCharsets.UTF_8).toString();
+        long now = System.currentTimeMillis();
+        CachedAuthentication cached = cache.getIfPresent(key);
+        if (cached != null && now < cached.expiresAt) {
+            return cached.user;
+        }
+        Authentication authentication = authenticate(authorizationHeader);
+        long ttl = AppSettings.getInstance().getInt(AppSettings.AUTHENTICATION_CACHE_TTL);
+        long lifetime = Math.min(ttl, authentication.lifetime);
+        if (lifetime > 0) {
+            cache.put(key, new CachedAuthentication(authentication.user, now + lifetime * 1000));
+        }
+        return authentication.user;
+    }
+
+    /**
+     * Authenticates the header. Backends whose credentials expire (e.g. Kerberos tickets) should
+     * override this to report the credential's remaining lifetime, which bounds how long the result
+     * may be cached.
+     */
+    protected Authentication authenticate(String authorizationHeader) {
+        return new Authentication(authenticateUser(authorizationHeader), Long.MAX_VALUE);
+    }
+
     public abstract String authenticateUser(String authorizationHeader);
-}
\ No newline at end of file
+}
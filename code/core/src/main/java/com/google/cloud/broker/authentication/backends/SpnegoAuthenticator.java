@@ -35,14 +35,81 @@ import com.google.cloud.broker.settings.AppSettings;
 
 public class SpnegoAuthenticator extends AbstractAuthenticationBackend {
 
-    private ArrayList<Subject> logins = new ArrayList<Subject>();
+    private static final GSSManager manager = GSSManager.getInstance();
+    private static final Oid SPNEGO_OID;
+    static {
+        try {
+            SPNEGO_OID = new Oid("1.3.6.1.5.5.2");
+        } catch (GSSException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private volatile List<Acceptor> acceptors;
     private final static String INVALID_SETTING = "Invalid `" + AppSettings.KEYTABS + "` setting";
 
-    private void initLogin() {
+    /**
+     * Logged-in principal of a keytab. Its acceptor credential is created once, then reused until it expires.
+     */
+    private static class Acceptor {
+
+        private final String principal;
+        private final Subject subject;
+        private GSSCredential credential;
+
+        Acceptor(String principal, Subject subject) {
+            this.principal = principal;
+            this.subject = subject;
+        }
+
+        boolean isTarget(String targetPrincipal) {
+            // The configured principal may omit the default realm
+            return principal.equals(targetPrincipal) ||
+                (!principal.contains("@") && targetPrincipal.startsWith(principal + "@"));
+        }
+
+        // Must be called as the subject
+        private synchronized GSSCredential getCredential() throws GSSException {
+            boolean expired;
+            try {
+                expired = (credential == null || credential.getRemainingLifetime() == 0);
+            } catch (GSSException e) {
+                expired = true;
+            }
+            if (expired) {
+                credential = manager.createCredential(null, GSSCredential.DEFAULT_LIFETIME, SPNEGO_OID, GSSCredential.ACCEPT_ONLY);
+            }
+            return credential;
+        }
+
+        /**
+         * Returns the token's source principal and the remaining lifetime of its ticket, or null if the
+         * token can't be accepted with this keytab.
+         */
+        Authentication accept(byte[] token) {
+            return Subject.doAs(subject, (PrivilegedAction<Authentication>) () -> {
+                GSSContext context = null;
+                try {
+                    context = manager.createContext(getCredential());
+                    context.acceptSecContext(token, 0, token.length);
+                    return new Authentication(context.getSrcName().toString(), context.getLifetime());
+                } catch (GSSException e) {
+                    return null;
+                } finally {
+                    if (context != null) {
+                        try { context.dispose(); } catch (GSSException e) { /* Nothing to release */ }
+                    }
+                }
+            });
+        }
+    }
+
+    private List<Acceptor> initLogin() {
         // Parse the keytabs setting
         List<? extends Config> keytabs = AppSettings.getInstance().getConfigList(AppSettings.KEYTABS);
 
         // Log in each individual principal
+        List<Acceptor> logins = new ArrayList<>();
         for (Config item : keytabs) {
             String principal;
             String keytab;
@@ -60,12 +127,26 @@ public class SpnegoAuthenticator extends AbstractAuthenticationBackend {
             }
 
             Subject subject = principalLogin(principal, keytabFile);
-            logins.add(subject);
+            logins.add(new Acceptor(principal, subject));
         }
 
         if (logins.size() == 0) {
             throw new IllegalArgumentException(INVALID_SETTING);
         }
+        return logins;
+    }
+
+    private List<Acceptor> getAcceptors() {
+        List<Acceptor> result = acceptors;
+        if (result == null) {
+            synchronized (this) {
+                if (acceptors == null) {
+                    acceptors = initLogin();
+                }
+                result = acceptors;
+            }
+        }
+        return result;
     }
 
 
@@ -103,41 +184,48 @@ public class SpnegoAuthenticator extends AbstractAuthenticationBackend {
 
 
     public String authenticateUser(String authorizationHeader) {
-        if (logins.isEmpty()) {
-            initLogin();
-        }
+        return authenticate(authorizationHeader).user;
+    }
+
+    @Override
+    protected Authentication authenticate(String authorizationHeader) {
+        List<Acceptor> logins = getAcceptors();
 
         if (! authorizationHeader.startsWith("Negotiate ")) {
             throw Status.UNAUTHENTICATED.withDescription("Use \"authorization: Negotiate <token>\" metadata to authenticate").asRuntimeException();
         }
 
         String spnegoToken = authorizationHeader.split("\\s")[1];
+        byte[] tokenBytes;
+        try {
+            tokenBytes = Base64.getDecoder().decode(spnegoToken.getBytes());
+        } catch (IllegalArgumentException e) {
+            throw Status.UNAUTHENTICATED.withDescription("SPNEGO authentication failed").asRuntimeException();
+        }
 
-        String authenticatedUser = null;
-
-        for (Subject login : logins) {
-            authenticatedUser = Subject.doAs(login, (PrivilegedAction<String>) () -> {
-                try {
-                    GSSManager manager = GSSManager.getInstance();
-                    Oid spnegoOid = new Oid("1.3.6.1.5.5.2");
-                    GSSCredential serverCredential = manager.createCredential(null,
-                        GSSCredential.DEFAULT_LIFETIME,
-                        spnegoOid,
-                        GSSCredential.ACCEPT_ONLY);
-                    GSSContext context = manager.createContext(serverCredential);
-                    byte[] tokenBytes = Base64.getDecoder().decode(spnegoToken.getBytes());
-                    context.acceptSecContext(tokenBytes, 0, tokenBytes.length);
-                    return context.getSrcName().toString();
-                } catch (GSSException e) {
-                    return null;
+        // Only try the keytab(s) of the ticket's target principal, if any. Otherwise, try them all.
+        String targetPrincipal = SpnegoTokenParser.getTargetPrincipal(tokenBytes);
+        List<Acceptor> candidates = logins;
+        if (targetPrincipal != null) {
+            List<Acceptor> targets = new ArrayList<>();
+            for (Acceptor login : logins) {
+                if (login.isTarget(targetPrincipal)) {
+                    targets.add(login);
                 }
-            });
-            if (authenticatedUser != null) {
-                return authenticatedUser;
+            }
+            if (!targets.isEmpty()) {
+                candidates = targets;
+            }
+        }
+
+        for (Acceptor login : candidates) {
+            Authentication authentication = login.accept(tokenBytes);
+            if (authentication != null) {
+                return authentication;
             }
         }
 
         throw Status.UNAUTHENTICATED.withDescription("SPNEGO authentication failed").asRuntimeException();
     }
 
-}
\ No newline at end of file
+}
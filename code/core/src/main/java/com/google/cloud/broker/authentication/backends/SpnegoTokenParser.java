@@ -0,0 +1,177 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.authentication.backends;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the target (i.e. service) principal from the AP-REQ of a SPNEGO or raw Kerberos token,
+ * without decrypting anything, so that the keytab to accept the token with can be picked directly.
+ *
+ * Only the unencrypted part of the ticket is read, so the result is merely a hint: the token is
+ * still verified when accepted.
+ */
+class SpnegoTokenParser {
+
+    // DER encodings of the mechanism OIDs
+    private static final byte[] SPNEGO_OID = {0x2b, 0x06, 0x01, 0x05, 0x05, 0x02};  // 1.3.6.1.5.5.2
+    private static final byte[] KRB5_OID = {  // 1.2.840.113554.1.2.2
+        0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02};
+    private static final byte[] MS_KRB5_OID = {  // 1.2.840.48018.1.2.2, sent by some Windows clients
+        0x2a, (byte) 0x86, 0x48, (byte) 0x82, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02};
+
+    private static final int GSS_TOKEN = 0x60;     // [APPLICATION 0]
+    private static final int AP_REQ = 0x6e;        // [APPLICATION 14]
+    private static final int TICKET = 0x61;        // [APPLICATION 1]
+    private static final int SEQUENCE = 0x30;
+    private static final int OID = 0x06;
+    private static final int OCTET_STRING = 0x04;
+    private static final int GENERAL_STRING = 0x1b;
+
+    private static int context(int number) {
+        return 0xa0 | number;
+    }
+
+    /**
+     * Returns the target principal (e.g. "broker/example.com@EXAMPLE.COM"), or null if the
+     * token can't be parsed.
+     */
+    static String getTargetPrincipal(byte[] token) {
+        try {
+            return parseGssToken(new DerReader(token, 0, token.length));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static String parseGssToken(DerReader reader) {
+        DerReader gssToken = reader.read(GSS_TOKEN);
+        byte[] mechanism = gssToken.read(OID).remaining();
+        if (Arrays.equals(mechanism, SPNEGO_OID)) {
+            // NegTokenInit: mechTypes [0], reqFlags [1], mechToken [2], ...
+            DerReader negTokenInit = gssToken.read(context(0)).read(SEQUENCE);
+            while (negTokenInit.hasMore()) {
+                if (negTokenInit.peek() == context(2)) {
+                    byte[] mechToken = negTokenInit.read(context(2)).read(OCTET_STRING).remaining();
+                    return parseGssToken(new DerReader(mechToken, 0, mechToken.length));
+                }
+                negTokenInit.skip();
+            }
+            throw new IllegalArgumentException("No mechToken");
+        }
+        else if (Arrays.equals(mechanism, KRB5_OID) || Arrays.equals(mechanism, MS_KRB5_OID)) {
+            // Token ID of an AP-REQ
+            if (gssToken.readByte() != 0x01 || gssToken.readByte() != 0x00) {
+                throw new IllegalArgumentException("Not an AP-REQ");
+            }
+            // AP-REQ: pvno [0], msg-type [1], ap-options [2], ticket [3], ...
+            DerReader apReq = gssToken.read(AP_REQ).read(SEQUENCE);
+            while (apReq.peek() != context(3)) {
+                apReq.skip();
+            }
+            // Ticket: tkt-vno [0], realm [1], sname [2], enc-part [3]
+            DerReader ticket = apReq.read(context(3)).read(TICKET).read(SEQUENCE);
+            ticket.skip();
+            String realm = ticket.read(context(1)).readString();
+            // PrincipalName: name-type [0], name-string [1]
+            DerReader sname = ticket.read(context(2)).read(SEQUENCE);
+            sname.skip();
+            DerReader nameStrings = sname.read(context(1)).read(SEQUENCE);
+            List<String> components = new ArrayList<>();
+            while (nameStrings.hasMore()) {
+                components.add(nameStrings.readString());
+            }
+            return String.join("/", components) + "@" + realm;
+        }
+        throw new IllegalArgumentException("Unsupported mechanism");
+    }
+
+    /**
+     * Reads consecutive DER tag-length-value elements from a slice of a byte array.
+     */
+    private static class DerReader {
+
+        private final byte[] data;
+        private int position;
+        private final int end;
+
+        DerReader(byte[] data, int start, int end) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return position < end;
+        }
+
+        int peek() {
+            checkAvailable(1);
+            return data[position] & 0xff;
+        }
+
+        int readByte() {
+            checkAvailable(1);
+            return data[position++] & 0xff;
+        }
+
+        private void checkAvailable(int length) {
+            if (length < 0 || end - position < length) {
+                throw new IllegalArgumentException("Truncated token");
+            }
+        }
+
+        // Returns a reader for the content of the next element, which must have the given tag
+        DerReader read(int tag) {
+            if (readByte() != tag) {
+                throw new IllegalArgumentException("Unexpected tag");
+            }
+            int length = readByte();
+            if (length > 0x80) {
+                // Long form: the number of length bytes follows
+                int numBytes = length & 0x7f;
+                if (numBytes > 3) {
+                    throw new IllegalArgumentException("Length too large");
+                }
+                length = 0;
+                for (int i = 0; i < numBytes; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            else if (length == 0x80) {
+                throw new IllegalArgumentException("Indefinite length");
+            }
+            checkAvailable(length);
+            DerReader content = new DerReader(data, position, position + length);
+            position += length;
+            return content;
+        }
+
+        void skip() {
+            read(peek());
+        }
+
+        String readString() {
+            return new String(read(GENERAL_STRING).remaining(), StandardCharsets.UTF_8);
+        }
+
+        byte[] remaining() {
+            byte[] bytes = Arrays.copyOfRange(data, position, end);
+            position = end;
+            return bytes;
+        }
+    }
+
+}
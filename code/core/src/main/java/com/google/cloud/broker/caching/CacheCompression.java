@@ -0,0 +1,95 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.caching;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the JSON payloads stored in the remote cache, before they get encrypted.
+ *
+ * Compressed payloads start with a format byte that can't start a JSON document, so
+ * uncompressed payloads, including the ones written by older broker versions, are
+ * told apart and returned as is.
+ */
+class CacheCompression {
+
+    // Raw deflate stream, with the preset dictionary below
+    final static byte FORMAT_DEFLATE_DICTIONARY_V1 = 1;
+
+    // Strings that commonly appear in the cached payloads, most frequent last, as
+    // deflate favors the closest matches. Must never change for a given format byte.
+    private final static byte[] DICTIONARY_V1 = (
+        "{\"id\":\"\",\"owner\":\"\",\"renewer\":\"\",\"creationTime\":" +
+        "\"target\":\"//storage.googleapis.com/projects/_/buckets/\"," +
+        "\"scopes\":\"https://www.googleapis.com/auth/cloud-platform," +
+        "https://www.googleapis.com/auth/devstorage.read_write\"," +
+        "{\"value\":\"ya29.\",\"expiresAt\":"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private final static int BUFFER_SIZE = 1024;
+
+    static byte[] compress(byte[] payload) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY_V1);
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length);
+            output.write(FORMAT_DEFLATE_DICTIONARY_V1);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static boolean isCompressed(byte[] payload) {
+        return payload.length > 0 && payload[0] == FORMAT_DEFLATE_DICTIONARY_V1;
+    }
+
+    /**
+     * Returns the decompressed payload, or the payload itself if it isn't compressed.
+     */
+    static byte[] decompress(byte[] payload) {
+        if (!isCompressed(payload)) {
+            return payload;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY_V1);
+            inflater.setInput(payload, 1, payload.length - 1);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed cache payload");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed cache payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -12,19 +12,94 @@
 package com.google.cloud.broker.caching;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.cloud.broker.caching.local.LocalCache;
 import com.google.cloud.broker.caching.remote.AbstractRemoteCache;
-import com.google.cloud.broker.encryption.backends.AbstractEncryptionBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.TimeUtils;
 
 
 public abstract class CacheFetcher {
 
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * Strategy used to avoid a cache stampede, i.e. many callers computing the same missing value at once.
+     */
+    public enum StampedeProtection {
+        // Callers that miss the remote cache take a distributed lock, so only one of them computes the value.
+        LOCK,
+        // Probabilistic early recomputation (a.k.a. "XFetch"): shortly before a value expires, callers randomly
+        // decide to recompute it, more likely so the closer to the expiry and the longer the value took to compute.
+        // A short lease set with an atomic "SET NX" keeps concurrent callers from recomputing it too.
+        EARLY_RECOMPUTE;
+
+        public static StampedeProtection fromName(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    // Values above 1.0 favor earlier recomputation, values below 1.0 favor later recomputation
+    private final static double EARLY_RECOMPUTE_BETA = 1.0;
+    private final static int RECOMPUTE_LEASE_TIME = 30;  // In seconds
+    private final static long MISS_WAIT_TIME = 2000;  // In milliseconds
+    private final static long MISS_WAIT_MIN_BACKOFF = 20;  // In milliseconds
+    private final static long MISS_WAIT_MAX_BACKOFF = 500;  // In milliseconds
+    private final static byte[] LEASE_VALUE = {1};
+    private final static int ENTRY_HEADER_SIZE = 2 * Long.BYTES;
+
     protected boolean allowRemoteCache = true;
+    protected StampedeProtection stampedeProtection = StampedeProtection.LOCK;
+
+
+    /**
+     * Entry stored under the "_xfetch" key: expiry time (long), computation time (long), then the
+     * sealed payload. Used by all tiers with the EARLY_RECOMPUTE strategy, and by the tiers after
+     * the first one with the LOCK strategy, so that values promoted to upper tiers keep their expiry.
+     */
+    private static class Entry {
+        final long expiry;  // In milliseconds
+        final long delta;  // In milliseconds
+        final byte[] payload;
+
+        Entry(long expiry, long delta, byte[] payload) {
+            this.expiry = expiry;
+            this.delta = delta;
+            this.payload = payload;
+        }
+
+        static Entry parse(CacheTier tier, byte[] value) {
+            ByteBuffer buffer = ByteBuffer.wrap(value);
+            return new Entry(buffer.getLong(0), buffer.getLong(Long.BYTES),
+                tier.unseal(Arrays.copyOfRange(value, ENTRY_HEADER_SIZE, value.length)));
+        }
+
+        byte[] toBytes(CacheTier tier) {
+            byte[] sealedPayload = tier.seal(payload);
+            return ByteBuffer.allocate(ENTRY_HEADER_SIZE + sealedPayload.length)
+                .putLong(expiry)
+                .putLong(delta)
+                .put(sealedPayload)
+                .array();
+        }
+
+        // Remaining time (in seconds, rounded up) before the entry expires
+        int getRemainingTime() {
+            return (int) Math.max(0, (expiry - TimeUtils.currentTimeMillis() + 999) / 1000);
+        }
+    }
 
 
     public Object fetch() {
@@ -33,71 +108,370 @@ public abstract class CacheFetcher {
         // First check in local cache
         Object result = LocalCache.get(cacheKey);
         if (result != null) {
+            getStats().increment(CacheStats.LOCAL_HIT);
             return result;
         }
 
         // Not found in local cache, so look in remote cache.
         if (allowRemoteCache) {
-            AbstractRemoteCache cache = AbstractRemoteCache.getInstance();
-            byte[] encryptedValue = cache.get(cacheKey);
+            List<CacheTier> tiers = CacheTier.getTiers();
+            if (usesEarlyRecompute(tiers)) {
+                result = fetchWithEarlyRecompute(tiers, getRemoteCacheKey(cacheKey));
+            }
+            else {
+                result = fetchWithLock(tiers, getRemoteCacheKey(cacheKey));
+            }
+        }
+        else {
+            // Remote cache is disabled, so simply compute the result.
+            getStats().increment(CacheStats.MISS);
+            result = load();
+        }
+
+        // Add unencrypted value to local cache
+        LocalCache.set(cacheKey, result, getLocalCacheTime());
+
+        return result;
+    }
+
+    // The EARLY_RECOMPUTE strategy needs `setIfAbsent()`, so the LOCK strategy is used with backends that don't support it
+    private boolean usesEarlyRecompute(List<CacheTier> tiers) {
+        return stampedeProtection == StampedeProtection.EARLY_RECOMPUTE && tiers.get(0).getCache().supportsSetIfAbsent();
+    }
+
+    /**
+     * Loads the value from the remote cache into the local cache, without computing it if
+     * it's missing, e.g. to warm up the local cache. Returns true if the value was found.
+     */
+    public boolean preload() {
+        String cacheKey = getCacheKey();
+        if (LocalCache.get(cacheKey) != null) {
+            return true;
+        }
+        if (!allowRemoteCache) {
+            return false;
+        }
+
+        List<CacheTier> tiers = CacheTier.getTiers();
+        String remoteCacheKey = getRemoteCacheKey(cacheKey);
+        byte[] payload;
+        if (usesEarlyRecompute(tiers)) {
+            Entry entry = lookUp(tiers, 0, remoteCacheKey + "_xfetch");
+            payload = (entry != null) ? entry.payload : null;
+        }
+        else {
+            payload = lookUpWithLock(tiers, remoteCacheKey);
+        }
+        if (payload == null) {
+            return false;
+        }
+        LocalCache.set(cacheKey, decode(payload), getLocalCacheTime());
+        return true;
+    }
+
+    /**
+     * Deletes the value from the local cache and, unless the remote cache is disabled for this
+     * value, from all the remote cache tiers (in both formats, i.e. with and without the "_xfetch"
+     * suffix), e.g. when the value is revoked before it expires. Other broker instances may still
+     * serve it from their own local cache until it expires there.
+     */
+    public void invalidate() {
+        String cacheKey = getCacheKey();
+        LocalCache.delete(cacheKey);
+        if (allowRemoteCache) {
+            String remoteCacheKey = getRemoteCacheKey(cacheKey);
+            for (CacheTier tier : CacheTier.getTiers()) {
+                tier.getCache().delete(remoteCacheKey);
+                tier.getCache().delete(remoteCacheKey + "_xfetch");
+            }
+        }
+    }
+
+    /**
+     * Returns the key under which the value is stored in the remote cache, from which
+     * the lock, lease and entry keys are derived.
+     */
+    static String getRemoteCacheKey(String cacheKey) {
+        if (AppSettings.getInstance().getBoolean(AppSettings.REMOTE_CACHE_KEY_HASHING_ENABLED)) {
+            return CacheKeyHasher.hash(cacheKey);
+        }
+        return cacheKey;
+    }
+
+    private CacheStats getStats() {
+        return CacheStats.get(getClass().getSimpleName());
+    }
+
+    private static CacheStats getTierStats(List<CacheTier> tiers, int index) {
+        return CacheStats.get("remote-cache-tier-" + index + "-" + tiers.get(index).getCache().getClass().getSimpleName());
+    }
+
+    // Reads from the tier, keeping track of its hits and misses
+    private static byte[] get(List<CacheTier> tiers, int index, String key) {
+        CacheStats stats = getTierStats(tiers, index);
+        byte[] value;
+        try {
+            value = tiers.get(index).getCache().get(key);
+        } catch (RuntimeException e) {
+            stats.increment(CacheStats.ERROR);
+            throw e;
+        }
+        stats.increment(value != null ? CacheStats.HIT : CacheStats.MISS);
+        return value;
+    }
+
+    // Computes the result, keeping track of the computation time and failures
+    private Object load() {
+        CacheStats stats = getStats();
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = computeResult();
+        } catch (RuntimeException e) {
+            stats.increment(CacheStats.LOAD_FAILURE);
+            throw e;
+        }
+        stats.increment(CacheStats.LOAD_SUCCESS);
+        stats.record(CacheStats.LOAD_TIME, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    // Returns the payload found in the tiers with the LOCK strategy's formats, or null
+    private static byte[] lookUpWithLock(List<CacheTier> tiers, String cacheKey) {
+        CacheTier primary = tiers.get(0);
+        byte[] encryptedValue = get(tiers, 0, cacheKey);
+        if (encryptedValue != null) {
+            return primary.unseal(encryptedValue);
+        }
+
+        // Look in the other tiers
+        Entry entry = lookUp(tiers, 1, cacheKey + "_xfetch");
+        if (entry != null) {
+            int remainingTime = entry.getRemainingTime();
+            if (remainingTime > 0) {
+                setQuietly(primary, cacheKey, primary.seal(entry.payload), primary.getTtl(remainingTime));
+            }
+            return entry.payload;
+        }
+        return null;
+    }
+
+    private Object fetchWithLock(List<CacheTier> tiers, String cacheKey) {
+        CacheTier primary = tiers.get(0);
+        AbstractRemoteCache cache = primary.getCache();
+        String entryKey = cacheKey + "_xfetch";
+
+        CacheStats stats = getStats();
+        byte[] payload = lookUpWithLock(tiers, cacheKey);
+        if (payload != null) {
+            // Cache hit... Let's load the value.
+            stats.increment(CacheStats.REMOTE_HIT);
+            return decode(payload);
+        }
+
+        // Cache miss...
+        // Start by acquiring a lock to avoid cache stampede
+        long lockStart = System.nanoTime();
+        Lock lock = cache.acquireLock(cacheKey + "_lock");
+        stats.record(CacheStats.LOCK_WAIT, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lockStart));
+
+        try {
+            // Check again if there's still no value
+            byte[] encryptedValue = get(tiers, 0, cacheKey);
             if (encryptedValue != null) {
-                // Cache hit... Let's load the value.
-                String json = new String(AbstractEncryptionBackend.getInstance().decrypt(encryptedValue));
+                // This time it's a cache hit. The value must have been generated
+                // by a competing thread. So we just load the value.
+                stats.increment(CacheStats.REMOTE_HIT);
+                return decode(primary.unseal(encryptedValue));
+            }
+
+            // Compute the result
+            stats.increment(CacheStats.MISS);
+            long start = System.nanoTime();
+            Object result = load();
+            long delta = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            int remoteCacheTime = getRemoteCacheTime();
+            payload = encode(result);
+
+            // Encrypt and cache the value for possible future requests. The other tiers are
+            // written in the background, as competing threads only look in the first one.
+            cache.set(cacheKey, primary.seal(payload), primary.getTtl(remoteCacheTime));
+            Entry entry = new Entry(TimeUtils.currentTimeMillis() + remoteCacheTime * 1000L, delta, payload);
+            for (CacheTier tier : tiers.subList(1, tiers.size())) {
+                setQuietly(tier, entryKey, entry.toBytes(tier), tier.getTtl(remoteCacheTime));
+            }
+            return result;
+        }
+        finally {
+            // Release the lock
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the first entry found in the tiers, starting from the given tier. The
+     * entry is then copied to the tiers in between, for the rest of its lifetime.
+     */
+    private static Entry lookUp(List<CacheTier> tiers, int firstTier, String entryKey) {
+        for (int i = firstTier; i < tiers.size(); i++) {
+            CacheTier tier = tiers.get(i);
+            byte[] value;
+            if (i == 0) {
+                value = get(tiers, i, entryKey);
+            }
+            else {
+                // Lower tiers are only a fallback, so their failures aren't fatal
                 try {
-                    result = fromJson(json);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    value = get(tiers, i, entryKey);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to read from remote cache tier " + i + ": " + entryKey, e);
+                    continue;
                 }
             }
-            else {
-                // Cache miss...
-                // Start by acquiring a lock to avoid cache stampede
-                Lock lock = cache.acquireLock(cacheKey + "_lock");
+            if (value == null) {
+                continue;
+            }
+            Entry entry = Entry.parse(tier, value);
+            int remainingTime = entry.getRemainingTime();
+            if (remainingTime > 0) {
+                for (CacheTier upperTier : tiers.subList(firstTier, i)) {
+                    setQuietly(upperTier, entryKey, entry.toBytes(upperTier), upperTier.getTtl(remainingTime));
+                }
+            }
+            return entry;
+        }
+        return null;
+    }
 
-                try {
-                    // Check again if there's still no value
-                    encryptedValue = cache.get(cacheKey);
-                    if (encryptedValue != null) {
-                        // This time it's a cache hit. The value must have been generated
-                        // by a competing thread. So we just load the value.
-                        String json = new String(AbstractEncryptionBackend.getInstance().decrypt(encryptedValue));
-                        try {
-                            result = fromJson(json);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    } else {
-                        // Compute the result
-                        result = computeResult();
-                        // Encrypt and cache the value for possible future requests
-                        String json = null;
-                        ObjectMapper objectMapper = new ObjectMapper();
-                        try {
-                            json = objectMapper.writeValueAsString(result);
-                        } catch (JsonProcessingException e) {
-                            throw new RuntimeException(e);
-                        }
-                        encryptedValue = AbstractEncryptionBackend.getInstance().encrypt(json.getBytes());
-                        cache.set(cacheKey, encryptedValue, getRemoteCacheTime());
-                    }
+    // Writes the value in the background, only logging failures
+    private static void setQuietly(CacheTier tier, String key, byte[] value, int expireIn) {
+        tier.getCache().setAsync(key, value, expireIn).whenComplete((ignored, e) -> {
+            if (e != null) {
+                logger.warn("Failed to write to the remote cache: " + key, e);
+            }
+        });
+    }
+
+    private Object fetchWithEarlyRecompute(List<CacheTier> tiers, String cacheKey) {
+        // Entries have a different format than with the LOCK strategy, hence the different key
+        String entryKey = cacheKey + "_xfetch";
+        String leaseKey = cacheKey + "_lease";
+        CacheTier primary = tiers.get(0);
+        AbstractRemoteCache cache = primary.getCache();
+        CacheStats stats = getStats();
+
+        Entry entry = lookUp(tiers, 0, entryKey);
+        if (entry != null) {
+            stats.increment(CacheStats.REMOTE_HIT);
+            // -log(x) for x in (0, 1] is an exponentially distributed head start
+            double headStart = -entry.delta * EARLY_RECOMPUTE_BETA * Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+            if (TimeUtils.currentTimeMillis() + headStart < entry.expiry || !cache.setIfAbsent(leaseKey, LEASE_VALUE, RECOMPUTE_LEASE_TIME)) {
+                // Either it's not time to recompute yet, or someone else is already doing it
+                return decode(entry.payload);
+            }
+            return recompute(tiers, entryKey, leaseKey);
+        }
+
+        // Cache miss...
+        stats.increment(CacheStats.MISS);
+        if (cache.setIfAbsent(leaseKey, LEASE_VALUE, RECOMPUTE_LEASE_TIME)) {
+            return recompute(tiers, entryKey, leaseKey);
+        }
+
+        // Someone else is computing the value, so give them a chance to finish. Poll with exponential
+        // backoff and jitter, so that a stampede of waiting callers doesn't flood the remote cache.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MISS_WAIT_TIME);
+        long backoff = MISS_WAIT_MIN_BACKOFF;
+        try {
+            while (true) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
                 }
-                finally {
-                    // Release the lock
-                    lock.unlock();
+                Thread.sleep(Math.min(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1), remaining));
+                backoff = Math.min(backoff * 2, MISS_WAIT_MAX_BACKOFF);
+                byte[] value = get(tiers, 0, entryKey);
+                if (value != null) {
+                    return decode(Entry.parse(primary, value).payload);
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        else {
-            // Remote cache is disabled, so simply compute the result.
-            result = computeResult();
+
+        // Waited long enough. If the lease holder gave up, take over its lease so that only one caller
+        // computes and caches the value. Otherwise compute the value without caching it, as the lease holder will.
+        if (cache.setIfAbsent(leaseKey, LEASE_VALUE, RECOMPUTE_LEASE_TIME)) {
+            return recompute(tiers, entryKey, leaseKey);
         }
+        return load();
+    }
 
-        // Add unencrypted value to local cache
-        LocalCache.set(cacheKey, result, getLocalCacheTime());
+    private Object recompute(List<CacheTier> tiers, String entryKey, String leaseKey) {
+        CacheTier primary = tiers.get(0);
+        AbstractRemoteCache cache = primary.getCache();
+        Object result;
+        Entry entry;
+        int remoteCacheTime = getRemoteCacheTime();
+        try {
+            long start = System.nanoTime();
+            result = load();
+            long delta = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            entry = new Entry(TimeUtils.currentTimeMillis() + remoteCacheTime * 1000L, delta, encode(result));
+        } catch (RuntimeException e) {
+            // Release the lease so that someone else can try, without hiding the original failure
+            try {
+                cache.delete(leaseKey);
+            } catch (RuntimeException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            throw e;
+        }
 
+        // Write the entry in the background so the caller doesn't wait for it. The lease is
+        // only released once the write is done, so that no one else recomputes the value meanwhile.
+        cache.setAsync(entryKey, entry.toBytes(primary), primary.getTtl(remoteCacheTime)).whenComplete((ignored, e) -> {
+            if (e != null) {
+                logger.warn("Failed to write to the remote cache: " + entryKey, e);
+            }
+            cache.deleteAsync(leaseKey);
+        });
+        for (CacheTier tier : tiers.subList(1, tiers.size())) {
+            setQuietly(tier, entryKey, entry.toBytes(tier), tier.getTtl(remoteCacheTime));
+        }
         return result;
     }
 
+    private Object decode(byte[] payload) {
+        String json = new String(CacheCompression.decompress(payload));
+        try {
+            return fromJson(json);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Returns the value's JSON, possibly compressed. Each tier then encrypts it or not.
+    private static byte[] encode(Object value) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] payload = json.getBytes();
+        // Compress before encrypting, as encrypted data doesn't compress
+        if (AppSettings.getInstance().getBoolean(AppSettings.REMOTE_CACHE_COMPRESSION_ENABLED) &&
+            payload.length >= AppSettings.getInstance().getInt(AppSettings.REMOTE_CACHE_COMPRESSION_MIN_SIZE)) {
+            byte[] compressed = CacheCompression.compress(payload);
+            if (compressed.length < payload.length) {
+                payload = compressed;
+            }
+        }
+        return payload;
+    }
+
     protected abstract String getCacheKey();
 
     protected abstract int getLocalCacheTime();
@@ -0,0 +1,68 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.caching;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.cloud.broker.encryption.backends.AbstractEncryptionBackend;
+
+/**
+ * Replaces cache keys with their HMAC-SHA256, so that the remote cache never sees sensitive
+ * information like session tokens or user names. The HMAC key is derived from the encryption
+ * backend's key material, so all broker instances compute the same hashes.
+ */
+class CacheKeyHasher {
+
+    private final static String ALGORITHM = "HmacSHA256";
+    private final static String KEY_PURPOSE = "remote-cache-keys";
+    private final static String PREFIX = "h-";
+
+    private static volatile HashingKey hashingKey;
+
+    private static class HashingKey {
+        final AbstractEncryptionBackend backend;
+        final SecretKeySpec key;
+
+        HashingKey(AbstractEncryptionBackend backend) {
+            this.backend = backend;
+            this.key = new SecretKeySpec(backend.deriveKey(KEY_PURPOSE), ALGORITHM);
+        }
+    }
+
+    private static SecretKeySpec getKey() {
+        AbstractEncryptionBackend backend = AbstractEncryptionBackend.getInstance();
+        HashingKey current = hashingKey;
+        if (current == null || current.backend != backend) {
+            // Key derivation may be slow (e.g. reading a keyset), so only do it when the backend changes
+            current = new HashingKey(backend);
+            hashingKey = current;
+        }
+        return current.key;
+    }
+
+    static String hash(String cacheKey) {
+        byte[] digest;
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(getKey());
+            digest = mac.doFinal(cacheKey.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+        return PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+}
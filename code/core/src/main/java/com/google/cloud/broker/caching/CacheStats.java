@@ -0,0 +1,157 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.caching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for a cache fetcher (e.g. "AccessTokenCacheFetcher") or a
+ * remote cache tier (e.g. "remote-cache-tier-0-RedisCache"), kept since the broker started.
+ */
+public class CacheStats {
+
+    // Fetcher counters
+    public final static String LOCAL_HIT = "local-hit";
+    public final static String REMOTE_HIT = "remote-hit";
+    public final static String MISS = "miss";
+    public final static String LOAD_SUCCESS = "load-success";
+    public final static String LOAD_FAILURE = "load-failure";
+
+    // Tier counters
+    public final static String HIT = "hit";
+    public final static String ERROR = "error";
+
+    // Histograms
+    public final static String LOAD_TIME = "load-time";
+    public final static String LOCK_WAIT = "lock-wait";
+
+    private final static ConcurrentMap<String, CacheStats> registry = new ConcurrentHashMap<>();
+
+    /**
+     * Latency histogram with fixed buckets, in milliseconds.
+     */
+    public static class Histogram {
+
+        // Upper bounds of the buckets. The last bucket has no upper bound.
+        public final static long[] BUCKET_BOUNDS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+        private final LongAdder[] bucketCounts = new LongAdder[BUCKET_BOUNDS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < bucketCounts.length; i++) {
+                bucketCounts[i] = new LongAdder();
+            }
+        }
+
+        public void record(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            bucketCounts[bucket].increment();
+            count.increment();
+            sum.add(millis);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public List<Long> getBucketCounts() {
+            List<Long> counts = new ArrayList<>(bucketCounts.length);
+            for (LongAdder bucketCount : bucketCounts) {
+                counts.add(bucketCount.sum());
+            }
+            return counts;
+        }
+    }
+
+    private final String name;
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private CacheStats(String name) {
+        this.name = name;
+    }
+
+    public static CacheStats get(String name) {
+        return registry.computeIfAbsent(name, CacheStats::new);
+    }
+
+    /**
+     * Returns all statistics, sorted by name.
+     */
+    public static SortedMap<String, CacheStats> getAll() {
+        return new TreeMap<>(registry);
+    }
+
+    public static void resetAll() {
+        registry.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment(String counter) {
+        counters.computeIfAbsent(counter, c -> new LongAdder()).increment();
+    }
+
+    public void record(String histogram, long millis) {
+        histograms.computeIfAbsent(histogram, h -> new Histogram()).record(millis);
+    }
+
+    public long getCount(String counter) {
+        LongAdder adder = counters.get(counter);
+        return (adder == null) ? 0 : adder.sum();
+    }
+
+    public SortedMap<String, Long> getCounters() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        return values;
+    }
+
+    public SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Returns the statistics as nested maps, e.g. for JSON serialization.
+     */
+    public Map<String, Object> toMap() {
+        SortedMap<String, Object> histogramMaps = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : getHistograms().entrySet()) {
+            histogramMaps.put(histogram.getKey(), Map.of(
+                "count", histogram.getValue().getCount(),
+                "sum", histogram.getValue().getSum(),
+                "buckets", histogram.getValue().getBucketCounts()));
+        }
+        return Map.of("name", name, "counters", getCounters(), "histograms", histogramMaps);
+    }
+
+}
@@ -0,0 +1,137 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.caching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.typesafe.config.Config;
+
+import com.google.cloud.broker.caching.remote.AbstractRemoteCache;
+import com.google.cloud.broker.encryption.backends.AbstractEncryptionBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.InstanceUtils;
+
+/**
+ * A level in the chain of remote caches that `CacheFetcher` looks up after the local cache,
+ * e.g. a regional Redis instance in front of a Cloud Datastore cache shared by all regions.
+ *
+ * The first tier also holds the locks and leases used for stampede protection.
+ *
+ * Like the components in `ComponentRegistry`, the tiers are resolved once per settings instance,
+ * and their backends are kept if the `remote-cache.tiers` setting didn't change. Backends read their
+ * own settings (e.g. `remote-cache.redis.*`) from the application settings, so each backend class can only
+ * be used by one tier.
+ */
+public class CacheTier {
+
+    private static class Chain {
+        final Config settings;
+        final List<? extends Config> configs;
+        final List<CacheTier> tiers;
+
+        Chain(Config settings, List<? extends Config> configs, List<CacheTier> tiers) {
+            this.settings = settings;
+            this.configs = configs;
+            this.tiers = tiers;
+        }
+    }
+
+    private static volatile Chain chain;
+
+    private final AbstractRemoteCache cache;
+    private final boolean encrypted;
+    private final int maxTtl;
+
+    public CacheTier(AbstractRemoteCache cache, boolean encrypted, int maxTtl) {
+        this.cache = cache;
+        this.encrypted = encrypted;
+        this.maxTtl = maxTtl;
+    }
+
+    private static CacheTier createTier(Config tierConfig) {
+        AbstractRemoteCache cache = (AbstractRemoteCache) InstanceUtils.invokeConstructor(tierConfig.getString("backend"));
+        boolean encrypted = !tierConfig.hasPath("encrypt") || tierConfig.getBoolean("encrypt");
+        int maxTtl = tierConfig.hasPath("max-ttl") ? tierConfig.getInt("max-ttl") : 0;
+        return new CacheTier(cache, encrypted, maxTtl);
+    }
+
+    /**
+     * Returns the tiers listed in the `remote-cache.tiers` setting or, if that list is
+     * empty, a single encrypted tier that uses the `remote-cache.backend` class.
+     */
+    public static List<CacheTier> getTiers() {
+        Chain current = chain;
+        Config settings = AppSettings.getInstance();
+        if (current != null && current.settings == settings) {
+            return current.tiers;
+        }
+        return resolve(settings);
+    }
+
+    // Synchronized so that concurrent callers never construct duplicate backends
+    private static synchronized List<CacheTier> resolve(Config settings) {
+        Chain current = chain;
+        if (current != null && current.settings == settings) {
+            return current.tiers;
+        }
+        List<? extends Config> configs = settings.getConfigList(AppSettings.REMOTE_CACHE_TIERS);
+        List<CacheTier> tiers;
+        if (configs.isEmpty()) {
+            tiers = List.of(new CacheTier(AbstractRemoteCache.getInstance(), true, 0));
+        }
+        else if (current != null && current.configs.equals(configs)) {
+            tiers = current.tiers;
+        }
+        else {
+            Set<String> backends = new HashSet<>();
+            tiers = new ArrayList<>();
+            for (Config tierConfig : configs) {
+                if (!backends.add(tierConfig.getString("backend"))) {
+                    throw new IllegalArgumentException(
+                        "Remote cache backend `" + tierConfig.getString("backend") + "` is used by more than one tier");
+                }
+                tiers.add(createTier(tierConfig));
+            }
+            tiers = Collections.unmodifiableList(tiers);
+        }
+        chain = new Chain(settings, configs, tiers);
+        return tiers;
+    }
+
+    public AbstractRemoteCache getCache() {
+        return cache;
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * Returns the time (in seconds) that a value valid for the given time is kept in this tier.
+     */
+    public int getTtl(int ttl) {
+        return maxTtl > 0 ? Math.min(ttl, maxTtl) : ttl;
+    }
+
+    byte[] seal(byte[] payload) {
+        return encrypted ? AbstractEncryptionBackend.getInstance().encrypt(payload) : payload;
+    }
+
+    byte[] unseal(byte[] value) {
+        return encrypted ? AbstractEncryptionBackend.getInstance().decrypt(value) : value;
+    }
+
+}
@@ -39,4 +39,8 @@ public class LocalCache {
         cache.remove(key);
     }
 
+    public static int size() {
+        return cache.size();
+    }
+
 }
@@ -11,30 +11,92 @@
 
 package com.google.cloud.broker.caching.remote;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 import com.google.cloud.broker.settings.AppSettings;
-import com.google.cloud.broker.utils.InstanceUtils;
+import com.google.cloud.broker.utils.ComponentRegistry;
 import com.google.cloud.broker.checks.CheckResult;
 
 public abstract class AbstractRemoteCache {
 
-    private static AbstractRemoteCache instance;
+    private static final ComponentRegistry.Component<AbstractRemoteCache> component =
+        ComponentRegistry.register(AppSettings.REMOTE_CACHE, AbstractRemoteCache.class);
+
+    // Runs the blocking calls of backends that don't have a native asynchronous API
+    private static final ExecutorService asyncExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "remote-cache-async");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public abstract byte[] get(String key);
     public abstract void set(String key, byte[] value);
     public abstract void set(String key, byte[] value, int expireIn);  // "expireIn" in seconds
     public abstract void delete(String key);
+
+    /**
+     * Whether the backend implements `setIfAbsent()`.
+     */
+    public boolean supportsSetIfAbsent() {
+        return false;
+    }
+
+    /**
+     * Atomically sets the key/value only if the key doesn't exist yet (i.e. "SET NX").
+     * Returns true if the value was set. Not every backend supports it.
+     */
+    public boolean setIfAbsent(String key, byte[] value, int expireIn) {  // "expireIn" in seconds
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support setIfAbsent");
+    }
+
+    public CompletableFuture<byte[]> getAsync(String key) {
+        return CompletableFuture.supplyAsync(() -> get(key), asyncExecutor);
+    }
+
+    public CompletableFuture<Void> setAsync(String key, byte[] value, int expireIn) {
+        return CompletableFuture.runAsync(() -> set(key, value, expireIn), asyncExecutor);
+    }
+
+    public CompletableFuture<Void> deleteAsync(String key) {
+        return CompletableFuture.runAsync(() -> delete(key), asyncExecutor);
+    }
+
     public abstract Lock acquireLock(String lockName);
     public abstract CheckResult checkConnection();
 
+    /**
+     * Whether the backend implements `publish()` and `subscribe()`.
+     */
+    public boolean supportsMessaging() {
+        return false;
+    }
+
+    /**
+     * Broadcasts a message to the subscribers of the given channel, including the ones
+     * running in other broker replicas. Not every backend supports messaging.
+     */
+    public void publish(String channel, String message) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support messaging");
+    }
+
+    /**
+     * Registers a listener for the messages published on the given channel. Returns an ID
+     * to pass to `unsubscribe()` to remove the listener.
+     */
+    public int subscribe(String channel, Consumer<String> listener) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support messaging");
+    }
+
+    public void unsubscribe(String channel, int listenerId) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support messaging");
+    }
 
     public static AbstractRemoteCache getInstance() {
-        String className = AppSettings.getInstance().getString(AppSettings.REMOTE_CACHE);
-        if (instance == null || !className.equals(instance.getClass().getCanonicalName())) {
-            instance = (AbstractRemoteCache) InstanceUtils.invokeConstructor(className);
-        }
-        return instance;
+        return component.get();
     }
 
 }
@@ -15,6 +15,7 @@ package com.google.cloud.broker.caching.remote;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 import com.google.cloud.broker.checks.CheckResult;
 
@@ -42,11 +43,34 @@ public class DummyCache extends AbstractRemoteCache {
     public void delete(String key) {
     }
 
+    @Override
+    public boolean supportsSetIfAbsent() {
+        return true;
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, byte[] value, int expireIn) {
+        return true;
+    }
+
     @Override
     public Lock acquireLock(String lockName) {
         return new NoOpLock();
     }
 
+    @Override
+    public void publish(String channel, String message) {
+    }
+
+    @Override
+    public int subscribe(String channel, Consumer<String> listener) {
+        return 0;
+    }
+
+    @Override
+    public void unsubscribe(String channel, int listenerId) {
+    }
+
     @Override
     public CheckResult checkConnection() {
         return new CheckResult(true);
@@ -12,34 +12,52 @@
 package com.google.cloud.broker.database.backends;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 import com.google.cloud.broker.settings.AppSettings;
 import com.google.cloud.broker.database.DatabaseObjectNotFound;
 import com.google.cloud.broker.database.models.Model;
-import com.google.cloud.broker.utils.InstanceUtils;
+import com.google.cloud.broker.utils.ComponentRegistry;
 import com.google.cloud.broker.checks.CheckResult;
 
 public abstract class AbstractDatabaseBackend {
 
-    private static AbstractDatabaseBackend instance;
+    private static final ComponentRegistry.Component<AbstractDatabaseBackend> component =
+        ComponentRegistry.register(AppSettings.DATABASE_BACKEND, AbstractDatabaseBackend.class);
 
     public abstract List<Model> getAll(Class modelClass);
+
+    /**
+     * Passes all the items of the given kind to `consumer`, one at a time. Backends that can read
+     * the items as a stream override this method, so that the items are never all in memory at once.
+     */
+    public void forEach(Class modelClass, Consumer<Model> consumer) {
+        getAll(modelClass).forEach(consumer);
+    }
+
     public abstract Model get(Class modelClass, String objectId) throws DatabaseObjectNotFound;
     public abstract void save(Model model);
     public abstract void delete(Model model);
     public int deleteExpiredItems(Class modelClass, String field, Long cutoffTime) {
         return deleteExpiredItems(modelClass, field, cutoffTime, null);
     }
+
+    /**
+     * Deletes the items whose `field` is lower than or equal to `cutoffTime`, oldest first. At most `numItems`
+     * items are deleted, unless `numItems` is null or lower than or equal to 0, in which case there's no limit.
+     * Returns the number of deleted items.
+     */
     public abstract int deleteExpiredItems(Class modelClass, String field, Long cutoffTime, Integer numItems);
+
+    protected static boolean isLimited(Integer numItems) {
+        return numItems != null && numItems > 0;
+    }
+
     public abstract void initializeDatabase();
     public abstract CheckResult checkConnection();
 
     public static AbstractDatabaseBackend getInstance() {
-        String className = AppSettings.getInstance().getString(AppSettings.DATABASE_BACKEND);
-        if (instance == null || !className.equals(instance.getClass().getCanonicalName())) {
-            instance = (AbstractDatabaseBackend) InstanceUtils.invokeConstructor(className);
-        }
-        return instance;
+        return component.get();
     }
 
 }
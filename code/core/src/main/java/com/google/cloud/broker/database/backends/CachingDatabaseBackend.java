@@ -0,0 +1,196 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.database.backends;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.typesafe.config.Config;
+
+import com.google.cloud.broker.caching.remote.AbstractRemoteCache;
+import com.google.cloud.broker.checks.CheckResult;
+import com.google.cloud.broker.database.DatabaseObjectNotFound;
+import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.database.models.ModelCodec;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.InstanceUtils;
+
+/**
+ * Read-through cache in front of another database backend. Writes go to the wrapped
+ * backend and evict the cached copy.
+ *
+ * Cached entries are kept in encoded form and decoded on every hit, so callers
+ * never share (and mutate) the same model instance. Entries are bounded in number
+ * and age. Optionally, saves and deletes are broadcast through the remote cache
+ * so that the other broker replicas evict their stale copies right away.
+ *
+ * A read-through fill is dropped if the key was invalidated while the object was
+ * being read from the wrapped backend, so that a concurrent save or delete can't be
+ * overwritten by the stale copy.
+ *
+ * Closing the backend stops listening to invalidations, and closes the wrapped backend.
+ */
+public class CachingDatabaseBackend extends AbstractDatabaseBackend implements AutoCloseable {
+
+    private final static String INVALIDATION_CHANNEL = "database-cache-invalidation";
+    private final static int NUM_GENERATION_STRIPES = 256;  // Must be a power of 2
+
+    private final AbstractDatabaseBackend backend;
+    private final Cache<String, Object[]> cache;
+    private final boolean remoteInvalidation;
+    private volatile AbstractRemoteCache subscribedCache;
+    private int listenerId;
+    private final String replicaId = UUID.randomUUID().toString();
+    // Incremented on every invalidation, by stripe of keys. Bulk invalidations increment the global generation.
+    private final AtomicLongArray generations = new AtomicLongArray(NUM_GENERATION_STRIPES);
+    private final AtomicLong globalGeneration = new AtomicLong();
+
+    public CachingDatabaseBackend() {
+        Config settings = AppSettings.getInstance();
+        backend = (AbstractDatabaseBackend) InstanceUtils.invokeConstructor(
+            settings.getString(AppSettings.DATABASE_CACHING_BACKEND));
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(settings.getLong(AppSettings.DATABASE_CACHING_MAXIMUM_SIZE))
+            .expireAfterWrite(settings.getLong(AppSettings.DATABASE_CACHING_EXPIRE_AFTER), TimeUnit.SECONDS)
+            .build();
+        remoteInvalidation = settings.getBoolean(AppSettings.DATABASE_CACHING_REMOTE_INVALIDATION);
+        if (remoteInvalidation) {
+            AbstractRemoteCache remoteCache = AbstractRemoteCache.getInstance();
+            if (!remoteCache.supportsMessaging()) {
+                throw new IllegalStateException(String.format(
+                    "The `%s` setting requires a remote cache backend that supports messaging, but `%s` doesn't",
+                    AppSettings.DATABASE_CACHING_REMOTE_INVALIDATION, remoteCache.getClass().getName()));
+            }
+            listenerId = remoteCache.subscribe(INVALIDATION_CHANNEL, this::onInvalidation);
+            subscribedCache = remoteCache;
+        }
+    }
+
+    public AbstractDatabaseBackend getBackend() {
+        return backend;
+    }
+
+    private static String calculateKey(Class modelClass, String objectId) {
+        return modelClass.getSimpleName() + "-" + objectId;
+    }
+
+    private int getStripe(String key) {
+        return key.hashCode() & (NUM_GENERATION_STRIPES - 1);
+    }
+
+    private void invalidateLocally(String key) {
+        // Bump the generation first, so that in-flight fills of this key are dropped
+        generations.incrementAndGet(getStripe(key));
+        cache.invalidate(key);
+    }
+
+    private void onInvalidation(String message) {
+        // Messages are formatted as "<replica ID> <key>"
+        String[] parts = message.split(" ", 2);
+        if (parts.length == 2 && !parts[0].equals(replicaId)) {
+            invalidateLocally(parts[1]);
+        }
+    }
+
+    private void invalidate(String key) {
+        invalidateLocally(key);
+        // Published through the cache that the other replicas' listeners are subscribed to
+        AbstractRemoteCache remoteCache = subscribedCache;
+        if (remoteCache != null) {
+            remoteCache.publish(INVALIDATION_CHANNEL, replicaId + " " + key);
+        }
+    }
+
+    @Override
+    public List<Model> getAll(Class modelClass) {
+        return backend.getAll(modelClass);
+    }
+
+    @Override
+    public void forEach(Class modelClass, Consumer<Model> consumer) {
+        backend.forEach(modelClass, consumer);
+    }
+
+    @Override
+    public Model get(Class modelClass, String objectId) throws DatabaseObjectNotFound {
+        ModelCodec<Model> codec = ModelCodec.forClass(modelClass);
+        String key = calculateKey(modelClass, objectId);
+        Object[] values = cache.getIfPresent(key);
+        if (values != null) {
+            return codec.decode(values);
+        }
+        int stripe = getStripe(key);
+        long generation = generations.get(stripe);
+        long global = globalGeneration.get();
+        Model model = backend.get(modelClass, objectId);
+        Object[] encoded = codec.encode(model);
+        // Checked and stored atomically with respect to `invalidateLocally()`, which waits for
+        // this key's lock to evict it
+        cache.asMap().compute(key, (k, current) ->
+            (generations.get(stripe) == generation && globalGeneration.get() == global) ? encoded : current);
+        return model;
+    }
+
+    @Override
+    public void save(Model model) {
+        backend.save(model);
+        // The saved model isn't cached right away: a delete of the same object could run
+        // between the two steps and leave the deleted object cached. The next read fills the cache.
+        invalidate(calculateKey(model.getClass(), model.getDBId()));
+    }
+
+    @Override
+    public void delete(Model model) {
+        backend.delete(model);
+        invalidate(calculateKey(model.getClass(), model.getDBId()));
+    }
+
+    @Override
+    public int deleteExpiredItems(Class modelClass, String field, Long cutoffTime, Integer numItems) {
+        int numDeletedItems = backend.deleteExpiredItems(modelClass, field, cutoffTime, numItems);
+        if (numDeletedItems > 0) {
+            // The deleted IDs aren't known, so evict everything of that kind
+            String prefix = modelClass.getSimpleName() + "-";
+            globalGeneration.incrementAndGet();
+            cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        }
+        return numDeletedItems;
+    }
+
+    @Override
+    public void initializeDatabase() {
+        backend.initializeDatabase();
+    }
+
+    @Override
+    public CheckResult checkConnection() {
+        return backend.checkConnection();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (subscribedCache != null) {
+            subscribedCache.unsubscribe(INVALIDATION_CHANNEL, listenerId);
+            subscribedCache = null;
+        }
+        if (backend instanceof AutoCloseable) {
+            ((AutoCloseable) backend).close();
+        }
+    }
+
+}
@@ -97,23 +97,24 @@ public class DummyDatabaseBackend extends AbstractDatabaseBackend {
 
     @Override
     public int deleteExpiredItems(Class modelClass, String field, Long cutoffTime, Integer numItems) {
-        if (numItems != null) {
-            // Using a limit would require sorting entries by `field`
-            // but this backend doesn't (currently) have sorting capabilities.
-            throw new UnsupportedOperationException();
-        }
-
         ConcurrentMap<String, Object> cache = getCache();
-        int numDeletedItems = 0;
+        List<Map.Entry<String, Long>> expired = new ArrayList<>();
         for (Map.Entry<String, Object> entry : cache.entrySet()) {
             Model model = (Model) entry.getValue();
-            if (entry.getKey().startsWith(modelClass.getSimpleName() + "-")
-                && ((Long) model.toMap().get(field) <= cutoffTime)) {
-                cache.remove(entry.getKey());
-                numDeletedItems++;
+            Long value = (Long) model.toMap().get(field);
+            if (entry.getKey().startsWith(modelClass.getSimpleName() + "-") && value <= cutoffTime) {
+                expired.add(Map.entry(entry.getKey(), value));
             }
         }
-        return numDeletedItems;
+        if (isLimited(numItems) && numItems < expired.size()) {
+            // Delete the oldest items first
+            expired.sort(Map.Entry.comparingByValue());
+            expired = expired.subList(0, numItems);
+        }
+        for (Map.Entry<String, Long> entry : expired) {
+            cache.remove(entry.getKey());
+        }
+        return expired.size();
     }
 
     @Override
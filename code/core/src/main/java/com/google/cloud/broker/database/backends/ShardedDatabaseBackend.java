@@ -0,0 +1,197 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.database.backends;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import com.google.common.hash.Hashing;
+import com.typesafe.config.Config;
+
+import com.google.cloud.broker.checks.CheckResult;
+import com.google.cloud.broker.database.DatabaseObjectNotFound;
+import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.InstanceUtils;
+
+/**
+ * Spreads models across several database backends ("shards").
+ *
+ * New models (e.g. sessions) get an ID prefixed with the index of a randomly chosen shard,
+ * like "2:6f1c...", so that later lookups go straight to that shard. Models that come
+ * with their own ID (e.g. refresh tokens, keyed by user) are routed by a consistent hash
+ * of that ID. Appending shards to the list keeps existing sessions in place, but moves
+ * a fraction of the hash-routed models to the new shards.
+ *
+ * Closing the backend closes the shards.
+ */
+public class ShardedDatabaseBackend extends AbstractDatabaseBackend implements AutoCloseable {
+
+    final static char SHARD_SEPARATOR = ':';
+
+    private final List<AbstractDatabaseBackend> shards = new ArrayList<>();
+
+    public ShardedDatabaseBackend() {
+        List<? extends Config> shardConfigs = AppSettings.getInstance().getConfigList(AppSettings.DATABASE_SHARDING_SHARDS);
+        if (shardConfigs.isEmpty()) {
+            throw new IllegalArgumentException("The `" + AppSettings.DATABASE_SHARDING_SHARDS + "` setting must list at least one shard");
+        }
+        for (Config shardConfig : shardConfigs) {
+            shards.add(createShard(shardConfig));
+        }
+    }
+
+    private static AbstractDatabaseBackend createShard(Config shardConfig) {
+        String className = shardConfig.getString("backend");
+        if (shardConfig.hasPath("settings")) {
+            // Only the backends with a constructor that takes the settings can be given shard-specific settings
+            try {
+                Class.forName(className).getConstructor(Config.class);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(
+                    "Database backend `" + className + "` doesn't accept shard-specific `settings`", e);
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+            // Shard-specific settings take precedence over the application's settings
+            Config settings = shardConfig.getConfig("settings").withFallback(AppSettings.getInstance());
+            return (AbstractDatabaseBackend) InstanceUtils.invokeConstructor(className, Config.class, settings);
+        }
+        return (AbstractDatabaseBackend) InstanceUtils.invokeConstructor(className);
+    }
+
+    List<AbstractDatabaseBackend> getShards() {
+        return shards;
+    }
+
+    int getShardIndex(String objectId) {
+        int separator = objectId.indexOf(SHARD_SEPARATOR);
+        if (separator > 0) {
+            try {
+                int index = Integer.parseInt(objectId.substring(0, separator));
+                if (index >= 0 && index < shards.size()) {
+                    return index;
+                }
+            } catch (NumberFormatException e) {
+                // Not a shard prefix. Fall back to hashing.
+            }
+        }
+        return Hashing.consistentHash(Hashing.murmur3_128().hashString(objectId, StandardCharsets.UTF_8), shards.size());
+    }
+
+    private AbstractDatabaseBackend getShard(String objectId) {
+        return shards.get(getShardIndex(objectId));
+    }
+
+    @Override
+    public List<Model> getAll(Class modelClass) {
+        List<Model> models = new ArrayList<>();
+        for (AbstractDatabaseBackend shard : shards) {
+            models.addAll(shard.getAll(modelClass));
+        }
+        return models;
+    }
+
+    @Override
+    public void forEach(Class modelClass, Consumer<Model> consumer) {
+        for (AbstractDatabaseBackend shard : shards) {
+            shard.forEach(modelClass, consumer);
+        }
+    }
+
+    @Override
+    public Model get(Class modelClass, String objectId) throws DatabaseObjectNotFound {
+        return getShard(objectId).get(modelClass, objectId);
+    }
+
+    @Override
+    public void save(Model model) {
+        if (model.getDBId() == null) {
+            int index = ThreadLocalRandom.current().nextInt(shards.size());
+            model.setDBId(index + String.valueOf(SHARD_SEPARATOR) + UUID.randomUUID().toString());
+        }
+        getShard(model.getDBId()).save(model);
+    }
+
+    @Override
+    public void delete(Model model) {
+        getShard(model.getDBId()).delete(model);
+    }
+
+    @Override
+    public int deleteExpiredItems(Class modelClass, String field, Long cutoffTime, Integer numItems) {
+        int numDeletedItems = 0;
+        if (!isLimited(numItems)) {
+            for (AbstractDatabaseBackend shard : shards) {
+                numDeletedItems += shard.deleteExpiredItems(modelClass, field, cutoffTime, null);
+            }
+            return numDeletedItems;
+        }
+
+        // Split the limit evenly across the shards
+        int remaining = numItems;
+        List<AbstractDatabaseBackend> saturated = new ArrayList<>();
+        for (int i = 0; i < shards.size() && remaining > 0; i++) {
+            int numShardsLeft = shards.size() - i;
+            int share = (remaining + numShardsLeft - 1) / numShardsLeft;
+            int deleted = shards.get(i).deleteExpiredItems(modelClass, field, cutoffTime, share);
+            if (deleted == share) {
+                // This shard may have more expired items
+                saturated.add(shards.get(i));
+            }
+            numDeletedItems += deleted;
+            remaining -= deleted;
+        }
+        // Give whatever the other shards didn't use to the shards that used their whole share
+        for (AbstractDatabaseBackend shard : saturated) {
+            if (remaining <= 0) {
+                break;
+            }
+            int deleted = shard.deleteExpiredItems(modelClass, field, cutoffTime, remaining);
+            numDeletedItems += deleted;
+            remaining -= deleted;
+        }
+        return numDeletedItems;
+    }
+
+    @Override
+    public void initializeDatabase() {
+        for (AbstractDatabaseBackend shard : shards) {
+            shard.initializeDatabase();
+        }
+    }
+
+    @Override
+    public CheckResult checkConnection() {
+        for (int i = 0; i < shards.size(); i++) {
+            CheckResult result = shards.get(i).checkConnection();
+            if (!result.isSuccess()) {
+                return new CheckResult(false, "Shard " + i + ": " + result.getMessage());
+            }
+        }
+        return new CheckResult(true);
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (AbstractDatabaseBackend shard : shards) {
+            if (shard instanceof AutoCloseable) {
+                ((AutoCloseable) shard).close();
+            }
+        }
+    }
+
+}
@@ -11,29 +11,19 @@
 
 package com.google.cloud.broker.database.models;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Map;
 
 public abstract class Model {
 
-    public abstract Map<String, Object> toMap();
+    public Map<String, Object> toMap() {
+        return ModelCodec.forClass(getClass()).toMap(this);
+    }
 
     public abstract void setDBId(String id);
     public abstract String getDBId();
 
     public static Model fromMap(Class<?> klass, Map<String, Object> map) {
-        Method method;
-        try {
-            method = klass.getMethod("fromMap", Map.class);
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
-        try {
-            return (Model) method.invoke(null, map);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException(e);
-        }
+        return ModelCodec.forClass(klass).fromMap(map);
     }
 
 }
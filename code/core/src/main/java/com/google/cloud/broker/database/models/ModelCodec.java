@@ -0,0 +1,144 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.database.models;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps a model class to and from an ordered array of field values, so that database
+ * backends can read and write columns/properties by position without going through
+ * an intermediate map or looking up methods by reflection for every row.
+ *
+ * Each model class exposes its codec as a public static `CODEC` field.
+ */
+public abstract class ModelCodec<T extends Model> {
+
+    public final static String ID_FIELD = "id";
+    private final static String CODEC_FIELD = "CODEC";
+
+    private static final ConcurrentMap<Class<?>, ModelCodec<?>> registry = new ConcurrentHashMap<>();
+
+    public enum FieldType {
+        STRING,
+        LONG,
+        BYTES,
+        STRING_LIST
+    }
+
+    public static class Field {
+
+        private final String name;
+        private final FieldType type;
+
+        private Field(String name, FieldType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public FieldType getType() {
+            return type;
+        }
+    }
+
+    private final List<Field> fields;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    protected ModelCodec(Field... fields) {
+        this.fields = List.of(fields);
+        for (int i = 0; i < fields.length; i++) {
+            indexes.put(fields[i].getName(), i);
+        }
+        if (!indexes.containsKey(ID_FIELD)) {
+            throw new IllegalArgumentException("Model codec must have an `" + ID_FIELD + "` field");
+        }
+    }
+
+    public static Field stringField(String name) {
+        return new Field(name, FieldType.STRING);
+    }
+
+    public static Field longField(String name) {
+        return new Field(name, FieldType.LONG);
+    }
+
+    public static Field bytesField(String name) {
+        return new Field(name, FieldType.BYTES);
+    }
+
+    public static Field stringListField(String name) {
+        return new Field(name, FieldType.STRING_LIST);
+    }
+
+    /**
+     * Instantiates a model from the given values, ordered as returned by `getFields()`.
+     */
+    public abstract T decode(Object[] values);
+
+    /**
+     * Returns the model's values, ordered as returned by `getFields()`.
+     */
+    public abstract Object[] encode(T model);
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the position of the given field, or -1 if the field doesn't exist.
+     */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return (index == null) ? -1 : index;
+    }
+
+    public T fromMap(Map<String, Object> map) {
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = map.get(fields.get(i).getName());
+        }
+        return decode(values);
+    }
+
+    public Map<String, Object> toMap(T model) {
+        Object[] values = encode(model);
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            map.put(fields.get(i).getName(), values[i]);
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static ModelCodec<Model> forClass(Class<?> modelClass) {
+        return (ModelCodec<Model>) registry.computeIfAbsent(modelClass, ModelCodec::lookup);
+    }
+
+    private static ModelCodec<?> lookup(Class<?> modelClass) {
+        // Only runs once per model class
+        try {
+            return (ModelCodec<?>) modelClass.getField(CODEC_FIELD).get(null);
+        } catch (NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+            throw new IllegalArgumentException(
+                "Model class `" + modelClass.getName() + "` must declare a public static `" + CODEC_FIELD + "` field", e);
+        }
+    }
+
+}
@@ -12,22 +12,27 @@
 package com.google.cloud.broker.encryption.backends;
 
 import com.google.cloud.broker.settings.AppSettings;
-import com.google.cloud.broker.utils.InstanceUtils;
+import com.google.cloud.broker.utils.ComponentRegistry;
 import com.google.cloud.broker.checks.CheckResult;
 
 public abstract class AbstractEncryptionBackend {
 
-    private static AbstractEncryptionBackend instance;
+    private static final ComponentRegistry.Component<AbstractEncryptionBackend> component =
+        ComponentRegistry.register(AppSettings.ENCRYPTION_BACKEND, AbstractEncryptionBackend.class);
     public abstract byte[] decrypt(byte[] cipherText);
     public abstract byte[] encrypt(byte[] plainText);
     public abstract CheckResult checkConnection();
 
+    /**
+     * Returns a secret key derived from the backend's key material, e.g. to compute keyed hashes.
+     * The same purpose must always yield the same key, and different purposes different keys.
+     */
+    public byte[] deriveKey(String purpose) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support key derivation");
+    }
+
     public static AbstractEncryptionBackend getInstance() {
-        String className = AppSettings.getInstance().getString(AppSettings.ENCRYPTION_BACKEND);
-        if (instance == null || !className.equals(instance.getClass().getCanonicalName())) {
-            instance = (AbstractEncryptionBackend) InstanceUtils.invokeConstructor(className);
-        }
-        return instance;
+        return component.get();
     }
 
 }
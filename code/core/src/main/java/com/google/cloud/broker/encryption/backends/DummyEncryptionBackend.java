@@ -11,6 +11,10 @@
 
 package com.google.cloud.broker.encryption.backends;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import com.google.cloud.broker.checks.CheckResult;
 
 /**
@@ -34,4 +38,14 @@ public class DummyEncryptionBackend extends AbstractEncryptionBackend {
         return new CheckResult(true);
     }
 
+    @Override
+    public byte[] deriveKey(String purpose) {
+        // Not secret at all, as the derived key only depends on the purpose
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(purpose.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
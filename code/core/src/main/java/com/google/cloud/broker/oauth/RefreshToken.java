@@ -11,12 +11,10 @@
 
 package com.google.cloud.broker.oauth;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.database.models.ModelCodec;
 import com.google.cloud.broker.utils.TimeUtils;
 
 public class RefreshToken extends Model {
@@ -35,22 +33,25 @@ public class RefreshToken extends Model {
         );
     }
 
-    @Override
-    public Map<String, Object> toMap() {
-        HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put("id", id);
-        map.put("value", value);
-        map.put("creationTime", creationTime);
-        return map;
-    }
-
-    public static Model fromMap(Map<String, Object> map) {
-        return new RefreshToken(
-            (String) map.get("id"),
-            (byte[]) map.get("value"),
-            (Long) map.get("creationTime")
-        );
-    }
+    public static final ModelCodec<RefreshToken> CODEC = new ModelCodec<>(
+        ModelCodec.stringField("id"),
+        ModelCodec.bytesField("value"),
+        ModelCodec.longField("creationTime")) {
+
+        @Override
+        public RefreshToken decode(Object[] values) {
+            return new RefreshToken(
+                (String) values[0],
+                (byte[]) values[1],
+                (Long) values[2]
+            );
+        }
+
+        @Override
+        public Object[] encode(RefreshToken token) {
+            return new Object[] {token.id, token.value, token.creationTime};
+        }
+    };
 
     public void setDBId(String id) {
         setId(id);
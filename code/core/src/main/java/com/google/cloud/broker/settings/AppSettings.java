@@ -37,43 +37,92 @@ public class AppSettings {
     public final static String AUTHORIZER_HOST = "authorizer.host";
     public final static String AUTHORIZER_PORT = "authorizer.port";
     public final static String LOGGING_LEVEL = "logging.level";
+    public final static String LOGGING_CACHE_STATS_INTERVAL = "logging.cache-stats-interval";
+    public final static String ADMIN_USERS = "admin.users";
     public final static String SERVER_HOST = "server.host";
     public final static String SERVER_PORT = "server.port";
     public final static String TLS_ENABLED = "server.tls.enabled";
     public final static String TLS_CERTIFICATE_PATH = "server.tls.certificate-path";
     public final static String TLS_PRIVATE_KEY_PATH = "server.tls.private-key-path";
     public final static String SESSION_LOCAL_CACHE_TIME = "sessions.local-cache-time";
+    public final static String SESSION_REMOTE_CACHE_TIME = "sessions.remote-cache-time";
     public final static String SESSION_MAXIMUM_LIFETIME = "sessions.maximum-lifetime";
     public final static String SESSION_RENEW_PERIOD = "sessions.renew-period";
+    public final static String SESSION_SWEEPER_ENABLED = "sessions.sweeper.enabled";
+    public final static String SESSION_SWEEPER_INTERVAL = "sessions.sweeper.interval";
+    public final static String SESSION_SWEEPER_BATCH_SIZE = "sessions.sweeper.batch-size";
+    public final static String SESSION_SWEEPER_RATE_LIMIT = "sessions.sweeper.rate-limit";
     public final static String PROXY_USERS = "proxy-users";
+    public final static String PROXY_USER_GROUPS_REFRESH_INTERVAL = "proxy-user-groups.refresh-interval";
     public final static String SCOPES_ALLOWLIST = "scopes.allowlist";
     public final static String PROVIDER_BACKEND = "provider.backend";
     public final static String ACCESS_TOKEN_BOUNDARY_PERMISSIONS = "provider.access-tokens.boundary-permissions";
     public final static String ACCESS_TOKEN_LOCAL_CACHE_TIME = "provider.access-tokens.local-cache-time";
     public final static String ACCESS_TOKEN_REMOTE_CACHE_TIME = "provider.access-tokens.remote-cache-time";
+    public final static String ACCESS_TOKEN_STAMPEDE_PROTECTION = "provider.access-tokens.stampede-protection";
+    public final static String ACCESS_TOKEN_WARM_UP_ENABLED = "provider.access-tokens.warm-up.enabled";
+    public final static String ACCESS_TOKEN_WARM_UP_MAXIMUM_SIZE = "provider.access-tokens.warm-up.maximum-size";
+    public final static String ACCESS_TOKEN_WARM_UP_SNAPSHOT_INTERVAL = "provider.access-tokens.warm-up.snapshot-interval";
+    public final static String ACCESS_TOKEN_WARM_UP_TIMEOUT = "provider.access-tokens.warm-up.timeout";
     public final static String HYBRID_USER_PROVIDER = "provider.hybrid.user-provider";
     public final static String JSON_FILE_CREDENTIALS_PROVIDER_BASE_DIR = "provider.json-file-credentials.base-dir";
     public final static String DATABASE_BACKEND = "database.backend";
     public final static String DATABASE_JDBC_URL = "database.jdbc.driver-url";
+    public final static String DATABASE_CACHING_BACKEND = "database.caching.backend";
+    public final static String DATABASE_CACHING_MAXIMUM_SIZE = "database.caching.maximum-size";
+    public final static String DATABASE_CACHING_EXPIRE_AFTER = "database.caching.expire-after";
+    public final static String DATABASE_CACHING_REMOTE_INVALIDATION = "database.caching.remote-invalidation";
+    public final static String DATABASE_SHARDING_SHARDS = "database.sharding.shards";
+    public final static String DATASTORE_CONNECT_TIMEOUT = "cloud-datastore.connect-timeout";
+    public final static String DATASTORE_READ_TIMEOUT = "cloud-datastore.read-timeout";
+    public final static String DATASTORE_RETRY_MAX_ATTEMPTS = "cloud-datastore.retry.max-attempts";
+    public final static String DATASTORE_RETRY_TOTAL_TIMEOUT = "cloud-datastore.retry.total-timeout";
     public final static String REMOTE_CACHE = "remote-cache.backend";
+    public final static String REMOTE_CACHE_COMPRESSION_ENABLED = "remote-cache.compression.enabled";
+    public final static String REMOTE_CACHE_COMPRESSION_MIN_SIZE = "remote-cache.compression.min-size";
+    public final static String REMOTE_CACHE_KEY_HASHING_ENABLED = "remote-cache.key-hashing.enabled";
+    public final static String REMOTE_CACHE_TIERS = "remote-cache.tiers";
     public final static String REDIS_CACHE_HOST = "remote-cache.redis.host";
     public final static String REDIS_CACHE_PORT = "remote-cache.redis.port";
     public final static String REDIS_CACHE_DB = "remote-cache.redis.db";
+    public final static String REDIS_CACHE_MODE = "remote-cache.redis.mode";
+    public final static String REDIS_CACHE_NODES = "remote-cache.redis.nodes";
+    public final static String REDIS_CACHE_SENTINEL_MASTER = "remote-cache.redis.sentinel-master";
+    public final static String REDIS_CACHE_READ_MODE = "remote-cache.redis.read-mode";
+    public final static String REDIS_CACHE_CONNECTION_POOL_SIZE = "remote-cache.redis.connection-pool-size";
+    public final static String REDIS_CACHE_CONNECT_TIMEOUT = "remote-cache.redis.connect-timeout";
+    public final static String REDIS_CACHE_TIMEOUT = "remote-cache.redis.timeout";
+    public final static String REDIS_CACHE_THREADS = "remote-cache.redis.threads";
+    public final static String REDIS_CACHE_NETTY_THREADS = "remote-cache.redis.netty-threads";
+    public final static String REDIS_CACHE_NEAR_CACHE_ENABLED = "remote-cache.redis.near-cache.enabled";
+    public final static String REDIS_CACHE_NEAR_CACHE_MAXIMUM_SIZE = "remote-cache.redis.near-cache.maximum-size";
+    public final static String REDIS_CACHE_NEAR_CACHE_EXPIRE_AFTER = "remote-cache.redis.near-cache.expire-after";
+    public final static String DATASTORE_CACHE_LOCK_LEASE = "remote-cache.cloud-datastore.lock.lease";
+    public final static String DATASTORE_CACHE_LOCK_TIMEOUT = "remote-cache.cloud-datastore.lock.timeout";
+    public final static String DATASTORE_CACHE_LOCK_LOCAL = "remote-cache.cloud-datastore.lock.local";
     public final static String OAUTH_CLIENT_ID = "oauth.client-id";
     public final static String OAUTH_CLIENT_SECRET = "oauth.client-secret";
     public final static String OAUTH_CLIENT_SECRET_JSON_PATH = "oauth.client-secret-json-path";
     public final static String AUTHENTICATION_BACKEND = "authentication.backend";
     public final static String KEYTABS = "authentication.spnego.keytabs";
+    public final static String AUTHENTICATION_CACHE_TTL = "authentication.cache.ttl";
+    public final static String AUTHENTICATION_CACHE_MAXIMUM_SIZE = "authentication.cache.maximum-size";
+    public final static String AUTHENTICATION_CACHE_DIRECT_CONNECTIONS = "authentication.cache.direct-connections";
+    public final static String AUTHENTICATION_COOKIE_LIFETIME = "authentication.cookie.lifetime";
     public final static String ENCRYPTION_BACKEND = "encryption.backend";
     public final static String ENCRYPTION_DEK_URI = "encryption.cloud-kms.dek-uri";
     public final static String ENCRYPTION_KEK_URI = "encryption.cloud-kms.kek-uri";
     public final static String USER_MAPPER = "user-mapping.mapper";
     public final static String USER_MAPPING_RULES = "user-mapping.rules";
+    public final static String USER_MAPPING_CACHE_MAXIMUM_SIZE = "user-mapping.cache.maximum-size";
+    public final static String USER_MAPPING_TABLE_SOURCE = "user-mapping.table.source";
+    public final static String USER_MAPPING_TABLE_RELOAD_INTERVAL = "user-mapping.table.reload-interval";
+    public final static String USER_MAPPING_TABLE_DATABASE_RELOAD_INTERVAL = "user-mapping.table.database-reload-interval";
     public final static String SECRET_MANAGER_DOWNLOADS = "secret-manager.downloads";
     public final static String SYSTEM_CHECK_ENABLED = "system-check-enabled";
 
 
-    private static Config instance;
+    private static volatile Config instance;
     static {
         loadSettings(); // Initialize instance
     }
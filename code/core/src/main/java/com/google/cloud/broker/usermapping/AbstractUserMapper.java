@@ -15,18 +15,15 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.google.cloud.broker.settings.AppSettings;
-import com.google.cloud.broker.utils.InstanceUtils;
+import com.google.cloud.broker.utils.ComponentRegistry;
 
 public abstract class AbstractUserMapper {
 
-    private static AbstractUserMapper instance;
+    private static final ComponentRegistry.Component<AbstractUserMapper> component =
+        ComponentRegistry.register(AppSettings.USER_MAPPER, AbstractUserMapper.class);
 
     public static AbstractUserMapper getInstance() {
-        String className = AppSettings.getInstance().getString(AppSettings.USER_MAPPER);
-        if (instance == null || !className.equals(instance.getClass().getCanonicalName())) {
-            instance = (AbstractUserMapper) InstanceUtils.invokeConstructor(className);
-        }
-        return instance;
+        return component.get();
     }
 
     abstract public String map(String name) throws IllegalArgumentException;
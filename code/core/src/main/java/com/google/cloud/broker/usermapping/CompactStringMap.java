@@ -0,0 +1,150 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.usermapping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * String-to-string map that keeps all keys and values as UTF-8 in a single byte array, indexed
+ * by an open-addressing hash table of ints. Unlike a HashMap, it doesn't cost a few objects per
+ * entry, which matters for tables with millions of entries.
+ *
+ * Not thread-safe while it's being filled. Once filled, it can be read concurrently.
+ */
+class CompactStringMap {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] data = new byte[1024];
+    private int dataSize = 0;
+
+    // Per entry: start of its key in `data`, length of its key and value, and hash of its key
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] keyLengths = new int[INITIAL_CAPACITY];
+    private int[] valueLengths = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int numEntries = 0;
+
+    // Entry index + 1 for each slot, or 0 if the slot is empty. Kept at most half full.
+    private int[] slots = new int[2 * INITIAL_CAPACITY];
+    private int size = 0;
+
+    private static int hash(byte[] key) {
+        // Murmur3's finalizer, so that the lower bits, from which the slot is taken, are well mixed
+        int h = Arrays.hashCode(key);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // Returns the slot of the given key, or of the empty slot where it would go
+    private int findSlot(byte[] key, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int entry = slots[slot] - 1;
+            if (entry < 0) {
+                return slot;
+            }
+            if (hashes[entry] == hash && keyLengths[entry] == key.length &&
+                Arrays.equals(data, starts[entry], starts[entry] + key.length, key, 0, key.length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds the entry, replacing the previous value of the key if any.
+     */
+    void put(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+
+        // Append the entry
+        if (numEntries == starts.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, 2 * starts.length);
+            starts = Arrays.copyOf(starts, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        int length = keyBytes.length + valueBytes.length;
+        if (dataSize + length > data.length) {
+            data = Arrays.copyOf(data, Math.max(2 * data.length, dataSize + length));
+        }
+        System.arraycopy(keyBytes, 0, data, dataSize, keyBytes.length);
+        System.arraycopy(valueBytes, 0, data, dataSize + keyBytes.length, valueBytes.length);
+        starts[numEntries] = dataSize;
+        keyLengths[numEntries] = keyBytes.length;
+        valueLengths[numEntries] = valueBytes.length;
+        hashes[numEntries] = hash;
+        dataSize += length;
+        numEntries++;
+
+        // Point the key's slot to the entry. A replaced entry stays in `data` but is unreachable.
+        int slot = findSlot(keyBytes, hash);
+        if (slots[slot] == 0) {
+            size++;
+        }
+        slots[slot] = numEntries;
+        if (2 * size > slots.length) {
+            rehash(2 * slots.length);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldSlots = slots;
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int oldSlot : oldSlots) {
+            if (oldSlot != 0) {
+                int slot = hashes[oldSlot - 1] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = oldSlot;
+            }
+        }
+    }
+
+    /**
+     * Releases the unused capacity, once all entries are added. Adding more entries still works,
+     * but grows the arrays again.
+     */
+    void trim() {
+        data = Arrays.copyOf(data, dataSize);
+        starts = Arrays.copyOf(starts, numEntries);
+        keyLengths = Arrays.copyOf(keyLengths, numEntries);
+        valueLengths = Arrays.copyOf(valueLengths, numEntries);
+        hashes = Arrays.copyOf(hashes, numEntries);
+    }
+
+    String get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int entry = slots[findSlot(keyBytes, hash(keyBytes))] - 1;
+        if (entry < 0) {
+            return null;
+        }
+        return new String(data, starts[entry] + keyLengths[entry], valueLengths[entry], StandardCharsets.UTF_8);
+    }
+
+    int size() {
+        return size;
+    }
+
+}
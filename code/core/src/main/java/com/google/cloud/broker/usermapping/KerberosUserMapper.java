@@ -12,12 +12,17 @@
 package com.google.cloud.broker.usermapping;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import com.google.cloud.broker.settings.AppSettings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.hubspot.jinjava.Jinjava;
 import com.hubspot.jinjava.JinjavaConfig;
 import com.hubspot.jinjava.interpret.Context;
@@ -27,20 +32,35 @@ import com.hubspot.jinjava.interpret.UnknownTokenException;
 import com.hubspot.jinjava.util.ObjectTruthValue;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigValue;
+import com.typesafe.config.ConfigValueType;
 
 public class KerberosUserMapper extends AbstractUserMapper {
 
     private List<Rule> rulesList = new ArrayList<>();
+    // Results of previous mappings, by name
+    final Cache<String, String> mappings;
     private final static String INVALID_SETTING = "Invalid `" + AppSettings.USER_MAPPING_RULES + "` setting -- ";
 
+    // Shared by all evaluations, as creating a Jinjava instance is costly. Its expression
+    // factory also caches the parsed expressions, so each rule is only parsed once.
+    private final static Jinjava jinjava = new Jinjava();
+    private final static JinjavaConfig evaluationConfig = new JinjavaConfig();
+    private final static JinjavaConfig validationConfig = JinjavaConfig.newBuilder()
+        .withValidationMode(true)
+        .withFailOnUnknownTokens(true)
+        .build();
+
     static class KerberosName {
+        private final static Pattern PARSER = Pattern.compile("([a-zA-Z0-9\\.-]+)(/([a-zA-Z0-9\\.-]+))?(@([a-zA-Z0-9\\.-]+))?");
+
         private final String primary;
         private final String instance;
         private final String realm;
 
         public KerberosName(String name) {
-            Pattern parser = Pattern.compile("([a-zA-Z0-9\\.-]+)(/([a-zA-Z0-9\\.-]+))?(@([a-zA-Z0-9\\.-]+))?");
-            Matcher match = parser.matcher(name);
+            Matcher match = PARSER.matcher(name);
             if (match.matches()) {
                 primary = match.group(1);
                 instance = match.group(3);
@@ -73,15 +93,127 @@ public class KerberosUserMapper extends AbstractUserMapper {
     }
 
     public KerberosUserMapper() {
+        mappings = CacheBuilder.newBuilder()
+            .maximumSize(AppSettings.getInstance().getLong(AppSettings.USER_MAPPING_CACHE_MAXIMUM_SIZE))
+            .build();
         loadMappingRules();
     }
 
-    private static class Rule {
+    /**
+     * Evaluation of the rules for a given principal. The Jinjava interpreter is only
+     * created if an expression rule is reached.
+     */
+    private static class Evaluation {
+
+        private final String name;
+        private final KerberosName principal;
+        private JinjavaInterpreter interpreter;
+
+        private Evaluation(String name) {
+            this.name = name;
+            this.principal = new KerberosName(name);
+        }
+
+        private JinjavaInterpreter getInterpreter() {
+            if (interpreter == null) {
+                Context context = new Context();
+                context.put("principal", principal.getFullName());
+                context.put("primary", principal.getPrimary());
+                context.put("instance", principal.getInstance());
+                context.put("realm", principal.getRealm());
+                // All expression rules are evaluated with the same interpreter
+                interpreter = new JinjavaInterpreter(jinjava, context, evaluationConfig);
+            }
+            return interpreter;
+        }
+    }
+
+    private interface Rule {
+
+        /**
+         * Returns the Google identity that the principal maps to, or null if the rule doesn't apply.
+         */
+        String apply(Evaluation evaluation);
+    }
+
+    /**
+     * Maps principals of the given realm to the same name in the given domain, e.g. "alice@EXAMPLE.COM"
+     * to "alice@example.com". Equivalent to: if: "realm == '<realm>'", then: "primary + '@<domain>'"
+     */
+    private static class RealmRule implements Rule {
+
+        private final String realm;
+        private final String domain;
+
+        private RealmRule(String realm, String domain) {
+            this.realm = realm;
+            this.domain = domain;
+        }
+
+        @Override
+        public String apply(Evaluation evaluation) {
+            if (realm.equals(evaluation.principal.getRealm())) {
+                return evaluation.principal.getPrimary() + "@" + domain;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Maps the listed principals to the given Google identities.
+     */
+    private static class LookupRule implements Rule {
+
+        private final Map<String, String> table;
+
+        private LookupRule(Map<String, String> table) {
+            this.table = table;
+        }
+
+        @Override
+        public String apply(Evaluation evaluation) {
+            return table.get(evaluation.name);
+        }
+    }
+
+    /**
+     * Maps the principals that match the given regular expression to the given replacement,
+     * in which "$1", "$2", etc. refer to the captured groups.
+     */
+    private static class RegexRule implements Rule {
+
+        private final Pattern pattern;
+        private final String replacement;
+
+        private RegexRule(Pattern pattern, String replacement) {
+            this.pattern = pattern;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public String apply(Evaluation evaluation) {
+            Matcher matcher = pattern.matcher(evaluation.name);
+            if (matcher.matches()) {
+                // Expand the replacement from the match found by `matches()`. Searching again (e.g. with
+                // `replaceFirst()`) could find a shorter match, and keep the rest of the name.
+                StringBuilder result = new StringBuilder();
+                matcher.appendReplacement(result, replacement);
+                matcher.appendTail(result);
+                return result.toString();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Rule made of Jinja expressions, for the cases that the other rules don't cover.
+     */
+    private static class ExpressionRule implements Rule {
 
         private final String ifCondition;
         private final String then;
 
-        private Rule(String ifCondition, String then) {
+        private ExpressionRule(String ifCondition, String then) {
             this.ifCondition = ifCondition;
             this.then = then;
         }
@@ -94,19 +226,14 @@ public class KerberosUserMapper extends AbstractUserMapper {
             String dummyPrincipal = dummyPrimary + "/" + dummyInstance + "@" + dummyRealm;
 
             // Create dummy context
-            Jinjava jinjava = new Jinjava();
             Context context = new Context();
             context.put("principal", dummyPrincipal);
             context.put("primary", dummyPrimary);
             context.put("instance", dummyInstance);
             context.put("realm", dummyRealm);
-            JinjavaConfig config = JinjavaConfig.newBuilder()
-                .withValidationMode(true)
-                .withFailOnUnknownTokens(true)
-                .build();
 
-            // Validate the `if` condition
-            JinjavaInterpreter interpreter = new JinjavaInterpreter(jinjava, context, config);
+            // Validate the `if` condition. This also parses it ahead of the first evaluation.
+            JinjavaInterpreter interpreter = new JinjavaInterpreter(jinjava, context, validationConfig);
             try {
                 ObjectTruthValue.evaluate(interpreter.resolveELExpression(ifCondition, 0));
             }
@@ -116,7 +243,7 @@ public class KerberosUserMapper extends AbstractUserMapper {
             checkForSyntaxErrors(interpreter, ifCondition);
 
             // Validate the `then` expression
-            interpreter = new JinjavaInterpreter(jinjava, context, config);
+            interpreter = new JinjavaInterpreter(jinjava, context, validationConfig);
             try {
                 interpreter.resolveELExpression(then, 0);
             }
@@ -137,54 +264,75 @@ public class KerberosUserMapper extends AbstractUserMapper {
             }
         }
 
-        public boolean evaluateIfCondition(Context context) {
-            JinjavaInterpreter interpreter = new JinjavaInterpreter(new Jinjava(), context, new JinjavaConfig());
-            return ObjectTruthValue.evaluate(interpreter.resolveELExpression(ifCondition, 0));
+        @Override
+        public String apply(Evaluation evaluation) {
+            JinjavaInterpreter interpreter = evaluation.getInterpreter();
+            if (ObjectTruthValue.evaluate(interpreter.resolveELExpression(ifCondition, 0))) {
+                return Objects.toString(interpreter.resolveELExpression(then, 0), "");
+            }
+            return null;
         }
 
-        public String evaluateThenExpression(Context context) {
-            JinjavaInterpreter interpreter = new JinjavaInterpreter(new Jinjava(), context, new JinjavaConfig());
-            Object rendered = interpreter.resolveELExpression(then, 0);
-            return Objects.toString(rendered, "");
-        }
+    }
 
+    private static Rule createRule(Config ruleConfig) {
+        try {
+            if (ruleConfig.hasPath("if") || ruleConfig.hasPath("then")) {
+                ExpressionRule rule = new ExpressionRule(ruleConfig.getString("if"), ruleConfig.getString("then"));
+                rule.validate();
+                return rule;
+            }
+            else if (ruleConfig.hasPath("realm")) {
+                return new RealmRule(ruleConfig.getString("realm"), ruleConfig.getString("domain"));
+            }
+            else if (ruleConfig.hasPath("lookup")) {
+                Map<String, String> table = new HashMap<>();
+                for (Map.Entry<String, ConfigValue> entry : ruleConfig.getObject("lookup").entrySet()) {
+                    if (entry.getValue().valueType() != ConfigValueType.STRING) {
+                        throw new IllegalArgumentException("Lookup value for `" + entry.getKey() + "` must be a string");
+                    }
+                    table.put(entry.getKey(), (String) entry.getValue().unwrapped());
+                }
+                return new LookupRule(table);
+            }
+            else if (ruleConfig.hasPath("match")) {
+                return new RegexRule(Pattern.compile(ruleConfig.getString("match")), ruleConfig.getString("replace"));
+            }
+        } catch(ConfigException | PatternSyntaxException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        throw new IllegalArgumentException("Unknown rule type: " + ruleConfig.root().render(ConfigRenderOptions.concise()));
     }
 
     private void loadMappingRules() {
         List<? extends Config> rules = AppSettings.getInstance().getConfigList(AppSettings.USER_MAPPING_RULES);
         for (Config ruleConfig : rules) {
-            String ifCondition;
-            String then;
             try {
-                ifCondition = ruleConfig.getString("if");
-                then = ruleConfig.getString("then");
-            } catch(ConfigException.Missing e) {
-                throw new IllegalArgumentException(INVALID_SETTING + e.getMessage());
-            }
-            Rule rule = new Rule(ifCondition, then);
-            try {
-                rule.validate();
+                rulesList.add(createRule(ruleConfig));
             } catch(IllegalArgumentException e) {
                 throw new IllegalArgumentException(INVALID_SETTING + e.getMessage());
             }
-            rulesList.add(rule);
         }
     }
 
     @Override
     public String map(String name) throws IllegalArgumentException {
-        Context context = new Context();
-        KerberosName principal = new KerberosName(name);
-        context.put("principal", principal.getFullName());
-        context.put("primary", principal.getPrimary());
-        context.put("instance", principal.getInstance());
-        context.put("realm", principal.getRealm());
+        String mapping = mappings.getIfPresent(name);
+        if (mapping == null) {
+            mapping = applyRules(name);
+            mappings.put(name, mapping);
+        }
+        return mapping;
+    }
+
+    private String applyRules(String name) {
+        Evaluation evaluation = new Evaluation(name);
         // Look through the list of rules
         for (Rule rule : rulesList) {
-            boolean isApplicable = rule.evaluateIfCondition(context);
-            if (isApplicable) {
-                // An applicable rule was found. Apply it to get the user mapping.
-                return rule.evaluateThenExpression(context);
+            String mapping = rule.apply(evaluation);
+            if (mapping != null) {
+                // An applicable rule was found
+                return mapping;
             }
         }
         throw new IllegalArgumentException("Principal `" + name + "` cannot be mapped to a Google identity.");
@@ -0,0 +1,214 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.usermapping;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.CloudStorageUtils;
+import com.google.cloud.broker.utils.PeriodicTask;
+
+/**
+ * Maps principals to Google identities with a table, read from a CSV or JSON file (on the local
+ * filesystem or in Cloud Storage) or from the database. The table is kept in memory and reloaded
+ * when its source changes. Closing the mapper stops the reloads.
+ */
+public class TableUserMapper extends AbstractUserMapper implements AutoCloseable {
+
+    private static final Class<?> klass = MethodHandles.lookup().lookupClass();
+    private static final Logger logger = LoggerFactory.getLogger(klass);
+
+    static final String DATABASE_SOURCE = "database";
+    private static final String GCS_SCHEME = "gs";
+
+    private final String source;
+    private volatile CompactStringMap table;
+    private String version;  // Version of the loaded source, or null if it can't be known
+    private Storage storage;
+    // The previous table stays in use until the source can be loaded again
+    private final PeriodicTask task;
+
+    public TableUserMapper() {
+        source = AppSettings.getInstance().getString(AppSettings.USER_MAPPING_TABLE_SOURCE);
+        if (source.isEmpty()) {
+            throw new IllegalArgumentException("The `" + AppSettings.USER_MAPPING_TABLE_SOURCE + "` setting must be set");
+        }
+        reloadIfChanged();
+
+        task = new PeriodicTask(klass, "reload the user mapping table from " + source, this::reloadIfChanged);
+        // The database can't tell whether the table changed, so it's read in full on every reload
+        int reloadInterval = AppSettings.getInstance().getInt(source.equals(DATABASE_SOURCE) ?
+            AppSettings.USER_MAPPING_TABLE_DATABASE_RELOAD_INTERVAL : AppSettings.USER_MAPPING_TABLE_RELOAD_INTERVAL);
+        if (reloadInterval > 0) {
+            task.start(reloadInterval, reloadInterval);
+        }
+    }
+
+    /**
+     * Loads the table again if its source changed since it was last loaded, then swaps it
+     * with the one in use. Returns true if the table was loaded.
+     */
+    synchronized boolean reloadIfChanged() {
+        String newVersion = getSourceVersion();
+        if (newVersion != null && newVersion.equals(version)) {
+            return false;
+        }
+        CompactStringMap newTable = load();
+        newTable.trim();
+        table = newTable;
+        version = newVersion;
+        logger.info(klass.getSimpleName() + " - Loaded user mapping(s) from " + source + ": " + newTable.size());
+        return true;
+    }
+
+    private Storage getStorage() {
+        if (storage == null) {
+            storage = CloudStorageUtils.getCloudStorageClient();
+        }
+        return storage;
+    }
+
+    private BlobId getBlobId() {
+        URI uri;
+        try {
+            uri = new URI(source);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return BlobId.of(uri.getAuthority(), uri.getPath().substring(1));
+    }
+
+    private boolean isGcsSource() {
+        return source.startsWith(GCS_SCHEME + "://");
+    }
+
+    private String getSourceVersion() {
+        if (source.equals(DATABASE_SOURCE)) {
+            // No cheap way to tell, so always reload
+            return null;
+        }
+        else if (isGcsSource()) {
+            Blob blob = getStorage().get(getBlobId());
+            if (blob == null) {
+                throw new IllegalArgumentException("User mapping table not found: " + source);
+            }
+            return String.valueOf(blob.getGeneration());
+        }
+        else {
+            Path path = Paths.get(source);
+            try {
+                return Files.getLastModifiedTime(path).toMillis() + "-" + Files.size(path);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private CompactStringMap load() {
+        CompactStringMap newTable = new CompactStringMap();
+        if (source.equals(DATABASE_SOURCE)) {
+            // Stream the rows, so that they're never all in memory
+            AbstractDatabaseBackend.getInstance().forEach(UserMapping.class, model -> {
+                if (model instanceof UserMapping) {
+                    UserMapping mapping = (UserMapping) model;
+                    newTable.put(mapping.getId(), mapping.getGoogleIdentity());
+                }
+            });
+            return newTable;
+        }
+
+        // Stream the file, so that it's never entirely in memory
+        try (InputStream inputStream = isGcsSource() ?
+            Channels.newInputStream(getStorage().reader(getBlobId())) : Files.newInputStream(Paths.get(source))) {
+            if (source.endsWith(".json")) {
+                loadJson(inputStream, newTable);
+            }
+            else {
+                loadCsv(inputStream, newTable);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return newTable;
+    }
+
+    // One "principal,google-identity" pair per line. Empty lines and lines starting with "#" are ignored.
+    static void loadCsv(InputStream inputStream, CompactStringMap table) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int separator = line.indexOf(',');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid user mapping on line " + lineNumber + ": " + line);
+            }
+            table.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+        }
+    }
+
+    // A single object, with principals as keys and Google identities as values
+    static void loadJson(InputStream inputStream, CompactStringMap table) throws IOException {
+        try (JsonParser parser = new JsonFactory().createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("User mapping table must be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String principal = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.VALUE_STRING) {
+                    throw new IllegalArgumentException("Google identity for `" + principal + "` must be a string");
+                }
+                table.put(principal, parser.getText());
+            }
+        }
+    }
+
+    @Override
+    public String map(String name) throws IllegalArgumentException {
+        String googleIdentity = table.get(name);
+        if (googleIdentity == null) {
+            throw new IllegalArgumentException("Principal `" + name + "` cannot be mapped to a Google identity.");
+        }
+        return googleIdentity;
+    }
+
+    @Override
+    public void close() {
+        task.stop();
+    }
+
+}
@@ -0,0 +1,72 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.usermapping;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.database.models.ModelCodec;
+
+/**
+ * Mapping of a principal to a Google identity, read by the table user mapper when its source is the database.
+ */
+public class UserMapping extends Model {
+
+    private String id;              // Principal (e.g. alice@EXAMPLE.COM)
+    private String googleIdentity;  // Google identity (e.g. alice@example.com)
+
+    public UserMapping(@JsonProperty("id") String id,
+                       @JsonProperty("googleIdentity") String googleIdentity) {
+        setId(id);
+        setGoogleIdentity(googleIdentity);
+    }
+
+    public static final ModelCodec<UserMapping> CODEC = new ModelCodec<>(
+        ModelCodec.stringField("id"),
+        ModelCodec.stringField("googleIdentity")) {
+
+        @Override
+        public UserMapping decode(Object[] values) {
+            return new UserMapping((String) values[0], (String) values[1]);
+        }
+
+        @Override
+        public Object[] encode(UserMapping mapping) {
+            return new Object[] {mapping.id, mapping.googleIdentity};
+        }
+    };
+
+    public void setDBId(String id) {
+        setId(id);
+    }
+
+    public String getDBId() {
+        return getId();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getGoogleIdentity() {
+        return googleIdentity;
+    }
+
+    public void setGoogleIdentity(String googleIdentity) {
+        this.googleIdentity = googleIdentity;
+    }
+
+}
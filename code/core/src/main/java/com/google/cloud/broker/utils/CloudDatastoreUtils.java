@@ -0,0 +1,94 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.utils;
+
+import java.util.List;
+
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreOptions;
+import com.google.cloud.http.HttpTransportOptions;
+import com.typesafe.config.Config;
+import org.threeten.bp.Duration;
+
+import com.google.cloud.broker.settings.AppSettings;
+
+/**
+ * Holds the Datastore client shared by the Cloud Datastore extensions (database backend and remote cache).
+ * The client is thread-safe, so it's only created again when the settings are replaced with different
+ * `gcp-project` or `cloud-datastore.*` values.
+ *
+ * The Datastore library isn't a dependency of the core module: it's provided by the extensions that use this class.
+ */
+public class CloudDatastoreUtils {
+
+    private static volatile Client client;
+
+    private static class Client {
+        final Config settings;
+        final List<Object> options;
+        final Datastore service;
+
+        Client(Config settings, List<Object> options, Datastore service) {
+            this.settings = settings;
+            this.options = options;
+            this.service = service;
+        }
+    }
+
+    private static List<Object> getOptions(Config settings) {
+        return List.of(
+            settings.getString(AppSettings.GCP_PROJECT),
+            settings.getInt(AppSettings.DATASTORE_CONNECT_TIMEOUT),
+            settings.getInt(AppSettings.DATASTORE_READ_TIMEOUT),
+            settings.getInt(AppSettings.DATASTORE_RETRY_MAX_ATTEMPTS),
+            settings.getLong(AppSettings.DATASTORE_RETRY_TOTAL_TIMEOUT));
+    }
+
+    public static Datastore getService() {
+        Config settings = AppSettings.getInstance();
+        Client current = client;
+        if (current != null && current.settings == settings) {
+            return current.service;
+        }
+        synchronized (CloudDatastoreUtils.class) {
+            current = client;
+            if (current == null || current.settings != settings) {
+                List<Object> options = getOptions(settings);
+                Datastore service = (current != null && current.options.equals(options)) ?
+                    current.service : createService(settings);
+                current = new Client(settings, options, service);
+                client = current;
+            }
+            return current.service;
+        }
+    }
+
+    private static Datastore createService(Config settings) {
+        RetrySettings retrySettings = ServiceOptions.getDefaultRetrySettings().toBuilder()
+            .setMaxAttempts(settings.getInt(AppSettings.DATASTORE_RETRY_MAX_ATTEMPTS))
+            .setTotalTimeout(Duration.ofMillis(settings.getLong(AppSettings.DATASTORE_RETRY_TOTAL_TIMEOUT)))
+            .build();
+        HttpTransportOptions transportOptions = HttpTransportOptions.newBuilder()
+            .setConnectTimeout(settings.getInt(AppSettings.DATASTORE_CONNECT_TIMEOUT))
+            .setReadTimeout(settings.getInt(AppSettings.DATASTORE_READ_TIMEOUT))
+            .build();
+        return DatastoreOptions.newBuilder()
+            .setProjectId(settings.getString(AppSettings.GCP_PROJECT))
+            .setRetrySettings(retrySettings)
+            .setTransportOptions(transportOptions)
+            .build()
+            .getService();
+    }
+
+}
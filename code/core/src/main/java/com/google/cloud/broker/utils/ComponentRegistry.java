@@ -0,0 +1,136 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.broker.settings.AppSettings;
+
+/**
+ * Registry of the pluggable components (backends, providers, etc.), each selected by a setting
+ * that contains the class path of its implementation.
+ *
+ * A component is resolved once per settings instance, i.e. at startup and whenever the settings
+ * are replaced with {@link AppSettings#setInstance(Config)}. Components may read any setting in
+ * their constructor, so a new instance is constructed unless the new settings are equal to the
+ * previous ones. The replaced instance is closed if it implements {@link AutoCloseable}, e.g. to
+ * stop its background threads. It's only closed after a grace period, as requests that started
+ * before the settings were replaced may still be using it. In between, looking up a component
+ * doesn't read the settings at all.
+ */
+public class ComponentRegistry {
+
+    private static final Class<?> klass = MethodHandles.lookup().lookupClass();
+    private static final Logger logger = LoggerFactory.getLogger(klass);
+
+    private static final ConcurrentMap<String, Component<?>> components = new ConcurrentHashMap<>();
+
+    // Time (in seconds) during which a replaced instance is kept open for the requests that are still using it.
+    // Package-private so that tests can shorten it.
+    static volatile long closeDelay = 60;
+    private static ScheduledExecutorService closer;
+
+    private static synchronized ScheduledExecutorService getCloser() {
+        if (closer == null) {
+            closer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, klass.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return closer;
+    }
+
+    public static class Component<T> {
+
+        private final String settingName;
+        private final Class<T> type;
+        private volatile Resolution<T> resolution;
+
+        private Component(String settingName, Class<T> type) {
+            this.settingName = settingName;
+            this.type = type;
+        }
+
+        public T get() {
+            Resolution<T> current = resolution;
+            Config settings = AppSettings.getInstance();
+            if (current != null && current.settings == settings) {
+                return current.instance;
+            }
+            return resolve(settings);
+        }
+
+        // Synchronized so that concurrent callers never construct duplicate instances
+        private synchronized T resolve(Config settings) {
+            Resolution<T> current = resolution;
+            if (current != null && current.settings == settings) {
+                return current.instance;
+            }
+            T instance;
+            if (current != null && current.settings.equals(settings)) {
+                // Same settings (e.g. restored after a temporary override), so keep the instance
+                instance = current.instance;
+            }
+            else {
+                instance = type.cast(InstanceUtils.invokeConstructor(settings.getString(settingName)));
+                if (current != null && current.instance instanceof AutoCloseable) {
+                    T replaced = current.instance;
+                    getCloser().schedule(() -> close(replaced), closeDelay, TimeUnit.SECONDS);
+                }
+            }
+            resolution = new Resolution<>(settings, instance);
+            return instance;
+        }
+
+        private void close(T instance) {
+            try {
+                ((AutoCloseable) instance).close();
+            } catch (Exception e) {
+                logger.warn(klass.getSimpleName() + " - Failed to close replaced component: " + instance.getClass().getName(), e);
+            }
+        }
+    }
+
+    private static class Resolution<T> {
+        final Config settings;
+        final T instance;
+
+        Resolution(Config settings, T instance) {
+            this.settings = settings;
+            this.instance = instance;
+        }
+    }
+
+    /**
+     * Returns the component selected by the given setting. Registering the same setting
+     * twice returns the same component.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Component<T> register(String settingName, Class<T> type) {
+        Component<?> component = components.computeIfAbsent(settingName, name -> new Component<>(name, type));
+        if (component.type != type) {
+            throw new IllegalArgumentException("Setting `" + settingName + "` is already registered for " + component.type.getName());
+        }
+        return (Component<T>) component;
+    }
+
+}
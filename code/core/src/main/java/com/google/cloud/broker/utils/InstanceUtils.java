@@ -34,4 +34,22 @@ public class InstanceUtils {
         }
     }
 
+    public static Object invokeConstructor(String className, Class<?> parameterType, Object argument) {
+        try {
+            Class<?> c = Class.forName(className);
+            Constructor<?> constructor = c.getConstructor(parameterType);
+            return constructor.newInstance(argument);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause == null) {
+                throw new RuntimeException(e);
+            }
+            else {
+                throw new RuntimeException(cause);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -0,0 +1,83 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a task in the background at a fixed interval, on a daemon thread named after the
+ * class that owns the task. Failed runs are logged, and don't prevent the next runs.
+ */
+public class PeriodicTask {
+
+    private final Class<?> owner;
+    private final Logger logger;
+    private final String description;
+    private final Runnable task;
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param owner Class that owns the task, used to name the thread and to log failures
+     * @param description What the task does, e.g. "delete expired sessions"
+     * @param task The task
+     */
+    public PeriodicTask(Class<?> owner, String description, Runnable task) {
+        this.owner = owner;
+        this.logger = LoggerFactory.getLogger(owner);
+        this.description = description;
+        this.task = task;
+    }
+
+    /**
+     * Schedules the task to run after the given initial delay, then with the given delay
+     * between the end of a run and the start of the next one. Both are in seconds.
+     */
+    public synchronized void start(long initialDelay, long delay) {
+        if (executor != null) {
+            throw new IllegalStateException(owner.getSimpleName() + " - Task is already started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, owner.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::run, initialDelay, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Cancels the next runs, and interrupts the current one if any.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs the task once in the current thread, and logs the failure if it fails.
+     */
+    public void run() {
+        // Exceptions must not escape, otherwise the executor cancels all subsequent runs
+        try {
+            task.run();
+        } catch (Exception e) {
+            logger.error(owner.getSimpleName() + " - Failed to " + description, e);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import com.google.cloud.broker.encryption.backends.DummyEncryptionBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class AuthCookieTest {
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.ENCRYPTION_BACKEND, DummyEncryptionBackend.class.getName(),
+        AppSettings.AUTHENTICATION_COOKIE_LIFETIME, 300
+    ));
+
+    private static void assertRejected(String cookie, String expectedMessage) {
+        try {
+            AuthCookie.verify(cookie);
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.UNAUTHENTICATED.getCode(), e.getStatus().getCode());
+            assertEquals(expectedMessage, e.getStatus().getDescription());
+        }
+    }
+
+    @Test
+    public void testIssueAndVerify() {
+        String cookie = AuthCookie.issue("alice@EXAMPLE.COM");
+        assertEquals("alice@EXAMPLE.COM", AuthCookie.verify(cookie));
+
+        // The expiry time comes first, so that clients can read it
+        long expiresAt = Long.parseLong(cookie.split("\\.")[0]);
+        assertTrue(expiresAt > System.currentTimeMillis() + 290 * 1000);
+    }
+
+    @Test
+    public void testTampered() {
+        String[] parts = AuthCookie.issue("alice@EXAMPLE.COM").split("\\.");
+        String bob = Base64.getUrlEncoder().withoutPadding().encodeToString("bob@EXAMPLE.COM".getBytes(StandardCharsets.UTF_8));
+        assertRejected(parts[0] + "." + bob + "." + parts[2], "Invalid authentication cookie");
+        assertRejected((Long.parseLong(parts[0]) + 1000) + "." + parts[1] + "." + parts[2], "Invalid authentication cookie");
+        assertRejected(parts[0] + "." + parts[1], "Invalid authentication cookie");
+        assertRejected("xxx", "Invalid authentication cookie");
+    }
+
+    @Test
+    public void testExpired() {
+        String cookie;
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.AUTHENTICATION_COOKIE_LIFETIME, -1))) {
+            cookie = AuthCookie.issue("alice@EXAMPLE.COM");
+        }
+        assertRejected(cookie, "Expired authentication cookie");
+    }
+
+    @Test
+    public void testDisabled() {
+        String cookie = AuthCookie.issue("alice@EXAMPLE.COM");
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.AUTHENTICATION_COOKIE_LIFETIME, 0))) {
+            assertRejected(cookie, "Authentication cookies are disabled");
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.authentication;
+
+import io.grpc.Metadata;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AuthorizationHeaderServerInterceptorTest {
+
+    private static Metadata metadata(String key, String value) {
+        Metadata metadata = new Metadata();
+        metadata.put(Metadata.Key.of(key, Metadata.ASCII_STRING_MARSHALLER), value);
+        return metadata;
+    }
+
+    @Test
+    public void testIsForwarded() {
+        assertFalse(AuthorizationHeaderServerInterceptor.isForwarded(new Metadata()));
+        assertFalse(AuthorizationHeaderServerInterceptor.isForwarded(metadata("broker-authorization", "Negotiate xxx")));
+        // Headers added by the Google Cloud load balancers, among others
+        assertTrue(AuthorizationHeaderServerInterceptor.isForwarded(metadata("x-forwarded-for", "10.0.0.1")));
+        assertTrue(AuthorizationHeaderServerInterceptor.isForwarded(metadata("via", "1.1 google")));
+        assertTrue(AuthorizationHeaderServerInterceptor.isForwarded(metadata("forwarded", "for=10.0.0.1")));
+    }
+
+}
@@ -15,6 +15,7 @@ import javax.security.auth.Subject;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
@@ -25,9 +26,11 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import io.grpc.Context;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 
+import com.google.cloud.broker.authentication.AuthorizationHeaderServerInterceptor;
 import com.google.cloud.broker.settings.SettingsOverride;
 import com.google.cloud.broker.settings.AppSettings;
 
@@ -39,6 +42,7 @@ public class SpnegoAuthenticatorTest {
     private static final String BROKER_HOST = "testhost";
     private static final String BROKER = "broker/" + BROKER_HOST + "@" + REALM;
     private static final String ALICE = "alice@" + REALM;
+    private static final String OTHER_SERVICE = "other/" + BROKER_HOST + "@" + REALM;
 
     @BeforeClass
     public static void setUpClass() {
@@ -46,6 +50,7 @@ public class SpnegoAuthenticatorTest {
         fakeKDC.start();
         fakeKDC.createPrincipal(ALICE);
         fakeKDC.createPrincipal(BROKER);
+        fakeKDC.createPrincipal(OTHER_SERVICE);
     }
 
     @AfterClass
@@ -198,4 +203,129 @@ public class SpnegoAuthenticatorTest {
             assertEquals("alice@EXAMPLE.COM", authenticateUser);
         }
     }
+
+    /**
+     * Check that the same authenticator accepts multiple tokens, reusing its acceptor credential.
+     */
+    @Test
+    public void testMultipleTokens() throws Exception {
+        List<Map<String, String>> config = List.of(Map.of(
+            "keytab", fakeKDC.getKeytabPath(BROKER).toString(),
+            "principal", BROKER
+        ));
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.KEYTABS, config))) {
+            SpnegoAuthenticator auth = new SpnegoAuthenticator();
+            for (int i = 0; i < 3; i++) {
+                String token = generateSpnegoToken("alice");
+                assertEquals("alice@EXAMPLE.COM", auth.authenticateUser("Negotiate " + token));
+            }
+        }
+    }
+
+    /**
+     * Check that the keytab of the ticket's target principal is used, regardless of the keytabs' order.
+     */
+    @Test
+    public void testMultipleKeytabs() throws Exception {
+        Map<String, String> other = Map.of(
+            "keytab", fakeKDC.getKeytabPath(OTHER_SERVICE).toString(),
+            "principal", OTHER_SERVICE
+        );
+        Map<String, String> broker = Map.of(
+            "keytab", fakeKDC.getKeytabPath(BROKER).toString(),
+            "principal", BROKER
+        );
+        for (List<Map<String, String>> config : List.of(List.of(other, broker), List.of(broker, other))) {
+            try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.KEYTABS, config))) {
+                String token = generateSpnegoToken("alice");
+                SpnegoAuthenticator auth = new SpnegoAuthenticator();
+                assertEquals("alice@EXAMPLE.COM", auth.authenticateUser("Negotiate " + token));
+            }
+        }
+    }
+
+    @Test
+    public void testTargetPrincipal() {
+        byte[] token = Base64.getDecoder().decode(generateSpnegoToken("alice"));
+        assertEquals(BROKER, SpnegoTokenParser.getTargetPrincipal(token));
+        assertNull(SpnegoTokenParser.getTargetPrincipal(new byte[0]));
+        assertNull(SpnegoTokenParser.getTargetPrincipal(new byte[]{0x60, 0x05, 0x06, 0x01}));
+        assertNull(SpnegoTokenParser.getTargetPrincipal(Arrays.copyOf(token, token.length / 2)));
+    }
+
+    /**
+     * Check that a cached authentication is only reused over the same connection.
+     */
+    @Test
+    public void testCachedAuthentication() throws Exception {
+        List<Map<String, String>> config = List.of(Map.of(
+            "keytab", fakeKDC.getKeytabPath(BROKER).toString(),
+            "principal", BROKER
+        ));
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.KEYTABS, config,
+            AppSettings.AUTHENTICATION_CACHE_TTL, 30,
+            AppSettings.AUTHENTICATION_CACHE_MAXIMUM_SIZE, 10,
+            AppSettings.AUTHENTICATION_CACHE_DIRECT_CONNECTIONS, true))) {
+            String header = "Negotiate " + generateSpnegoToken("alice");
+            SpnegoAuthenticator auth = new SpnegoAuthenticator();
+            assertEquals("alice@EXAMPLE.COM", auth.authenticateCached(header, "/10.0.0.1:4000"));
+            // Same connection, so the cached result is used
+            assertEquals("alice@EXAMPLE.COM", auth.authenticateCached(header, "/10.0.0.1:4000"));
+            // Other connection, so the token is verified again and detected as a replay
+            try {
+                auth.authenticateCached(header, "/10.0.0.2:4000");
+                fail();
+            } catch (StatusRuntimeException e) {
+                assertEquals(Status.UNAUTHENTICATED.getCode(), e.getStatus().getCode());
+            }
+        }
+    }
+
+    /**
+     * Check that the cache isn't used for requests forwarded by a proxy, as their connection isn't the client's.
+     */
+    @Test
+    public void testCachedAuthenticationForwarded() throws Exception {
+        List<Map<String, String>> config = List.of(Map.of(
+            "keytab", fakeKDC.getKeytabPath(BROKER).toString(),
+            "principal", BROKER
+        ));
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.KEYTABS, config,
+            AppSettings.AUTHENTICATION_CACHE_TTL, 30,
+            AppSettings.AUTHENTICATION_CACHE_MAXIMUM_SIZE, 10,
+            AppSettings.AUTHENTICATION_CACHE_DIRECT_CONNECTIONS, true))) {
+            String header = "Negotiate " + generateSpnegoToken("alice");
+            SpnegoAuthenticator auth = new SpnegoAuthenticator();
+            // The interceptor leaves the remote address out for forwarded requests
+            Context context = Context.current()
+                .withValue(AuthorizationHeaderServerInterceptor.BROKER_AUTHORIZATION_CONTEXT_KEY, header);
+            assertEquals("alice@EXAMPLE.COM", context.call(auth::authenticateUser));
+            // The token is verified again and detected as a replay
+            try {
+                context.call(auth::authenticateUser);
+                fail();
+            } catch (StatusRuntimeException e) {
+                assertEquals(Status.UNAUTHENTICATED.getCode(), e.getStatus().getCode());
+            }
+        }
+    }
+
+    /**
+     * Check that the cache can't be enabled unless clients are declared to connect directly.
+     */
+    @Test
+    public void testCacheRequiresDirectConnections() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.AUTHENTICATION_CACHE_TTL, 30,
+            AppSettings.AUTHENTICATION_CACHE_DIRECT_CONNECTIONS, false))) {
+            new SpnegoAuthenticator();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("The `authentication.cache.ttl` setting requires `authentication.cache.direct-connections` " +
+                "to be enabled, which must only be done if clients connect to the broker directly, not through a load " +
+                "balancer or proxy", e.getMessage());
+        }
+    }
 }
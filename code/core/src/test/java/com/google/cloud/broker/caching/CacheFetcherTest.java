@@ -0,0 +1,501 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.caching;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.google.cloud.broker.caching.local.LocalCache;
+import com.google.cloud.broker.caching.remote.AbstractRemoteCache;
+import com.google.cloud.broker.caching.remote.DummyCache;
+import com.google.cloud.broker.checks.CheckResult;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+import com.google.cloud.broker.utils.TimeUtils;
+
+public class CacheFetcherTest {
+
+    /**
+     * Remote cache that keeps values in memory, ignoring expiry times.
+     */
+    public static class InMemoryCache extends AbstractRemoteCache {
+
+        static final Map<String, byte[]> values = new ConcurrentHashMap<>();
+
+        protected Map<String, byte[]> getValues() {
+            return values;
+        }
+
+        @Override
+        public byte[] get(String key) {
+            return getValues().get(key);
+        }
+
+        @Override
+        public void set(String key, byte[] value) {
+            getValues().put(key, value);
+        }
+
+        @Override
+        public void set(String key, byte[] value, int expireIn) {
+            getValues().put(key, value);
+        }
+
+        @Override
+        public void delete(String key) {
+            getValues().remove(key);
+        }
+
+        // Synchronous, so that the tests can check the cache's content right away
+        @Override
+        public CompletableFuture<Void> setAsync(String key, byte[] value, int expireIn) {
+            set(key, value, expireIn);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteAsync(String key) {
+            delete(key);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public boolean supportsSetIfAbsent() {
+            return true;
+        }
+
+        @Override
+        public boolean setIfAbsent(String key, byte[] value, int expireIn) {
+            return getValues().putIfAbsent(key, value) == null;
+        }
+
+        @Override
+        public Lock acquireLock(String lockName) {
+            return new DummyCache.NoOpLock();
+        }
+
+        @Override
+        public CheckResult checkConnection() {
+            return new CheckResult(true);
+        }
+    }
+
+    /**
+     * Separate in-memory cache, to be used as a second tier.
+     */
+    public static class SecondTierCache extends InMemoryCache {
+
+        static final Map<String, byte[]> values = new ConcurrentHashMap<>();
+
+        @Override
+        protected Map<String, byte[]> getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * In-memory cache that doesn't support `setIfAbsent()`, like custom backends written before it was added.
+     */
+    public static class NoSetIfAbsentCache extends InMemoryCache {
+
+        @Override
+        public boolean supportsSetIfAbsent() {
+            return false;
+        }
+
+        @Override
+        public boolean setIfAbsent(String key, byte[] value, int expireIn) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * In-memory cache whose deletes can be made to fail.
+     */
+    public static class FailingDeleteCache extends InMemoryCache {
+
+        static volatile boolean failing;
+
+        @Override
+        public void delete(String key) {
+            if (failing) {
+                throw new RuntimeException("Delete failed");
+            }
+            super.delete(key);
+        }
+    }
+
+    static class CountingFetcher extends CacheFetcher {
+
+        int numComputations = 0;
+        String value = "computed";
+
+        CountingFetcher() {
+            stampedeProtection = StampedeProtection.EARLY_RECOMPUTE;
+        }
+
+        @Override
+        protected String getCacheKey() {
+            return "test";
+        }
+
+        @Override
+        protected int getLocalCacheTime() {
+            return 60;
+        }
+
+        @Override
+        protected int getRemoteCacheTime() {
+            return 60;
+        }
+
+        @Override
+        protected Object computeResult() {
+            numComputations++;
+            return value;
+        }
+
+        @Override
+        protected Object fromJson(String json) throws IOException {
+            return new ObjectMapper().readValue(json, String.class);
+        }
+    }
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.REMOTE_CACHE, "com.google.cloud.broker.caching.CacheFetcherTest$InMemoryCache",
+        AppSettings.ENCRYPTION_BACKEND, "com.google.cloud.broker.encryption.backends.DummyEncryptionBackend",
+        AppSettings.REMOTE_CACHE_COMPRESSION_ENABLED, true,
+        AppSettings.REMOTE_CACHE_COMPRESSION_MIN_SIZE, 64,
+        AppSettings.REMOTE_CACHE_KEY_HASHING_ENABLED, false,
+        AppSettings.REMOTE_CACHE_TIERS, List.of()
+    ));
+
+    private static final Map<String, Object> TIERS = Map.of(
+        AppSettings.REMOTE_CACHE_TIERS, List.of(
+            Map.of("backend", "com.google.cloud.broker.caching.CacheFetcherTest$InMemoryCache"),
+            Map.of("backend", "com.google.cloud.broker.caching.CacheFetcherTest$SecondTierCache", "encrypt", false, "max-ttl", 30)
+        )
+    );
+
+    @After
+    public void teardown() {
+        CacheStats.resetAll();
+        InMemoryCache.values.clear();
+        SecondTierCache.values.clear();
+        LocalCache.delete("test");
+    }
+
+    private static byte[] getEncryptedValue(byte[] entry) {
+        return Arrays.copyOfRange(entry, 2 * Long.BYTES, entry.length);
+    }
+
+    private static void setEntry(String value, long expiry, long delta) {
+        setEntry(InMemoryCache.values, value, expiry, delta);
+    }
+
+    private static void setEntry(Map<String, byte[]> values, String value, long expiry, long delta) {
+        byte[] json = ("\"" + value + "\"").getBytes();
+        ByteBuffer entry = ByteBuffer.allocate(2 * Long.BYTES + json.length);
+        entry.putLong(expiry).putLong(delta).put(json);
+        values.put("test_xfetch", entry.array());
+    }
+
+    @Test
+    public void testEarlyRecomputeMiss() {
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("computed", fetcher.fetch());
+        assertEquals(1, fetcher.numComputations);
+        // The value is cached and the lease is released
+        assertTrue(InMemoryCache.values.containsKey("test_xfetch"));
+        assertFalse(InMemoryCache.values.containsKey("test_lease"));
+        assertFalse(InMemoryCache.values.containsKey("test_lock"));
+
+        // Subsequent remote hits don't recompute the value
+        LocalCache.delete("test");
+        assertEquals("computed", fetcher.fetch());
+        assertEquals(1, fetcher.numComputations);
+    }
+
+    @Test
+    public void testEarlyRecomputeFresh() {
+        // Uncompressed entries are read even though compression is enabled
+        setEntry("cached", TimeUtils.currentTimeMillis() + 3600 * 1000, 10);
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("cached", fetcher.fetch());
+        assertEquals(0, fetcher.numComputations);
+    }
+
+    @Test
+    public void testEarlyRecomputeExpiring() {
+        // The entry is due for recomputation
+        setEntry("cached", TimeUtils.currentTimeMillis() - 1, 10);
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("computed", fetcher.fetch());
+        assertEquals(1, fetcher.numComputations);
+        assertFalse(InMemoryCache.values.containsKey("test_lease"));
+    }
+
+    @Test
+    public void testEarlyRecomputeLeaseTaken() {
+        // The entry is due for recomputation, but someone else is already recomputing it
+        setEntry("cached", TimeUtils.currentTimeMillis() - 1, 10);
+        InMemoryCache.values.put("test_lease", new byte[]{1});
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("cached", fetcher.fetch());
+        assertEquals(0, fetcher.numComputations);
+    }
+
+    @Test
+    public void testEarlyRecomputeLeaseAbandoned() {
+        // Someone took the lease on a cold miss, then gave up without releasing it
+        InMemoryCache.values.put("test_lease", new byte[]{1});
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("computed", fetcher.fetch());
+        assertEquals(1, fetcher.numComputations);
+        // The value isn't cached, as the lease is still taken
+        assertFalse(InMemoryCache.values.containsKey("test_xfetch"));
+
+        // Once the lease is released, the waiting caller takes it over and caches the value
+        InMemoryCache.values.remove("test_lease");
+        LocalCache.delete("test");
+        assertEquals("computed", fetcher.fetch());
+        assertTrue(InMemoryCache.values.containsKey("test_xfetch"));
+    }
+
+    @Test
+    public void testEarlyRecomputeFailureKeepsCause() {
+        CountingFetcher fetcher = new CountingFetcher() {
+            @Override
+            protected Object computeResult() {
+                // The remote cache goes down while the value is being computed
+                FailingDeleteCache.failing = true;
+                throw new IllegalStateException("Computation failed");
+            }
+        };
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.REMOTE_CACHE, "com.google.cloud.broker.caching.CacheFetcherTest$FailingDeleteCache"))) {
+            fetcher.fetch();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Computation failed", e.getMessage());
+            assertEquals("Delete failed", e.getSuppressed()[0].getMessage());
+        } finally {
+            FailingDeleteCache.failing = false;
+        }
+    }
+
+    @Test
+    public void testCompression() {
+        CountingFetcher fetcher = new CountingFetcher();
+        fetcher.value = "//storage.googleapis.com/projects/_/buckets/example https://www.googleapis.com/auth/devstorage.read_write";
+        assertEquals(fetcher.value, fetcher.fetch());
+
+        // The entry is stored compressed, after the header
+        byte[] payload = getEncryptedValue(InMemoryCache.values.get("test_xfetch"));
+        assertTrue(CacheCompression.isCompressed(payload));
+        assertTrue(payload.length < fetcher.value.length());
+
+        // The compressed entry is read back
+        LocalCache.delete("test");
+        assertEquals(fetcher.value, fetcher.fetch());
+        assertEquals(1, fetcher.numComputations);
+    }
+
+    @Test
+    public void testCompressionMinSize() {
+        // Values below the minimum size are stored uncompressed
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("computed", fetcher.fetch());
+        byte[] payload = getEncryptedValue(InMemoryCache.values.get("test_xfetch"));
+        assertArrayEquals("\"computed\"".getBytes(), payload);
+    }
+
+    @Test
+    public void testDecompressUncompressed() {
+        byte[] payload = "{\"value\":\"abcd\"}".getBytes();
+        assertSame(payload, CacheCompression.decompress(payload));
+        assertArrayEquals(payload, CacheCompression.decompress(CacheCompression.compress(payload)));
+    }
+
+    @Test
+    public void testKeyHashing() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.REMOTE_CACHE_KEY_HASHING_ENABLED, true))) {
+            CountingFetcher fetcher = new CountingFetcher();
+            assertEquals("computed", fetcher.fetch());
+
+            // The remote cache only sees the hashed key
+            String hashedKey = CacheKeyHasher.hash("test");
+            assertNotEquals(hashedKey, CacheKeyHasher.hash("test2"));
+            assertEquals(Set.of(hashedKey + "_xfetch"), InMemoryCache.values.keySet());
+
+            // The value is read back from the hashed key
+            LocalCache.delete("test");
+            assertEquals("computed", fetcher.fetch());
+            assertEquals(1, fetcher.numComputations);
+        }
+    }
+
+    @Test
+    public void testInvalidate() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.REMOTE_CACHE_KEY_HASHING_ENABLED, true))) {
+            CountingFetcher fetcher = new CountingFetcher();
+            assertEquals("computed", fetcher.fetch());
+            String hashedKey = CacheKeyHasher.hash("test");
+            InMemoryCache.values.put(hashedKey, "\"computed\"".getBytes());
+
+            // Both formats are deleted from the remote cache, using the hashed key
+            fetcher.invalidate();
+            assertNull(LocalCache.get("test"));
+            assertTrue(InMemoryCache.values.isEmpty());
+            assertEquals("computed", fetcher.fetch());
+            assertEquals(2, fetcher.numComputations);
+        }
+    }
+
+    @Test
+    public void testTiersPromotion() {
+        try (SettingsOverride override = SettingsOverride.apply(TIERS)) {
+            long expiry = TimeUtils.currentTimeMillis() + 3600 * 1000;
+            setEntry(SecondTierCache.values, "cached", expiry, 10);
+
+            // Found in the second tier, and copied to the first tier
+            CountingFetcher fetcher = new CountingFetcher();
+            assertEquals("cached", fetcher.fetch());
+            assertEquals(0, fetcher.numComputations);
+            assertArrayEquals(SecondTierCache.values.get("test_xfetch"), InMemoryCache.values.get("test_xfetch"));
+
+            // Same with the LOCK strategy, which uses a different format in the first tier
+            InMemoryCache.values.clear();
+            LocalCache.delete("test");
+            fetcher.stampedeProtection = CacheFetcher.StampedeProtection.LOCK;
+            assertEquals("cached", fetcher.fetch());
+            assertEquals(0, fetcher.numComputations);
+            assertArrayEquals("\"cached\"".getBytes(), InMemoryCache.values.get("test"));
+        }
+    }
+
+    @Test
+    public void testTiersExpiredEntry() {
+        try (SettingsOverride override = SettingsOverride.apply(TIERS)) {
+            // Entries past their expiry time aren't promoted
+            setEntry(SecondTierCache.values, "cached", TimeUtils.currentTimeMillis() - 1000, 10);
+            CountingFetcher fetcher = new CountingFetcher();
+            fetcher.stampedeProtection = CacheFetcher.StampedeProtection.LOCK;
+            assertEquals("cached", fetcher.fetch());
+            assertFalse(InMemoryCache.values.containsKey("test"));
+        }
+    }
+
+    @Test
+    public void testTiersWriteAll() {
+        try (SettingsOverride override = SettingsOverride.apply(TIERS)) {
+            CountingFetcher fetcher = new CountingFetcher();
+            fetcher.stampedeProtection = CacheFetcher.StampedeProtection.LOCK;
+            assertEquals("computed", fetcher.fetch());
+            assertEquals(1, fetcher.numComputations);
+            assertArrayEquals("\"computed\"".getBytes(), InMemoryCache.values.get("test"));
+            assertArrayEquals("\"computed\"".getBytes(), getEncryptedValue(SecondTierCache.values.get("test_xfetch")));
+
+            InMemoryCache.values.clear();
+            SecondTierCache.values.clear();
+            LocalCache.delete("test");
+            fetcher.stampedeProtection = CacheFetcher.StampedeProtection.EARLY_RECOMPUTE;
+            assertEquals("computed", fetcher.fetch());
+            assertEquals(2, fetcher.numComputations);
+            assertTrue(InMemoryCache.values.containsKey("test_xfetch"));
+            assertTrue(SecondTierCache.values.containsKey("test_xfetch"));
+        }
+    }
+
+    @Test
+    public void testTiersResolvedOnce() {
+        try (SettingsOverride override = SettingsOverride.apply(TIERS)) {
+            List<CacheTier> tiers = CacheTier.getTiers();
+            assertSame(tiers, CacheTier.getTiers());
+            // Same tiers with new settings: the backends are kept
+            try (SettingsOverride sameTiers = SettingsOverride.apply(TIERS)) {
+                assertSame(tiers.get(1).getCache(), CacheTier.getTiers().get(1).getCache());
+            }
+        }
+    }
+
+    @Test
+    public void testTiersDuplicateBackend() {
+        Map<String, Object> duplicateTiers = Map.of(
+            AppSettings.REMOTE_CACHE_TIERS, List.of(
+                Map.of("backend", "com.google.cloud.broker.caching.CacheFetcherTest$InMemoryCache"),
+                Map.of("backend", "com.google.cloud.broker.caching.CacheFetcherTest$InMemoryCache", "max-ttl", 30)
+            )
+        );
+        try (SettingsOverride override = SettingsOverride.apply(duplicateTiers)) {
+            CacheTier.getTiers();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Remote cache backend `com.google.cloud.broker.caching.CacheFetcherTest$InMemoryCache` is used by more than one tier", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEarlyRecomputeFallsBackToLock() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.REMOTE_CACHE, "com.google.cloud.broker.caching.CacheFetcherTest$NoSetIfAbsentCache"))) {
+            CountingFetcher fetcher = new CountingFetcher();
+            assertEquals("computed", fetcher.fetch());
+            assertEquals(1, fetcher.numComputations);
+            // The value is cached with the LOCK strategy's format
+            assertArrayEquals("\"computed\"".getBytes(), InMemoryCache.values.get("test"));
+            assertFalse(InMemoryCache.values.containsKey("test_xfetch"));
+
+            LocalCache.delete("test");
+            assertTrue(fetcher.preload());
+            assertEquals("computed", fetcher.fetch());
+            assertEquals(1, fetcher.numComputations);
+        }
+    }
+
+    @Test
+    public void testStats() {
+        CountingFetcher fetcher = new CountingFetcher();
+        fetcher.stampedeProtection = CacheFetcher.StampedeProtection.LOCK;
+        fetcher.fetch();  // Miss
+        fetcher.fetch();  // Local hit
+        LocalCache.delete("test");
+        fetcher.fetch();  // Remote hit
+
+        CacheStats stats = CacheStats.get("CountingFetcher");
+        assertEquals(1, stats.getCount(CacheStats.MISS));
+        assertEquals(1, stats.getCount(CacheStats.LOCAL_HIT));
+        assertEquals(1, stats.getCount(CacheStats.REMOTE_HIT));
+        assertEquals(1, stats.getCount(CacheStats.LOAD_SUCCESS));
+        assertEquals(1, stats.getHistograms().get(CacheStats.LOAD_TIME).getCount());
+        assertEquals(1, stats.getHistograms().get(CacheStats.LOCK_WAIT).getCount());
+
+        // The tier was read before and after taking the lock, then once more
+        CacheStats tierStats = CacheStats.get("remote-cache-tier-0-InMemoryCache");
+        assertEquals(2, tierStats.getCount(CacheStats.MISS));
+        assertEquals(1, tierStats.getCount(CacheStats.HIT));
+    }
+
+}
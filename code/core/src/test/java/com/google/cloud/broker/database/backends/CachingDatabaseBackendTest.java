@@ -0,0 +1,214 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.database.backends;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import com.google.cloud.broker.database.DatabaseObjectNotFound;
+import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.oauth.RefreshToken;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class CachingDatabaseBackendTest {
+
+    private static CachingDatabaseBackend backend;
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.DATABASE_CACHING_BACKEND, "com.google.cloud.broker.database.backends.DummyDatabaseBackend",
+        AppSettings.DATABASE_CACHING_MAXIMUM_SIZE, 100,
+        AppSettings.DATABASE_CACHING_EXPIRE_AFTER, 3600,
+        AppSettings.DATABASE_CACHING_REMOTE_INVALIDATION, false
+    ));
+
+    @BeforeClass
+    public static void setupClass() {
+        backend = new CachingDatabaseBackend();
+    }
+
+    @After
+    public void teardown() {
+        DummyDatabaseBackend.getCache().clear();
+    }
+
+    @Test
+    public void testGetReadsThrough() throws DatabaseObjectNotFound {
+        RefreshToken token = new RefreshToken("alice@example.com", "abcd".getBytes(), 1000L);
+        backend.getBackend().save(token);
+
+        RefreshToken cached = (RefreshToken) backend.get(RefreshToken.class, "alice@example.com");
+        assertArrayEquals("abcd".getBytes(), cached.getValue());
+
+        // Remove the token behind the cache's back. The cached copy is still served.
+        DummyDatabaseBackend.getCache().clear();
+        cached = (RefreshToken) backend.get(RefreshToken.class, "alice@example.com");
+        assertArrayEquals("abcd".getBytes(), cached.getValue());
+        assertEquals(1000L, cached.getCreationTime().longValue());
+    }
+
+    @Test
+    public void testGetReturnsNewInstances() throws DatabaseObjectNotFound {
+        backend.save(new RefreshToken("alice@example.com", "abcd".getBytes(), 1000L));
+        RefreshToken first = (RefreshToken) backend.get(RefreshToken.class, "alice@example.com");
+        first.setCreationTime(2000L);
+        RefreshToken second = (RefreshToken) backend.get(RefreshToken.class, "alice@example.com");
+        assertNotSame(first, second);
+        assertEquals(1000L, second.getCreationTime().longValue());
+    }
+
+    @Test
+    public void testSaveWritesThrough() throws DatabaseObjectNotFound {
+        backend.save(new RefreshToken("alice@example.com", "abcd".getBytes(), 1000L));
+        backend.get(RefreshToken.class, "alice@example.com");
+        backend.save(new RefreshToken("alice@example.com", "efgh".getBytes(), 2000L));
+
+        RefreshToken stored = (RefreshToken) backend.getBackend().get(RefreshToken.class, "alice@example.com");
+        assertArrayEquals("efgh".getBytes(), stored.getValue());
+        RefreshToken cached = (RefreshToken) backend.get(RefreshToken.class, "alice@example.com");
+        assertArrayEquals("efgh".getBytes(), cached.getValue());
+    }
+
+    @Test
+    public void testDeleteInvalidates() throws DatabaseObjectNotFound {
+        RefreshToken token = new RefreshToken("alice@example.com", "abcd".getBytes(), 1000L);
+        backend.save(token);
+        backend.get(RefreshToken.class, "alice@example.com");
+        backend.delete(token);
+        try {
+            backend.get(RefreshToken.class, "alice@example.com");
+            fail();
+        } catch (DatabaseObjectNotFound e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Database backend whose reads and saves can be paused, to interleave them with other writes.
+     */
+    public static class PausingDatabaseBackend extends DummyDatabaseBackend {
+        static volatile CountDownLatch reading;
+        static volatile CountDownLatch saving;
+        static volatile CountDownLatch resume;
+
+        private static void pause(CountDownLatch latch) {
+            if (latch != null) {
+                latch.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        @Override
+        public Model get(Class modelClass, String objectId) throws DatabaseObjectNotFound {
+            Model model = super.get(modelClass, objectId);
+            pause(reading);
+            return model;
+        }
+
+        @Override
+        public void save(Model model) {
+            super.save(model);
+            pause(saving);
+        }
+    }
+
+    private static CachingDatabaseBackend newPausingBackend() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.DATABASE_CACHING_BACKEND, PausingDatabaseBackend.class.getName()))) {
+            return new CachingDatabaseBackend();
+        }
+    }
+
+    @Test
+    public void testStaleFillIsDropped() throws Exception {
+        CachingDatabaseBackend pausing = newPausingBackend();
+        RefreshToken token = new RefreshToken("alice@example.com", "abcd".getBytes(), 1000L);
+        pausing.getBackend().save(token);
+
+        // Delete the token while another thread is reading it through the cache
+        PausingDatabaseBackend.reading = new CountDownLatch(1);
+        PausingDatabaseBackend.resume = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Model> read = executor.submit(() -> pausing.get(RefreshToken.class, "alice@example.com"));
+            PausingDatabaseBackend.reading.await();
+            PausingDatabaseBackend.reading = null;
+            pausing.delete(token);
+            PausingDatabaseBackend.resume.countDown();
+            assertNotNull(read.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The stale copy wasn't cached
+        try {
+            pausing.get(RefreshToken.class, "alice@example.com");
+            fail();
+        } catch (DatabaseObjectNotFound e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testConcurrentSaveAndDelete() throws Exception {
+        CachingDatabaseBackend pausing = newPausingBackend();
+        RefreshToken token = new RefreshToken("alice@example.com", "abcd".getBytes(), 1000L);
+
+        // Delete the token after it was written, but before the save returns
+        PausingDatabaseBackend.saving = new CountDownLatch(1);
+        PausingDatabaseBackend.resume = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> save = executor.submit(() -> pausing.save(token));
+            PausingDatabaseBackend.saving.await();
+            PausingDatabaseBackend.saving = null;
+            pausing.delete(token);
+            PausingDatabaseBackend.resume.countDown();
+            save.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The deleted token wasn't cached by the save
+        try {
+            pausing.get(RefreshToken.class, "alice@example.com");
+            fail();
+        } catch (DatabaseObjectNotFound e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRemoteInvalidationRequiresMessaging() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.DATABASE_CACHING_REMOTE_INVALIDATION, true,
+            AppSettings.REMOTE_CACHE, "com.google.cloud.broker.caching.remote.DummyCache"))) {
+            new CachingDatabaseBackend();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("The `database.caching.remote-invalidation` setting requires a remote cache backend that " +
+                "supports messaging, but `com.google.cloud.broker.caching.remote.DummyCache` doesn't", e.getMessage());
+        }
+    }
+
+}
@@ -12,6 +12,7 @@
 package com.google.cloud.broker.oauth;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -20,7 +21,14 @@ import com.google.cloud.broker.database.models.Model;
 
 public class RefreshTokenTest {
 
-    // TODO: testToMap
+    @Test
+    public void testToMap() {
+        RefreshToken token = new RefreshToken("alice@example.com", "xyz".getBytes(), 2222222222222L);
+        Map<String, Object> values = token.toMap();
+        assertEquals("alice@example.com", values.get("id"));
+        assertEquals(2222222222222L, values.get("creationTime"));
+        assertArrayEquals("xyz".getBytes(), (byte[]) values.get("value"));
+    }
 
     @Test
     public void testFromMap() {
@@ -69,7 +69,8 @@ public class KerberosUserMapperTest {
 
     @ClassRule
     public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
-        AppSettings.USER_MAPPING_RULES, rules
+        AppSettings.USER_MAPPING_RULES, rules,
+        AppSettings.USER_MAPPING_CACHE_MAXIMUM_SIZE, 10
     ));
 
     @Test
@@ -91,6 +92,28 @@ public class KerberosUserMapperTest {
         assertEquals("marie-lowercase@altostrat.com.au", mapper.map("MaRiE-lowercase"));
     }
 
+    @Test
+    public void testMappingCache() {
+        KerberosUserMapper mapper = new KerberosUserMapper();
+        assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+        assertEquals("alice@altostrat.com", mapper.mappings.getIfPresent("alice@EXAMPLE.COM"));
+        assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+
+        // Failed mappings aren't cached
+        try {
+            mapper.map("alice@BLAH.NET");
+            fail();
+        } catch (IllegalArgumentException e) {}
+        assertNull(mapper.mappings.getIfPresent("alice@BLAH.NET"));
+
+        // The cache can be disabled
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.USER_MAPPING_CACHE_MAXIMUM_SIZE, 0))) {
+            mapper = new KerberosUserMapper();
+            assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+            assertNull(mapper.mappings.getIfPresent("alice@EXAMPLE.COM"));
+        }
+    }
+
     @Test
     public void testUnmappableKerberosNames() {
         KerberosUserMapper mapper = new KerberosUserMapper();
@@ -108,6 +131,89 @@ public class KerberosUserMapperTest {
         } catch (IllegalArgumentException e) {}
     }
 
+    @Test
+    public void testNativeRules() {
+        Object rules = ConfigFactory.parseString(
+        "rules=[" +
+                "{" +
+                    "lookup: {\"bob@EXAMPLE.COM\": \"robert@altostrat.com\", \"carol\": \"caroline@altostrat.com\"}" +
+                "}," +
+                "{" +
+                    "match: \"([a-z]+)-svc/[a-z0-9.-]+@EXAMPLE.COM\"," +
+                    "replace: \"$1@myproject.iam.gserviceaccount.com\"" +
+                "}," +
+                "{" +
+                    "realm: \"EXAMPLE.COM\"," +
+                    "domain: \"altostrat.com\"" +
+                "}," +
+                // Expression rules can still be mixed in
+                "{" +
+                    "if: \"realm == null\"," +
+                    "then: \"primary + '@altostrat.net'\"" +
+                "}," +
+            "]"
+        ).getValue("rules");  // Not unwrapped, as the lookup table's keys aren't valid paths
+
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.USER_MAPPING_RULES, rules
+        ))) {
+            KerberosUserMapper mapper = new KerberosUserMapper();
+            assertEquals("robert@altostrat.com", mapper.map("bob@EXAMPLE.COM"));
+            assertEquals("caroline@altostrat.com", mapper.map("carol"));
+            assertEquals("hive@myproject.iam.gserviceaccount.com", mapper.map("hive-svc/example.com@EXAMPLE.COM"));
+            assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+            assertEquals("hive@altostrat.com", mapper.map("hive/example.com@EXAMPLE.COM"));
+            assertEquals("dave@altostrat.net", mapper.map("dave"));
+            try {
+                mapper.map("alice@FOO.ORG");
+                fail();
+            } catch (IllegalArgumentException e) {}
+        }
+    }
+
+    @Test
+    public void testRegexRuleUsesFullMatch() {
+        // With an alternation, searching the name again would first find the shorter "a", and keep the "b"
+        Object rules = ConfigFactory.parseString(
+        "rules=[" +
+                "{" +
+                    "match: \"a|ab\"," +
+                    "replace: \"alice@altostrat.com\"" +
+                "}," +
+            "]"
+        ).getValue("rules");
+
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(
+            AppSettings.USER_MAPPING_RULES, rules
+        ))) {
+            KerberosUserMapper mapper = new KerberosUserMapper();
+            assertEquals("alice@altostrat.com", mapper.map("ab"));
+        }
+    }
+
+    @Test
+    public void testInvalidNativeRules() {
+        Map<String, String> invalidRules = Map.of(
+            "rules=[{realm: \"EXAMPLE.COM\"}]", "No configuration setting found for key 'domain'",
+            "rules=[{match: \"(abc\", replace: \"def\"}]", "Unclosed group",
+            "rules=[{lookup: {\"bob@EXAMPLE.COM\": {a: 1}}}]", "Lookup value for `bob@EXAMPLE.COM` must be a string",
+            "rules=[{foo: \"bar\"}]", "Unknown rule type"
+        );
+        for (Map.Entry<String, String> invalidRule : invalidRules.entrySet()) {
+            try (SettingsOverride override = SettingsOverride.apply(Map.of(
+                AppSettings.USER_MAPPING_RULES, ConfigFactory.parseString(invalidRule.getKey()).getValue("rules")
+            ))) {
+                try {
+                    new KerberosUserMapper();
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage().startsWith("Invalid `user-mapping.rules` setting -- "));
+                    assertTrue(e.getMessage(), e.getMessage().contains(invalidRule.getValue()));
+                }
+            }
+        }
+    }
+
     @Test
     public void testUndefinedVariableInIfCondition() throws Exception {
         Object rules = ConfigFactory.parseString(
@@ -0,0 +1,180 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.usermapping;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.cloud.broker.database.backends.AbstractDatabaseBackend;
+import com.google.cloud.broker.database.backends.DummyDatabaseBackend;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class TableUserMapperTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void teardown() {
+        DummyDatabaseBackend.getCache().clear();
+    }
+
+    private static SettingsOverride applySource(String source) {
+        return SettingsOverride.apply(Map.of(
+            AppSettings.USER_MAPPING_TABLE_SOURCE, source,
+            AppSettings.USER_MAPPING_TABLE_RELOAD_INTERVAL, 0,
+            AppSettings.DATABASE_BACKEND, DummyDatabaseBackend.class.getName()
+        ));
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void assertNotMapped(TableUserMapper mapper, String name) {
+        try {
+            mapper.map(name);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Principal `" + name + "` cannot be mapped to a Google identity.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        File file = writeFile("mappings.csv",
+            "# Principal,Google identity\n" +
+            "alice@EXAMPLE.COM,alice@altostrat.com\n" +
+            "\n" +
+            "  hive/example.com@EXAMPLE.COM , hive@altostrat.com  \n" +
+            "bob,bob@altostrat.com\n" +
+            "bob,robert@altostrat.com\n");
+        try (SettingsOverride override = applySource(file.getPath())) {
+            TableUserMapper mapper = new TableUserMapper();
+            assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+            assertEquals("hive@altostrat.com", mapper.map("hive/example.com@EXAMPLE.COM"));
+            // The last mapping wins
+            assertEquals("robert@altostrat.com", mapper.map("bob"));
+            assertNotMapped(mapper, "john@EXAMPLE.COM");
+        }
+    }
+
+    @Test
+    public void testInvalidCsv() throws IOException {
+        File file = writeFile("mappings.csv", "alice@EXAMPLE.COM,alice@altostrat.com\nbob\n");
+        try (SettingsOverride override = applySource(file.getPath())) {
+            new TableUserMapper();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid user mapping on line 2: bob", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        File file = writeFile("mappings.json",
+            "{\"alice@EXAMPLE.COM\": \"alice@altostrat.com\", \"bob\": \"bob@altostrat.com\"}");
+        try (SettingsOverride override = applySource(file.getPath())) {
+            TableUserMapper mapper = new TableUserMapper();
+            assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+            assertEquals("bob@altostrat.com", mapper.map("bob"));
+            assertNotMapped(mapper, "john@EXAMPLE.COM");
+        }
+        file = writeFile("invalid.json", "{\"alice@EXAMPLE.COM\": 1}");
+        try (SettingsOverride override = applySource(file.getPath())) {
+            new TableUserMapper();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Google identity for `alice@EXAMPLE.COM` must be a string", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        File file = writeFile("mappings.csv", "alice@EXAMPLE.COM,alice@altostrat.com\n");
+        try (SettingsOverride override = applySource(file.getPath())) {
+            TableUserMapper mapper = new TableUserMapper();
+            assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+
+            // Unchanged source, so nothing is loaded
+            assertFalse(mapper.reloadIfChanged());
+
+            // Changed source, so the new table replaces the old one
+            writeFile("mappings.csv", "bob@EXAMPLE.COM,bob@altostrat.com\n");
+            assertTrue(mapper.reloadIfChanged());
+            assertEquals("bob@altostrat.com", mapper.map("bob@EXAMPLE.COM"));
+            assertNotMapped(mapper, "alice@EXAMPLE.COM");
+
+            // Invalid source, so the old table stays in use
+            writeFile("mappings.csv", "invalid-line\n");
+            try {
+                mapper.reloadIfChanged();
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            assertEquals("bob@altostrat.com", mapper.map("bob@EXAMPLE.COM"));
+        }
+    }
+
+    @Test
+    public void testDatabase() {
+        try (SettingsOverride override = applySource(TableUserMapper.DATABASE_SOURCE)) {
+            AbstractDatabaseBackend.getInstance().save(new UserMapping("alice@EXAMPLE.COM", "alice@altostrat.com"));
+            TableUserMapper mapper = new TableUserMapper();
+            assertEquals("alice@altostrat.com", mapper.map("alice@EXAMPLE.COM"));
+            assertNotMapped(mapper, "bob@EXAMPLE.COM");
+
+            // The database is always reloaded
+            AbstractDatabaseBackend.getInstance().save(new UserMapping("bob@EXAMPLE.COM", "bob@altostrat.com"));
+            assertTrue(mapper.reloadIfChanged());
+            assertEquals("bob@altostrat.com", mapper.map("bob@EXAMPLE.COM"));
+        }
+    }
+
+    @Test
+    public void testCompactStringMap() {
+        CompactStringMap map = new CompactStringMap();
+        int numEntries = 100000;
+        for (int i = 0; i < numEntries; i++) {
+            map.put("user" + i + "@EXAMPLE.COM", "user" + i + "@altostrat.com");
+        }
+        // Replace some values
+        for (int i = 0; i < numEntries; i += 10) {
+            map.put("user" + i + "@EXAMPLE.COM", "user" + i + "-new@altostrat.com");
+        }
+        map.trim();
+        assertEquals(numEntries, map.size());
+        for (int i = 0; i < numEntries; i++) {
+            String expected = "user" + i + (i % 10 == 0 ? "-new" : "") + "@altostrat.com";
+            assertEquals(expected, map.get("user" + i + "@EXAMPLE.COM"));
+        }
+        assertNull(map.get("user" + numEntries + "@EXAMPLE.COM"));
+        // Multi-byte characters
+        map.put("jérôme@EXAMPLE.COM", "jérôme@altostrat.com");
+        assertEquals("jérôme@altostrat.com", map.get("jérôme@EXAMPLE.COM"));
+        assertNull(map.get("jerome@EXAMPLE.COM"));
+    }
+
+}
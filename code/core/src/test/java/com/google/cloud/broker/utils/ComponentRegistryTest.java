@@ -0,0 +1,140 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class ComponentRegistryTest {
+
+    private static final String SETTING = "test.component";
+    private static final AtomicInteger numInstances = new AtomicInteger();
+
+    public static class Component {
+        public Component() {
+            numInstances.incrementAndGet();
+        }
+    }
+
+    public static class OtherComponent extends Component {
+    }
+
+    public static class CloseableComponent extends Component implements AutoCloseable {
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private static final ComponentRegistry.Component<Component> component =
+        ComponentRegistry.register(SETTING, Component.class);
+
+    @Before
+    public void setup() {
+        numInstances.set(0);
+    }
+
+    @Test
+    public void testResolvedOnce() {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, Component.class.getName()))) {
+            Component instance = component.get();
+            assertSame(instance, component.get());
+            assertSame(component, ComponentRegistry.register(SETTING, Component.class));
+        }
+    }
+
+    @Test
+    public void testSettingsReplaced() {
+        Component instance;
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, Component.class.getName()))) {
+            instance = component.get();
+        }
+        // Same settings, so the instance is kept
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, Component.class.getName()))) {
+            assertSame(instance, component.get());
+        }
+        // Same class path but different settings, so a new instance is constructed
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, Component.class.getName(), "test.other", 1))) {
+            assertNotSame(instance, component.get());
+        }
+        // Different class path, so a new instance is constructed
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, OtherComponent.class.getName()))) {
+            assertTrue(component.get() instanceof OtherComponent);
+        }
+    }
+
+    @Test
+    public void testReplacedInstanceClosed() throws InterruptedException {
+        long closeDelay = ComponentRegistry.closeDelay;
+        try {
+            // The replaced instance is left open during the grace period
+            CloseableComponent instance;
+            try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, CloseableComponent.class.getName()))) {
+                instance = (CloseableComponent) component.get();
+            }
+            try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, Component.class.getName()))) {
+                component.get();
+                assertFalse(instance.closed.await(100, TimeUnit.MILLISECONDS));
+            }
+
+            // Then it's closed
+            ComponentRegistry.closeDelay = 0;
+            try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, CloseableComponent.class.getName()))) {
+                instance = (CloseableComponent) component.get();
+            }
+            try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, Component.class.getName()))) {
+                component.get();
+                assertTrue(instance.closed.await(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            ComponentRegistry.closeDelay = closeDelay;
+        }
+    }
+
+    @Test
+    public void testConcurrentResolution() throws Exception {
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(SETTING, OtherComponent.class.getName()))) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Component>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return component.get();
+                }));
+            }
+            start.countDown();
+            Component instance = futures.get(0).get();
+            for (Future<Component> future : futures) {
+                assertSame(instance, future.get());
+            }
+            executor.shutdown();
+            assertTrue(numInstances.get() <= 1);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PeriodicTaskTest {
+
+    @Test
+    public void testFailuresDontStopNextRuns() throws InterruptedException {
+        CountDownLatch runs = new CountDownLatch(2);
+        PeriodicTask task = new PeriodicTask(PeriodicTaskTest.class, "fail", () -> {
+            runs.countDown();
+            throw new RuntimeException("Failed run");
+        });
+        task.start(0, 1);
+        try {
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+        } finally {
+            task.stop();
+        }
+    }
+
+    @Test
+    public void testRunOnce() {
+        int[] numRuns = {0};
+        PeriodicTask task = new PeriodicTask(PeriodicTaskTest.class, "fail", () -> {
+            numRuns[0]++;
+            throw new RuntimeException("Failed run");
+        });
+        // The failure is logged, not thrown
+        task.run();
+        assertEquals(1, numRuns[0]);
+    }
+
+    @Test
+    public void testRestart() {
+        PeriodicTask task = new PeriodicTask(PeriodicTaskTest.class, "do nothing", () -> {});
+        task.start(60, 60);
+        try {
+            task.start(60, 60);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("PeriodicTaskTest - Task is already started", e.getMessage());
+        }
+        task.stop();
+        task.stop();
+        // Can be started again once stopped
+        task.start(60, 60);
+        task.stop();
+    }
+
+}
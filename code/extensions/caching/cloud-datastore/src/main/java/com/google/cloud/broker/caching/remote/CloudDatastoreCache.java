@@ -13,14 +13,27 @@ package com.google.cloud.broker.caching.remote;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.cloud.datastore.*;
 import com.google.cloud.datastore.StructuredQuery.*;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.typesafe.config.Config;
 
 import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.utils.CloudDatastoreUtils;
 import com.google.cloud.broker.utils.TimeUtils;
 import com.google.cloud.broker.checks.CheckResult;
 
@@ -29,109 +42,236 @@ public class CloudDatastoreCache extends AbstractRemoteCache {
     public static class DatastoreLock implements Lock {
 
         public final static String LOCK_KIND = "Lock";
-        private Key key;
-        private Datastore datastore;
-        int deadlockTimeout = 5 * 1000;  // Maximum time that someone can hold the lock for. In milliseconds.
-        int patienceTimeout = 15 * 1000;  // Maximum time that one is willing to wait. In milliseconds.
-        int waitInterval = 500;  // Wait time interval. In milliseconds.
+        public final static String LOCK_OWNER_FIELD = "owner";
+        public final static String LOCK_EXPIRY_FIELD = "expiry";
+        private final static long MIN_BACKOFF = 20;  // In milliseconds
+        private final static long MAX_BACKOFF = 500;  // In milliseconds
+        private final static int MAX_RELEASE_ATTEMPTS = 3;
+
+        // Lets a single thread per JVM compete for a given remote lock. The weak values
+        // let the entries go away once no thread holds or waits for them.
+        private final static LoadingCache<String, ReentrantLock> localLocks = CacheBuilder.newBuilder()
+            .weakValues()
+            .build(CacheLoader.from(() -> new ReentrantLock(true)));
+
+        // Names of the locks held by each thread. The locks aren't reentrant, so a thread trying to take
+        // a lock that it already holds would otherwise wait for itself until the timeout.
+        private final static ThreadLocal<Set<String>> heldLocks = ThreadLocal.withInitial(HashSet::new);
+
+        private final static ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "datastore-lock-lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private final Key key;
+        private final Datastore datastore;
+        private final long lease;  // Time after which the lock expires unless renewed. In milliseconds.
+        private final long timeout;  // Maximum time that lock() waits for. In milliseconds.
+        private final ReentrantLock localLock;  // Null if disabled
+        private volatile String owner;  // Unique token for the current holder. Null if not held.
+        private volatile ScheduledFuture<?> leaseRenewal;
 
         public DatastoreLock(String key) {
             datastore = getService();
             KeyFactory keyFactory = datastore.newKeyFactory().setKind(LOCK_KIND);
             this.key = keyFactory.newKey(key);
+            Config settings = AppSettings.getInstance();
+            lease = settings.getLong(AppSettings.DATASTORE_CACHE_LOCK_LEASE);
+            timeout = settings.getLong(AppSettings.DATASTORE_CACHE_LOCK_TIMEOUT);
+            localLock = settings.getBoolean(AppSettings.DATASTORE_CACHE_LOCK_LOCAL) ? localLocks.getUnchecked(key) : null;
+        }
+
+        private long getExpiry(Entity lock) {
+            if (lock.contains(LOCK_EXPIRY_FIELD)) {
+                return lock.getLong(LOCK_EXPIRY_FIELD);
+            }
+            // Lock created by an older version of the broker
+            return lock.getLong("creation_time") + lease;
         }
 
-        private void waitForAWhile() {
+        private static boolean isContention(DatastoreException e) {
+            return "ABORTED".equals(e.getReason()) || "ALREADY_EXISTS".equals(e.getReason());
+        }
+
+        /**
+         * Makes a single attempt at taking the remote lock, which is possible if the lock
+         * doesn't exist or if its holder failed to renew the lease.
+         */
+        private boolean tryAcquire() {
+            String token = UUID.randomUUID().toString();
+            Transaction transaction = datastore.newTransaction();
             try {
-                Thread.sleep(waitInterval);
-            } catch (InterruptedException ie) {
-                throw new RuntimeException(ie);
+                long now = TimeUtils.currentTimeMillis();
+                Entity lock = transaction.get(key);
+                if (lock != null && getExpiry(lock) > now) {
+                    return false;
+                }
+                transaction.put(Entity.newBuilder(key)
+                    .set(LOCK_OWNER_FIELD, token)
+                    .set(LOCK_EXPIRY_FIELD, now + lease)
+                    .build());
+                transaction.commit();
+                owner = token;
+                long period = Math.max(1, lease / 3);
+                leaseRenewal = leaseRenewer.scheduleAtFixedRate(this::renewLease, period, period, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (DatastoreException e) {
+                if (isContention(e)) {
+                    // Someone just beat us to the punch
+                    return false;
+                }
+                throw e;
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
             }
         }
 
-        @Override
-        public void lock() {
-            long start = TimeUtils.currentTimeMillis();
-            while(true) {
-                if (TimeUtils.currentTimeMillis() > start + patienceTimeout) {
-                    // We've waited too long. Bail out.
-                    throw new RuntimeException("Ran out of patience");
+        /**
+         * Extends (or, if `release` is true, deletes) the remote lock, but only if it's still owned by the given token.
+         * Returns false if the lock has been taken over by someone else.
+         */
+        private boolean updateIfOwned(String token, boolean release) {
+            Transaction transaction = datastore.newTransaction();
+            try {
+                Entity lock = transaction.get(key);
+                if (lock == null || !lock.contains(LOCK_OWNER_FIELD) || !token.equals(lock.getString(LOCK_OWNER_FIELD))) {
+                    return false;
                 }
-                // Look up the lock entry
-                Transaction transaction = datastore.newTransaction();
-                try {
-                    Entity lock = transaction.get(key);
-                    if (lock == null) {  // No one has created the lock yet
-                        // Let's attempt to create the lock
-                        Entity.Builder builder = Entity.newBuilder(key);
-                        builder.set("creation_time", TimeUtils.currentTimeMillis());
-                        Entity entity = builder.build();
-                        try {
-                            transaction.add(entity);
-                            transaction.commit();
-                        } catch (DatastoreException e) {
-                            if (e.getReason().equals("ALREADY_EXISTS") || e.getReason().equals("ABORTED")) {
-                                // Someone just beat us to the punch, so we wait for a while...
-                                waitForAWhile();
-                                // ... then try again
-                                continue;
-                            } else {
-                                // Unhandled error
-                                throw new RuntimeException(e);
-                            }
-                        }
-                        // We've got the lock. Our work is done here.
-                        return;
-                    } else {
-                        // Someone else already owns the lock.
-                        // Check if the lock is still alive
-                        if (TimeUtils.currentTimeMillis() > lock.getLong("creation_time") + deadlockTimeout) {
-                            try {
-                                // Lock was been created too long ago, so we delete it to avoid deadlock
-                                transaction.delete(key);
-                                transaction.commit();
-                            } catch (DatastoreException e) {
-                                if (e.getReason().equals("ABORTED")) {
-                                    // Someone else might have tried to delete or update the lock,
-                                    // so we ignore the deletion failure.
-                                }
-                                else {
-                                    // Unhandled error
-                                    throw new RuntimeException(e);
-                                }
-                            }
-                        } else {
-                            // Someone else is holding the lock, so we wait for a while...
-                            waitForAWhile();
-                        }
-                    }
+                if (release) {
+                    transaction.delete(key);
                 }
-                finally {
-                    if (transaction.isActive()) {
-                        transaction.rollback();
-                    }
+                else {
+                    transaction.put(Entity.newBuilder(lock)
+                        .set(LOCK_EXPIRY_FIELD, TimeUtils.currentTimeMillis() + lease)
+                        .build());
                 }
+                transaction.commit();
+                return true;
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            }
+        }
+
+        private void renewLease() {
+            String token = owner;
+            if (token == null) {
+                return;
+            }
+            try {
+                if (!updateIfOwned(token, false)) {
+                    // The lease was lost, so there's nothing left to renew
+                    leaseRenewal.cancel(false);
+                }
+            } catch (DatastoreException e) {
+                // Try again at the next period, before the lease expires
             }
         }
 
         @Override
-        public void unlock() {
-            datastore.delete(key);
+        public void lock() {
+            try {
+                lockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
         }
 
         @Override
         public void lockInterruptibly() throws InterruptedException {
-            throw new UnsupportedOperationException();
+            if (!tryLock(timeout, TimeUnit.MILLISECONDS)) {
+                // We've waited too long. Bail out.
+                throw new RuntimeException("Ran out of patience");
+            }
+        }
+
+        private void checkNotHeld() {
+            if (heldLocks.get().contains(key.getName())) {
+                throw new IllegalMonitorStateException("Lock is already held by the current thread: " + key.getName());
+            }
         }
 
         @Override
         public boolean tryLock() {
-            throw new UnsupportedOperationException();
+            checkNotHeld();
+            if (localLock != null && !localLock.tryLock()) {
+                return false;
+            }
+            boolean acquired = false;
+            try {
+                acquired = tryAcquire();
+                if (acquired) {
+                    heldLocks.get().add(key.getName());
+                }
+                return acquired;
+            } finally {
+                if (!acquired && localLock != null) {
+                    localLock.unlock();
+                }
+            }
         }
 
         @Override
         public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-            throw new UnsupportedOperationException();
+            checkNotHeld();
+            long deadline = System.nanoTime() + unit.toNanos(time);
+            if (localLock != null && !localLock.tryLock(time, unit)) {
+                return false;
+            }
+            boolean acquired = false;
+            try {
+                long backoff = MIN_BACKOFF;
+                while (!(acquired = tryAcquire())) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    // Exponential backoff, with some jitter so that competing JVMs don't retry in lockstep
+                    long sleep = ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+                    Thread.sleep(Math.min(sleep, remaining));
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                }
+                heldLocks.get().add(key.getName());
+                return true;
+            } finally {
+                if (!acquired && localLock != null) {
+                    localLock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void unlock() {
+            String token = owner;
+            if (token == null) {
+                throw new IllegalMonitorStateException("Lock is not held: " + key.getName());
+            }
+            owner = null;
+            heldLocks.get().remove(key.getName());
+            leaseRenewal.cancel(false);
+            try {
+                for (int attempt = 0; attempt < MAX_RELEASE_ATTEMPTS; attempt++) {
+                    try {
+                        // If the lease was lost, then the lock now belongs to someone else and must be left alone
+                        updateIfOwned(token, true);
+                        return;
+                    } catch (DatastoreException e) {
+                        if (!isContention(e)) {
+                            throw e;
+                        }
+                    }
+                }
+                // Give up. The lock will expire at the end of its lease.
+            } finally {
+                if (localLock != null) {
+                    localLock.unlock();
+                }
+            }
         }
 
         @Override
@@ -144,9 +284,8 @@ public class CloudDatastoreCache extends AbstractRemoteCache {
     public final static String CACHE_VALUE_FIELD = "value";
     public final static String CACHE_EXPIRY_FIELD = "expiry";
 
-    private static Datastore getService() {
-        String projectId = AppSettings.getInstance().getString(AppSettings.GCP_PROJECT);
-        return DatastoreOptions.newBuilder().setProjectId(projectId).build().getService();
+    static Datastore getService() {
+        return CloudDatastoreUtils.getService();
     }
 
     @Override
@@ -183,6 +322,46 @@ public class CloudDatastoreCache extends AbstractRemoteCache {
         datastore.put(entity);
     }
 
+    @Override
+    public boolean supportsSetIfAbsent() {
+        return true;
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, byte[] value, int expireIn) {
+        Datastore datastore = getService();
+        KeyFactory keyFactory = datastore.newKeyFactory().setKind(CACHE_KIND);
+        Key datastoreKey = keyFactory.newKey(key);
+        Transaction transaction = datastore.newTransaction();
+        try {
+            long now = TimeUtils.currentTimeMillis();
+            Entity entity = transaction.get(datastoreKey);
+            if (entity != null) {
+                long expiry = entity.getLong(CACHE_EXPIRY_FIELD);
+                if (expiry == 0 || now < expiry) {
+                    return false;
+                }
+            }
+            // The key doesn't exist or has expired but hasn't been purged yet
+            transaction.put(Entity.newBuilder(datastoreKey)
+                .set(CACHE_VALUE_FIELD, BlobValue.of(Blob.copyFrom(value)))
+                .set(CACHE_EXPIRY_FIELD, now + expireIn * 1000)
+                .build());
+            transaction.commit();
+            return true;
+        } catch (DatastoreException e) {
+            if ("ABORTED".equals(e.getReason())) {
+                // Someone else just set the key
+                return false;
+            }
+            throw e;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
     @Override
     public void delete(String key) {
         Datastore datastore = getService();
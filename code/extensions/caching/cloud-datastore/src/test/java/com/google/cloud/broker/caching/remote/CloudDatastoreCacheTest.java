@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
 
@@ -23,6 +24,7 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import com.google.cloud.datastore.*;
 import org.junit.After;
 import org.junit.BeforeClass;
+import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.api.mockito.PowerMockito;
@@ -31,6 +33,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
 import com.google.cloud.broker.utils.TimeUtils;
 import static com.google.cloud.broker.caching.remote.CloudDatastoreCache.*;
 
@@ -41,6 +44,17 @@ public class CloudDatastoreCacheTest {
 
     private static CloudDatastoreCache cache;
 
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.DATASTORE_CONNECT_TIMEOUT, 20000,
+        AppSettings.DATASTORE_READ_TIMEOUT, 20000,
+        AppSettings.DATASTORE_RETRY_MAX_ATTEMPTS, 6,
+        AppSettings.DATASTORE_RETRY_TOTAL_TIMEOUT, 50000,
+        AppSettings.DATASTORE_CACHE_LOCK_LEASE, 5000,
+        AppSettings.DATASTORE_CACHE_LOCK_TIMEOUT, 15000,
+        AppSettings.DATASTORE_CACHE_LOCK_LOCAL, true
+    ));
+
     private static Datastore getService() {
         String projectId = AppSettings.getInstance().getString(AppSettings.GCP_PROJECT);
         return DatastoreOptions.newBuilder().setProjectId(projectId).build().getService();
@@ -257,4 +271,57 @@ public class CloudDatastoreCacheTest {
         assertTrue(result.equals("a1,b1,c1,a2,b2,c2") || result.equals("a2,b2,c2,a1,b1,c1"));
     }
 
+    @Test
+    public void testTryLock() throws Exception {
+        DatastoreLock lock1 = new DatastoreLock("test-try-lock");
+        assertTrue(lock1.tryLock(1, TimeUnit.SECONDS));
+
+        // A competing thread can't get the lock while it's held
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        DatastoreLock lock2 = new DatastoreLock("test-try-lock");
+        assertFalse(executorService.submit(() -> lock2.tryLock(100, TimeUnit.MILLISECONDS)).get());
+
+        // Once released, the lock can be taken again
+        lock1.unlock();
+        assertTrue(executorService.submit(() -> lock2.tryLock(1, TimeUnit.SECONDS)).get());
+        executorService.submit(lock2::unlock).get();
+    }
+
+    @Test
+    public void testNotReentrant() {
+        DatastoreLock lock1 = new DatastoreLock("test-reentrant-lock");
+        lock1.lock();
+        try {
+            // Re-acquiring the same lock from the same thread fails right away instead of waiting for the timeout
+            new DatastoreLock("test-reentrant-lock").tryLock();
+            fail();
+        } catch (IllegalMonitorStateException e) {
+            assertEquals("Lock is already held by the current thread: test-reentrant-lock", e.getMessage());
+        } finally {
+            lock1.unlock();
+        }
+        // Once released, the lock can be taken again
+        DatastoreLock lock2 = new DatastoreLock("test-reentrant-lock");
+        assertTrue(lock2.tryLock());
+        lock2.unlock();
+    }
+
+    @Test
+    public void testUnlockChecksOwner() {
+        DatastoreLock lock = new DatastoreLock("test-owner-lock");
+        lock.lock();
+
+        // Simulate another process taking over the lock after the lease expired
+        Datastore datastore = getService();
+        Key key = datastore.newKeyFactory().setKind(DatastoreLock.LOCK_KIND).newKey("test-owner-lock");
+        datastore.put(Entity.newBuilder(datastore.get(key)).set(DatastoreLock.LOCK_OWNER_FIELD, "someone-else").build());
+
+        // Releasing the lock must not delete the other owner's lock
+        lock.unlock();
+        Entity entity = datastore.get(key);
+        assertNotNull(entity);
+        assertEquals("someone-else", entity.getString(DatastoreLock.LOCK_OWNER_FIELD));
+        datastore.delete(key);
+    }
+
 }
@@ -13,16 +13,22 @@ package com.google.cloud.broker.caching.remote;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 import org.redisson.Redisson;
 import org.redisson.api.NodesGroup;
 import org.redisson.api.RBucket;
 import org.redisson.api.RLock;
+import org.redisson.api.RTopic;
 import org.redisson.api.RedissonClient;
 import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
 import org.redisson.config.Config;
+import org.redisson.config.ReadMode;
 
 import com.google.cloud.broker.checks.CheckResult;
 import com.google.cloud.broker.settings.AppSettings;
@@ -30,42 +36,187 @@ import com.google.cloud.broker.settings.AppSettings;
 
 public class RedisCache extends AbstractRemoteCache {
 
-    private RedissonClient client;
+    private static volatile RedissonClient client;
+    private static RedisNearCache nearCache;
 
     public RedisCache() {
     }
 
-    private RedissonClient getClient() {
+    private static RedissonClient getClient() {
         if (client == null) {
-            String host = AppSettings.getInstance().getString(AppSettings.REDIS_CACHE_HOST);
-            Integer port = AppSettings.getInstance().getInt(AppSettings.REDIS_CACHE_PORT);
-            Config config = new Config();
-            config.useSingleServer()
-                .setAddress(String.format("redis://%s:%s", host, port))
-                .setDatabase(AppSettings.getInstance().getInt(AppSettings.REDIS_CACHE_DB));
-            client = Redisson.create(config);
+            synchronized (RedisCache.class) {
+                if (client == null) {
+                    RedissonClient newClient = Redisson.create(createConfig(AppSettings.getInstance()));
+                    if (AppSettings.getInstance().getBoolean(AppSettings.REDIS_CACHE_NEAR_CACHE_ENABLED)) {
+                        nearCache = new RedisNearCache(newClient,
+                            AppSettings.getInstance().getLong(AppSettings.REDIS_CACHE_NEAR_CACHE_MAXIMUM_SIZE),
+                            AppSettings.getInstance().getInt(AppSettings.REDIS_CACHE_NEAR_CACHE_EXPIRE_AFTER));
+                    }
+                    client = newClient;
+                }
+            }
         }
         return client;
     }
 
+    static Config createConfig(com.typesafe.config.Config settings) {
+        Config config = new Config();
+        config.setThreads(settings.getInt(AppSettings.REDIS_CACHE_THREADS));
+        config.setNettyThreads(settings.getInt(AppSettings.REDIS_CACHE_NETTY_THREADS));
+        int poolSize = settings.getInt(AppSettings.REDIS_CACHE_CONNECTION_POOL_SIZE);
+        int connectTimeout = settings.getInt(AppSettings.REDIS_CACHE_CONNECT_TIMEOUT);
+        int timeout = settings.getInt(AppSettings.REDIS_CACHE_TIMEOUT);
+        int db = settings.getInt(AppSettings.REDIS_CACHE_DB);
+        String mode = settings.getString(AppSettings.REDIS_CACHE_MODE);
+        switch (mode) {
+            case "single":
+                config.useSingleServer()
+                    .setAddress(toAddress(settings.getString(AppSettings.REDIS_CACHE_HOST) + ":" + settings.getInt(AppSettings.REDIS_CACHE_PORT)))
+                    .setDatabase(db)
+                    .setConnectionPoolSize(poolSize)
+                    .setConnectTimeout(connectTimeout)
+                    .setTimeout(timeout);
+                break;
+            case "cluster":
+                // Redis Cluster only supports database 0
+                config.useClusterServers()
+                    .addNodeAddress(toAddresses(settings.getStringList(AppSettings.REDIS_CACHE_NODES)))
+                    .setReadMode(getReadMode(settings))
+                    .setMasterConnectionPoolSize(poolSize)
+                    .setSlaveConnectionPoolSize(poolSize)
+                    .setConnectTimeout(connectTimeout)
+                    .setTimeout(timeout);
+                break;
+            case "sentinel":
+                config.useSentinelServers()
+                    .setMasterName(settings.getString(AppSettings.REDIS_CACHE_SENTINEL_MASTER))
+                    .addSentinelAddress(toAddresses(settings.getStringList(AppSettings.REDIS_CACHE_NODES)))
+                    .setDatabase(db)
+                    .setReadMode(getReadMode(settings))
+                    .setMasterConnectionPoolSize(poolSize)
+                    .setSlaveConnectionPoolSize(poolSize)
+                    .setConnectTimeout(connectTimeout)
+                    .setTimeout(timeout);
+                break;
+            case "master-replica":
+                config.useMasterSlaveServers()
+                    .setMasterAddress(toAddress(settings.getString(AppSettings.REDIS_CACHE_HOST) + ":" + settings.getInt(AppSettings.REDIS_CACHE_PORT)))
+                    .addSlaveAddress(toAddresses(settings.getStringList(AppSettings.REDIS_CACHE_NODES)))
+                    .setDatabase(db)
+                    .setReadMode(getReadMode(settings))
+                    .setMasterConnectionPoolSize(poolSize)
+                    .setSlaveConnectionPoolSize(poolSize)
+                    .setConnectTimeout(connectTimeout)
+                    .setTimeout(timeout);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid Redis mode: " + mode);
+        }
+        return config;
+    }
+
+    private static ReadMode getReadMode(com.typesafe.config.Config settings) {
+        String readMode = settings.getString(AppSettings.REDIS_CACHE_READ_MODE);
+        switch (readMode) {
+            case "master":
+                return ReadMode.MASTER;
+            case "replica":
+                return ReadMode.SLAVE;
+            case "master-replica":
+                return ReadMode.MASTER_SLAVE;
+            default:
+                throw new IllegalArgumentException("Invalid Redis read mode: " + readMode);
+        }
+    }
+
+    private static String toAddress(String node) {
+        // Nodes may be given as "host:port", or with an explicit scheme (e.g. "rediss://" for TLS)
+        return node.contains("://") ? node : "redis://" + node;
+    }
+
+    private static String[] toAddresses(List<String> nodes) {
+        return nodes.stream().map(RedisCache::toAddress).toArray(String[]::new);
+    }
+
     public byte[] get(String key) {
-        RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
+        RedissonClient client = getClient();
+        if (nearCache != null && !RedisNearCache.isCoordinationKey(key)) {
+            return nearCache.get(key);
+        }
+        RBucket<byte[]> bucket = client.getBucket(key, ByteArrayCodec.INSTANCE);
         return bucket.get();
     }
 
     public void set(String key, byte[] value) {
         RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
         bucket.set(value);
+        invalidate(key);
     }
 
     public void set(String key, byte[] value, int expireIn) {
         RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
         bucket.set(value, expireIn, TimeUnit.SECONDS);
+        invalidate(key);
     }
 
     public void delete(String key) {
         RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
         bucket.delete();
+        invalidate(key);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(String key) {
+        RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
+        if (nearCache != null) {
+            byte[] value = nearCache.getIfPresent(key);
+            if (value != null) {
+                return CompletableFuture.completedFuture(value);
+            }
+        }
+        return bucket.getAsync().toCompletableFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> setAsync(String key, byte[] value, int expireIn) {
+        RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
+        return bucket.setAsync(value, expireIn, TimeUnit.SECONDS).toCompletableFuture()
+            .thenCompose(ignored -> invalidateAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String key) {
+        RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
+        return bucket.deleteAsync().toCompletableFuture()
+            .thenCompose(deleted -> invalidateAsync(key));
+    }
+
+    @Override
+    public boolean supportsSetIfAbsent() {
+        return true;
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, byte[] value, int expireIn) {
+        RBucket<byte[]> bucket = getClient().getBucket(key, ByteArrayCodec.INSTANCE);
+        boolean isSet = bucket.trySet(value, expireIn, TimeUnit.SECONDS);
+        if (isSet) {
+            invalidate(key);
+        }
+        return isSet;
+    }
+
+    private static void invalidate(String key) {
+        if (nearCache != null && !RedisNearCache.isCoordinationKey(key)) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    private static CompletableFuture<Void> invalidateAsync(String key) {
+        if (nearCache != null && !RedisNearCache.isCoordinationKey(key)) {
+            return nearCache.invalidateAsync(key);
+        }
+        return CompletableFuture.completedFuture(null);
     }
 
     public Lock acquireLock(String lockName) {
@@ -74,6 +225,29 @@ public class RedisCache extends AbstractRemoteCache {
         return lock;
     }
 
+    @Override
+    public boolean supportsMessaging() {
+        return true;
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        RTopic topic = getClient().getTopic(channel, StringCodec.INSTANCE);
+        topic.publish(message);
+    }
+
+    @Override
+    public int subscribe(String channel, Consumer<String> listener) {
+        RTopic topic = getClient().getTopic(channel, StringCodec.INSTANCE);
+        return topic.addListener(String.class, (ch, message) -> listener.accept(message));
+    }
+
+    @Override
+    public void unsubscribe(String channel, int listenerId) {
+        RTopic topic = getClient().getTopic(channel, StringCodec.INSTANCE);
+        topic.removeListener(listenerId);
+    }
+
     @Override
     public CheckResult checkConnection() {
         try {
@@ -0,0 +1,152 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.caching.remote;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBucketAsync;
+import org.redisson.api.RFuture;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.BaseStatusListener;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
+
+/**
+ * Keeps local copies of the values read from Redis, so that hot keys are served without a
+ * round trip. Writers publish the modified keys on a Redis channel, and every broker instance
+ * drops its own copies of those keys when it receives the messages.
+ *
+ * Lock and lease keys (i.e. ending with "_lock" or "_lease") are only used to coordinate writers,
+ * so they're never kept locally nor broadcast.
+ */
+class RedisNearCache {
+
+    static final String INVALIDATION_CHANNEL = "broker:near-cache-invalidation";
+    private static final int NUM_VERSION_STRIPES = 4096;  // Must be a power of 2
+
+    private static class Entry {
+        final byte[] value;
+        final long expiresAt;  // In System.nanoTime() units
+
+        Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final RedissonClient client;
+    private final RTopic topic;
+    private final Cache<String, Entry> entries;
+    private final long expireAfterNanos;
+
+    // Incremented on every invalidation of a key, by stripe of keys, so that values read from Redis
+    // before an invalidation of that key aren't stored in the near cache after it. Invalidating
+    // all keys increments the global version instead.
+    private final AtomicLongArray versions = new AtomicLongArray(NUM_VERSION_STRIPES);
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    RedisNearCache(RedissonClient client, long maximumSize, int expireAfter) {
+        this.client = client;
+        this.expireAfterNanos = TimeUnit.SECONDS.toNanos(expireAfter);
+        entries = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfter, TimeUnit.SECONDS)
+            .build();
+        topic = client.getTopic(INVALIDATION_CHANNEL, StringCodec.INSTANCE);
+        topic.addListener(String.class, (channel, key) -> invalidateLocally(key));
+        topic.addListener(new BaseStatusListener() {
+            @Override
+            public void onSubscribe(String channel) {
+                // Messages may have been missed while disconnected
+                invalidateAllLocally();
+            }
+        });
+    }
+
+    static boolean isCoordinationKey(String key) {
+        return key.endsWith("_lock") || key.endsWith("_lease");
+    }
+
+    private static int getStripe(String key) {
+        return key.hashCode() & (NUM_VERSION_STRIPES - 1);
+    }
+
+    byte[] getIfPresent(String key) {
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            return entry.value;
+        }
+        return null;
+    }
+
+    byte[] get(String key) {
+        byte[] value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        int stripe = getStripe(key);
+        long readVersion = versions.get(stripe);
+        long readGlobalVersion = globalVersion.get();
+
+        // Read the value along with its remaining time to live, in a single round trip
+        RBatch batch = client.createBatch(BatchOptions.defaults());
+        RBucketAsync<byte[]> bucket = batch.getBucket(key, ByteArrayCodec.INSTANCE);
+        RFuture<byte[]> valueFuture = bucket.getAsync();
+        RFuture<Long> ttlFuture = bucket.remainTimeToLiveAsync();
+        batch.execute();
+        value = valueFuture.getNow();
+        long ttl = ttlFuture.getNow();
+
+        if (value != null) {
+            long now = System.nanoTime();
+            // A negative TTL means that the key doesn't expire
+            long expiresAt = now + (ttl >= 0 ? Math.min(TimeUnit.MILLISECONDS.toNanos(ttl), expireAfterNanos) : expireAfterNanos);
+            Entry entry = new Entry(value, expiresAt);
+            // Checked and stored atomically with respect to `invalidateLocally()`, which waits for this key's lock
+            entries.asMap().compute(key, (k, current) ->
+                (versions.get(stripe) == readVersion && globalVersion.get() == readGlobalVersion) ? entry : current);
+        }
+        return value;
+    }
+
+    /**
+     * Drops the key from the local copies of all broker instances. Must be called after the key is modified in Redis.
+     */
+    void invalidate(String key) {
+        invalidateLocally(key);
+        topic.publish(key);
+    }
+
+    CompletableFuture<Void> invalidateAsync(String key) {
+        invalidateLocally(key);
+        return topic.publishAsync(key).thenAccept(numReceivers -> {}).toCompletableFuture();
+    }
+
+    void invalidateLocally(String key) {
+        versions.incrementAndGet(getStripe(key));
+        entries.invalidate(key);
+    }
+
+    void invalidateAllLocally() {
+        globalVersion.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+}
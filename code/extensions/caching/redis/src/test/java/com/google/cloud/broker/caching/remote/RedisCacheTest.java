@@ -11,8 +11,10 @@
 
 package com.google.cloud.broker.caching.remote;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -26,6 +28,7 @@ import org.redisson.api.RKeys;
 import org.redisson.api.RedissonClient;
 import org.redisson.client.codec.ByteArrayCodec;
 import org.redisson.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 import com.google.cloud.broker.settings.AppSettings;
 import com.google.cloud.broker.settings.SettingsOverride;
@@ -35,12 +38,26 @@ public class RedisCacheTest {
     private static RedissonClient client;
     private static RedisCache cache;
 
+    private static final Map<String, Object> SETTINGS = Map.ofEntries(
+        Map.entry(AppSettings.REDIS_CACHE_MODE, "single"),
+        Map.entry(AppSettings.REDIS_CACHE_HOST, "localhost"),
+        Map.entry(AppSettings.REDIS_CACHE_PORT, 6379),
+        Map.entry(AppSettings.REDIS_CACHE_DB, 0),
+        Map.entry(AppSettings.REDIS_CACHE_NODES, List.of()),
+        Map.entry(AppSettings.REDIS_CACHE_SENTINEL_MASTER, ""),
+        Map.entry(AppSettings.REDIS_CACHE_READ_MODE, "master"),
+        Map.entry(AppSettings.REDIS_CACHE_CONNECTION_POOL_SIZE, 64),
+        Map.entry(AppSettings.REDIS_CACHE_CONNECT_TIMEOUT, 10000),
+        Map.entry(AppSettings.REDIS_CACHE_TIMEOUT, 3000),
+        Map.entry(AppSettings.REDIS_CACHE_THREADS, 16),
+        Map.entry(AppSettings.REDIS_CACHE_NETTY_THREADS, 32),
+        Map.entry(AppSettings.REDIS_CACHE_NEAR_CACHE_ENABLED, false),
+        Map.entry(AppSettings.REDIS_CACHE_NEAR_CACHE_MAXIMUM_SIZE, 10000),
+        Map.entry(AppSettings.REDIS_CACHE_NEAR_CACHE_EXPIRE_AFTER, 60)
+    );
+
     @ClassRule
-    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
-        AppSettings.REDIS_CACHE_HOST, "localhost",
-        AppSettings.REDIS_CACHE_PORT, 6379,
-        AppSettings.REDIS_CACHE_DB, 0
-    ));
+    public static SettingsOverride settingsOverride = new SettingsOverride(SETTINGS);
 
     @BeforeClass
     public static void setupClass() {
@@ -111,6 +128,68 @@ public class RedisCacheTest {
         assertNull(bucket.get());
     }
 
+    @Test
+    public void testAsync() throws Exception {
+        RBucket<byte[]> bucket = client.getBucket("test", ByteArrayCodec.INSTANCE);
+
+        // Let the backend set the key/value in the background
+        cache.setAsync("test", "abcd".getBytes(), 60).get();
+        assertArrayEquals("abcd".getBytes(), bucket.get());
+        assertArrayEquals("abcd".getBytes(), cache.getAsync("test").get());
+
+        // Delete the key in the background
+        cache.deleteAsync("test").get();
+        assertNull(bucket.get());
+        assertNull(cache.getAsync("test").get());
+    }
+
+    @Test
+    public void testNearCache() throws InterruptedException {
+        // Two near caches, as if on two different broker instances
+        RedisNearCache nearCache1 = new RedisNearCache(client, 100, 60);
+        RedisNearCache nearCache2 = new RedisNearCache(client, 100, 60);
+        RBucket<byte[]> bucket = client.getBucket("test", ByteArrayCodec.INSTANCE);
+        bucket.set("abcd".getBytes(), 60, TimeUnit.SECONDS);
+        assertArrayEquals("abcd".getBytes(), nearCache1.get("test"));
+        assertArrayEquals("abcd".getBytes(), nearCache2.get("test"));
+
+        // Change the value behind the near caches' back. They keep serving their local copy.
+        bucket.set("efgh".getBytes(), 60, TimeUnit.SECONDS);
+        assertArrayEquals("abcd".getBytes(), nearCache1.get("test"));
+        assertArrayEquals("abcd".getBytes(), nearCache2.get("test"));
+
+        // Invalidate the key from one instance. The other instance is notified over pub/sub.
+        nearCache1.invalidate("test");
+        assertArrayEquals("efgh".getBytes(), nearCache1.get("test"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (nearCache2.getIfPresent("test") != null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertArrayEquals("efgh".getBytes(), nearCache2.get("test"));
+    }
+
+    @Test
+    public void testNearCacheExpiry() throws InterruptedException {
+        RedisNearCache nearCache = new RedisNearCache(client, 100, 60);
+        RBucket<byte[]> bucket = client.getBucket("test", ByteArrayCodec.INSTANCE);
+        bucket.set("abcd".getBytes(), 1, TimeUnit.SECONDS);
+        assertArrayEquals("abcd".getBytes(), nearCache.get("test"));
+        assertArrayEquals("abcd".getBytes(), nearCache.getIfPresent("test"));
+
+        // The local copy doesn't outlive the key in Redis
+        Thread.sleep(1100);
+        assertNull(nearCache.getIfPresent("test"));
+        assertNull(nearCache.get("test"));
+    }
+
+    @Test
+    public void testNearCacheSkipsCoordinationKeys() {
+        assertTrue(RedisNearCache.isCoordinationKey("test_lock"));
+        assertTrue(RedisNearCache.isCoordinationKey("test_lease"));
+        assertFalse(RedisNearCache.isCoordinationKey("test"));
+        assertFalse(RedisNearCache.isCoordinationKey("test_lock_holder"));
+    }
+
     @Test
     public void testDelete() {
         // Set a key/value
@@ -166,4 +245,44 @@ public class RedisCacheTest {
         String result = String.join(",", list);
         assertTrue(result.equals("a1,b1,c1,a2,b2,c2") || result.equals("a2,b2,c2,a1,b1,c1"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testClusterConfig() throws IOException {
+        Map<String, Object> settings = new HashMap<>(SETTINGS);
+        settings.put(AppSettings.REDIS_CACHE_MODE, "cluster");
+        settings.put(AppSettings.REDIS_CACHE_NODES, List.of("10.0.0.1:6379", "rediss://10.0.0.2:6380"));
+        settings.put(AppSettings.REDIS_CACHE_READ_MODE, "replica");
+        settings.put(AppSettings.REDIS_CACHE_NETTY_THREADS, 8);
+        Config config = RedisCache.createConfig(ConfigFactory.parseMap(settings));
+        String yaml = config.toYAML();
+        assertTrue(yaml.contains("clusterServersConfig"));
+        assertTrue(yaml.contains("redis://10.0.0.1:6379"));
+        assertTrue(yaml.contains("rediss://10.0.0.2:6380"));
+        assertTrue(yaml.contains("readMode: \"SLAVE\""));
+        assertEquals(8, config.getNettyThreads());
+    }
+
+    @Test
+    public void testSentinelConfig() throws IOException {
+        Map<String, Object> settings = new HashMap<>(SETTINGS);
+        settings.put(AppSettings.REDIS_CACHE_MODE, "sentinel");
+        settings.put(AppSettings.REDIS_CACHE_NODES, List.of("10.0.0.1:26379"));
+        settings.put(AppSettings.REDIS_CACHE_SENTINEL_MASTER, "mymaster");
+        String yaml = RedisCache.createConfig(ConfigFactory.parseMap(settings)).toYAML();
+        assertTrue(yaml.contains("sentinelServersConfig"));
+        assertTrue(yaml.contains("redis://10.0.0.1:26379"));
+        assertTrue(yaml.contains("masterName: \"mymaster\""));
+    }
+
+    @Test
+    public void testInvalidMode() {
+        Map<String, Object> settings = new HashMap<>(SETTINGS);
+        settings.put(AppSettings.REDIS_CACHE_MODE, "whatever");
+        try {
+            RedisCache.createConfig(ConfigFactory.parseMap(settings));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid Redis mode: whatever", e.getMessage());
+        }
+    }
+}
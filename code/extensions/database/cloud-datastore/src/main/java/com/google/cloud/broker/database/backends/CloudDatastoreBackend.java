@@ -14,62 +14,80 @@ package com.google.cloud.broker.database.backends;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.*;
+import java.util.function.Consumer;
 
 import com.google.cloud.datastore.*;
 import com.google.cloud.datastore.StructuredQuery.*;
 
 import com.google.cloud.broker.checks.CheckResult;
 import com.google.cloud.broker.database.models.Model;
-import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.database.models.ModelCodec;
+import com.google.cloud.broker.utils.CloudDatastoreUtils;
 import com.google.cloud.broker.database.DatabaseObjectNotFound;
 
 
 public class CloudDatastoreBackend extends AbstractDatabaseBackend {
 
-    private Datastore getService() {
-        String projectId = AppSettings.getInstance().getString(AppSettings.GCP_PROJECT);
-        return DatastoreOptions.newBuilder().setProjectId(projectId).build().getService();
+    // Maximum number of entities that can be written in a single Datastore commit
+    private final static int MAX_BATCH_SIZE = 500;
+
+    static Datastore getService() {
+        return CloudDatastoreUtils.getService();
     }
 
-    private Model convertEntityToModel(Entity entity, Class modelClass) {
-        // Load entity values into a hashmap
-        HashMap<String, Object> values = new HashMap<>();
-        values.put("id", entity.getKey().getName());
-        for (String name : entity.getNames()) {
-            Value<?> value = entity.getValue(name);
-            if (value != null) {
-                if (value instanceof BlobValue) {
-                    values.put(name, ((Blob) value.get()).toByteArray());
-                }
-                else if(value instanceof ListValue) {
-                    List<Object> list = new LinkedList<>();
-                    for (Value<?> v: ((ListValue) value).get()) {
-                        list.add(v.get());
-                    }
-                    values.put(name, list);
-                }
-                else {
-                    values.put(name, value.get());
-                }
+    private Model convertEntityToModel(Entity entity, ModelCodec<Model> codec) {
+        List<ModelCodec.Field> fields = codec.getFields();
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            ModelCodec.Field field = fields.get(i);
+            String name = field.getName();
+            if (name.equals(ModelCodec.ID_FIELD)) {
+                values[i] = entity.getKey().getName();
+            }
+            else if (entity.contains(name) && !entity.isNull(name)) {
+                values[i] = readValue(entity, name, field.getType());
             }
         }
+        return codec.decode(values);
+    }
 
-        // Instantiate a new object
-        return Model.fromMap(modelClass, values);
+    private Object readValue(Entity entity, String name, ModelCodec.FieldType type) {
+        switch (type) {
+            case STRING:
+                return entity.getString(name);
+            case LONG:
+                return entity.getLong(name);
+            case BYTES:
+                return entity.getBlob(name).toByteArray();
+            case STRING_LIST:
+                List<Value<?>> values = entity.getList(name);
+                List<Object> list = new ArrayList<>(values.size());
+                for (Value<?> v : values) {
+                    list.add(v.get());
+                }
+                return list;
+            default:
+                throw new IllegalArgumentException("Unsupported type: " + type);
+        }
     }
 
     @Override
     public List<Model> getAll(Class modelClass) {
+        List<Model> models = new ArrayList<>();
+        forEach(modelClass, models::add);
+        return models;
+    }
+
+    @Override
+    public void forEach(Class modelClass, Consumer<Model> consumer) {
+        ModelCodec<Model> codec = ModelCodec.forClass(modelClass);
         Datastore datastore = getService();
         EntityQuery query = Query.newEntityQueryBuilder().setKind(modelClass.getSimpleName()).build();
+        // Results are fetched in batches as they're iterated
         final QueryResults<Entity> entities = datastore.run(query);
-        List<Model> models = new ArrayList<>();
         while (entities.hasNext()) {
-            Entity entity = entities.next();
-            Model model = convertEntityToModel(entity, modelClass);
-            models.add(model);
+            consumer.accept(convertEntityToModel(entities.next(), codec));
         }
-        return models;
     }
 
     @Override
@@ -86,7 +104,7 @@ public class CloudDatastoreBackend extends AbstractDatabaseBackend {
                     String.format("%s object not found: %s", modelClass.getSimpleName(), objectId));
         }
 
-        return convertEntityToModel(entity, modelClass);
+        return convertEntityToModel(entity, ModelCodec.forClass(modelClass));
     }
 
     public void save(Model model) {
@@ -97,11 +115,11 @@ public class CloudDatastoreBackend extends AbstractDatabaseBackend {
         KeyFactory keyFactory = datastore.newKeyFactory().setKind(model.getClass().getSimpleName());
         Key key = keyFactory.newKey(model.getDBId());
         Entity.Builder builder = Entity.newBuilder(key);
-        Map<String, Object> map = model.toMap();
-        for(Map.Entry<String, Object> entry : map.entrySet()) {
-            String name = entry.getKey();
-            Value<?> value = objectToValue(entry.getValue());
-            builder.set(name, value);
+        ModelCodec<Model> codec = ModelCodec.forClass(model.getClass());
+        List<ModelCodec.Field> fields = codec.getFields();
+        Object[] values = codec.encode(model);
+        for (int i = 0; i < values.length; i++) {
+            builder.set(fields.get(i).getName(), objectToValue(values[i]));
         }
         Entity entity = builder.build();
         datastore.put(entity);
@@ -127,8 +145,7 @@ public class CloudDatastoreBackend extends AbstractDatabaseBackend {
             return ListValue.of(list);
         }
         else {
-            // TODO extend to other supported types
-            throw new UnsupportedOperationException("Unsupported type: " + object.getClass());
+            throw new IllegalArgumentException("Unsupported type: " + object.getClass());
         }
     }
 
@@ -147,15 +164,21 @@ public class CloudDatastoreBackend extends AbstractDatabaseBackend {
             .setKind(modelClass.getSimpleName())
             .setFilter(PropertyFilter.le(field, cutoffTime))
             .setOrderBy(OrderBy.asc(field));
-        if (numItems != null) {
+        if (isLimited(numItems)) {
             queryBuilder.setLimit(numItems);
         }
         KeyQuery query = queryBuilder.build();
         final QueryResults<Key> keys = datastore.run(query);
+        // Delete in batches rather than one request per key
+        List<Key> batch = new ArrayList<>();
         int numDeletedItems = 0;
         while (keys.hasNext()) {
-            datastore.delete(keys.next());
-            numDeletedItems++;
+            batch.add(keys.next());
+            if (batch.size() == MAX_BATCH_SIZE || !keys.hasNext()) {
+                datastore.delete(batch.toArray(new Key[0]));
+                numDeletedItems += batch.size();
+                batch.clear();
+            }
         }
         return numDeletedItems;
     }
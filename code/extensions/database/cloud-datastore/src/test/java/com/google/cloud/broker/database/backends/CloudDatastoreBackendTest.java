@@ -18,13 +18,23 @@ import java.util.*;
 import com.google.cloud.broker.database.DatabaseObjectNotFound;
 import com.google.cloud.datastore.*;
 import org.junit.After;
+import org.junit.ClassRule;
 import org.junit.Test;
 
 import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
 
 
 public class CloudDatastoreBackendTest {
 
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.DATASTORE_CONNECT_TIMEOUT, 20000,
+        AppSettings.DATASTORE_READ_TIMEOUT, 20000,
+        AppSettings.DATASTORE_RETRY_MAX_ATTEMPTS, 6,
+        AppSettings.DATASTORE_RETRY_TOTAL_TIMEOUT, 50000
+    ));
+
     // TODO: Still needs tests:
     // - Error when saving or deleting
 
@@ -53,6 +63,14 @@ public class CloudDatastoreBackendTest {
         assertEquals(list, l);
     }
     
+    /**
+     * Test that the same client is reused across operations.
+     */
+    @Test
+    public void testServiceIsShared() {
+        assertSame(CloudDatastoreBackend.getService(), CloudDatastoreBackend.getService());
+    }
+
     /**
      * Test saving a new model to the database.
      */
@@ -11,12 +11,11 @@
 
 package com.google.cloud.broker.database.backends;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.database.models.ModelCodec;
 import com.google.common.collect.ImmutableList;
 
 public class Foo extends Model {
@@ -36,24 +35,28 @@ public class Foo extends Model {
         setStringList(stringList);
     }
 
-    @Override
-    public Map<String, Object> toMap() {
-        HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put("id", id);
-        map.put("byteVal", byteVal);
-        map.put("longVal", longVal);
-        map.put("stringList", stringList);
-        return map;
-    }
-
-    public static Model fromMap(Map<String, Object> map) {
-        return new Foo(
-            (String) map.get("id"),
-            (byte[]) map.get("byteVal"),
-            (Long) map.get("longVal"),
-            (List<String>) map.get("stringList")
-        );
-    }
+    @SuppressWarnings("unchecked")
+    public static final ModelCodec<Foo> CODEC = new ModelCodec<>(
+        ModelCodec.stringField("id"),
+        ModelCodec.bytesField("byteVal"),
+        ModelCodec.longField("longVal"),
+        ModelCodec.stringListField("stringList")) {
+
+        @Override
+        public Foo decode(Object[] values) {
+            return new Foo(
+                (String) values[0],
+                (byte[]) values[1],
+                (Long) values[2],
+                (List<String>) values[3]
+            );
+        }
+
+        @Override
+        public Object[] encode(Foo foo) {
+            return new Object[] {foo.id, foo.byteVal, foo.longVal, foo.stringList};
+        }
+    };
 
     public void setDBId(String id) {
         setId(id);
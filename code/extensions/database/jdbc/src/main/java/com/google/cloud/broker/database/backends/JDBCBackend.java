@@ -15,20 +15,49 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.sql.*;
 import java.util.*;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
 
 import com.google.cloud.broker.checks.CheckResult;
 import com.google.cloud.broker.database.DatabaseObjectNotFound;
 import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.database.models.ModelCodec;
 import com.google.cloud.broker.settings.AppSettings;
 
 
-public class JDBCBackend extends AbstractDatabaseBackend {
+public class JDBCBackend extends AbstractDatabaseBackend implements AutoCloseable {
+
+    private final static ObjectMapper objectMapper = new ObjectMapper();
+    private final static TypeReference<List<String>> STRING_LIST_TYPE = new TypeReference<>() {};
+    // Rows fetched per round trip when streaming a table
+    private final static int FETCH_SIZE = 1000;
 
     private Connection connectionInstance;
+    private final String driverUrl;
+
+    public JDBCBackend() {
+        driverUrl = null;
+    }
+
+    /**
+     * Connects to the database configured in the given settings instead of the application's
+     * settings, e.g. to give each database shard its own connection.
+     */
+    public JDBCBackend(Config settings) {
+        driverUrl = settings.getString(AppSettings.DATABASE_JDBC_URL);
+    }
+
+    private String getDriverUrl() {
+        return (driverUrl != null) ? driverUrl : AppSettings.getInstance().getString(AppSettings.DATABASE_JDBC_URL);
+    }
 
     Connection getConnection() {
         if (connectionInstance == null) {
-            String url = AppSettings.getInstance().getString(AppSettings.DATABASE_JDBC_URL);
+            String url = getDriverUrl();
             try {
                 connectionInstance = DriverManager.getConnection(url);
             } catch (Exception e) {
@@ -38,13 +67,8 @@ public class JDBCBackend extends AbstractDatabaseBackend {
         return connectionInstance;
     }
 
-    private void formatValues(PreparedStatement statement, Map<String, Object> values) throws SQLException {
-        formatValues(statement, values, 1);
-    }
-
-    private void formatValues(PreparedStatement statement, Map<String, Object> values, int offset) throws SQLException {
-        for (Map.Entry<String, Object> entry : values.entrySet()) {
-            Object value = entry.getValue();
+    private void formatValues(PreparedStatement statement, Object[] values, int offset) throws SQLException {
+        for (Object value : values) {
             formatValue(statement, value, offset);
             offset += 1;
         }
@@ -59,56 +83,118 @@ public class JDBCBackend extends AbstractDatabaseBackend {
             statement.setLong(index, (long) value);
         } else if (value instanceof byte[]) {
             statement.setBytes(index, (byte[]) value);
+        } else if (value instanceof List) {
+            // String lists are stored as JSON arrays in text columns
+            try {
+                statement.setString(index, objectMapper.writeValueAsString(value));
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
         } else {
-            // TODO extend to other supported types
-            throw new UnsupportedOperationException("Unsupported type: " + value.getClass());
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass());
         }
     }
 
-    private Model convertResultSetToModel(ResultSet rs, Class modelClass) throws SQLException {
-        // Load result's values into a hashmap
-        HashMap<String, Object> values = new HashMap<>();
-        ResultSetMetaData rsmd = rs.getMetaData();
-        for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-            String name = rsmd.getColumnName(i);
-            values.put(name, rs.getObject(name));
+    private Object readValue(ResultSet rs, int index, ModelCodec.FieldType type) throws SQLException {
+        switch (type) {
+            case STRING:
+                return rs.getString(index);
+            case LONG:
+                long value = rs.getLong(index);
+                return rs.wasNull() ? null : value;
+            case BYTES:
+                return rs.getBytes(index);
+            case STRING_LIST:
+                String json = rs.getString(index);
+                if (json == null) {
+                    return null;
+                }
+                try {
+                    return objectMapper.readValue(json, STRING_LIST_TYPE);
+                } catch (JsonProcessingException e) {
+                    throw new RuntimeException(e);
+                }
+            default:
+                throw new IllegalArgumentException("Unsupported type: " + type);
         }
+    }
 
-        // Instantiate a new object
-        return Model.fromMap(modelClass, values);
+    private Model convertResultSetToModel(ResultSet rs, ModelCodec<Model> codec) throws SQLException {
+        // The columns are selected in the same order as the codec's fields
+        List<ModelCodec.Field> fields = codec.getFields();
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue(rs, i + 1, fields.get(i).getType());
+        }
+        return codec.decode(values);
+    }
+
+    private String getColumns(ModelCodec<Model> codec) {
+        StringBuilder columns = new StringBuilder();
+        for (ModelCodec.Field field : codec.getFields()) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(quote(field.getName()));
+        }
+        return columns.toString();
     }
 
     public List<Model> getAll(Class modelClass) {
-        Connection connection = getConnection();
+        List<Model> models = new ArrayList<>();
+        forEach(modelClass, models::add);
+        return models;
+    }
+
+    /**
+     * Streams the rows instead of loading the whole table in memory. Except with SQLite, which
+     * always reads rows one at a time, the rows are read over a dedicated connection, as streaming
+     * requires a transaction (PostgreSQL) or blocks the connection until all rows are read (MySQL, MariaDB).
+     */
+    @Override
+    public void forEach(Class modelClass, Consumer<Model> consumer) {
+        ModelCodec<Model> codec = ModelCodec.forClass(modelClass);
+        boolean dedicated = !getDialect().equals("sqlite");
+        Connection connection = null;
         PreparedStatement statement = null;
         ResultSet rs = null;
         try {
+            if (dedicated) {
+                connection = DriverManager.getConnection(getDriverUrl());
+                if (getDialect().equals("postgresql")) {
+                    // PostgreSQL only uses a cursor, and so honors the fetch size, outside of auto-commit mode
+                    connection.setAutoCommit(false);
+                }
+            }
+            else {
+                connection = getConnection();
+            }
             String table = modelClass.getSimpleName();
-            String query = "SELECT * FROM " + quote(table);
-            statement = connection.prepareStatement(query);
+            String query = "SELECT " + getColumns(codec) + " FROM " + quote(table);
+            statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(getStreamingFetchSize());
             rs = statement.executeQuery();
-            List<Model> models = new ArrayList<>();
             while (rs.next()) {
-                Model model = convertResultSetToModel(rs, modelClass);
-                models.add(model);
+                consumer.accept(convertResultSetToModel(rs, codec));
             }
-            return models;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } finally {
             try { if (rs != null) rs.close(); } catch (SQLException e) {throw new RuntimeException(e);}
             try { if (statement != null) statement.close(); } catch (SQLException e) {throw new RuntimeException(e);}
+            try { if (dedicated && connection != null) connection.close(); } catch (SQLException e) {throw new RuntimeException(e);}
         }
     }
 
     @Override
     public Model get(Class modelClass, String objectId) throws DatabaseObjectNotFound {
+        ModelCodec<Model> codec = ModelCodec.forClass(modelClass);
         Connection connection = getConnection();
         PreparedStatement statement = null;
         ResultSet rs = null;
         try {
             String table = modelClass.getSimpleName();
-            String query = "SELECT * FROM " + quote(table) + " WHERE " + quote("id") + " = ?";
+            String query = "SELECT " + getColumns(codec) + " FROM " + quote(table) + " WHERE " + quote("id") + " = ?";
             statement = connection.prepareStatement(query);
             formatValue(statement, objectId, 1);
             rs = statement.executeQuery();
@@ -119,7 +205,7 @@ public class JDBCBackend extends AbstractDatabaseBackend {
                     String.format("%s object not found: %s", modelClass.getSimpleName(), objectId));
             }
 
-            return convertResultSetToModel(rs, modelClass);
+            return convertResultSetToModel(rs, codec);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } finally {
@@ -135,7 +221,8 @@ public class JDBCBackend extends AbstractDatabaseBackend {
             model.setDBId(UUID.randomUUID().toString());
         }
 
-        Map<String, Object> map = model.toMap();
+        ModelCodec<Model> codec = ModelCodec.forClass(model.getClass());
+        Object[] modelValues = codec.encode(model);
         Connection connection = getConnection();
         PreparedStatement statement = null;
         try {
@@ -143,10 +230,9 @@ public class JDBCBackend extends AbstractDatabaseBackend {
             StringBuilder columns = new StringBuilder();
             StringBuilder values = new StringBuilder();
             StringBuilder update = new StringBuilder();
-            Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+            Iterator<ModelCodec.Field> iterator = codec.getFields().iterator();
             while (iterator.hasNext()) {
-                Map.Entry<String, Object> entry = iterator.next();
-                String column = entry.getKey();
+                String column = iterator.next().getName();
                 columns.append(quote(column));
                 values.append("?");
                 update.append(quote(column)).append(" = ?");
@@ -164,8 +250,8 @@ public class JDBCBackend extends AbstractDatabaseBackend {
 
             // Format the statement
             statement = connection.prepareStatement(query);
-            formatValues(statement, map);  // Format the INSERT values
-            formatValues(statement, map, 1 + map.size());  // Format the UPDATE values
+            formatValues(statement, modelValues, 1);  // Format the INSERT values
+            formatValues(statement, modelValues, 1 + modelValues.length);  // Format the UPDATE values
 
             // Run the query
             statement.executeUpdate();
@@ -201,12 +287,12 @@ public class JDBCBackend extends AbstractDatabaseBackend {
         PreparedStatement statement = null;
         try {
             String query;
-            if (numItems != null && numItems > 0) {
+            if (isLimited(numItems)) {
                 if (getDialect().equals("mariadb") || getDialect().equals("mysql")) {
                     query = "DELETE FROM " + quote(table) + " WHERE " + quote(field) + " <= ? ORDER BY " + quote(field) + " ASC LIMIT ?";
                 }
                 else {
-                    query = "DELETE FROM " + quote(table) + "WHERE " + getRowIdField() + " IN (SELECT " + getRowIdField() + " FROM" + quote(table) + " WHERE " + quote(field) + " <= ? ORDER BY " + quote(field) + " LIMIT ?)";
+                    query = "DELETE FROM " + quote(table) + " WHERE " + getRowIdField() + " IN (SELECT " + getRowIdField() + " FROM " + quote(table) + " WHERE " + quote(field) + " <= ? ORDER BY " + quote(field) + " LIMIT ?)";
                 }
                 statement = connection.prepareStatement(query);
                 formatValue(statement, cutoffTime, 1);
@@ -241,7 +327,7 @@ public class JDBCBackend extends AbstractDatabaseBackend {
                 quote("owner") + " VARCHAR(255)," +
                 quote("renewer") + " VARCHAR(255)," +
                 quote("target") + " VARCHAR(255)," +
-                quote("scope") + " VARCHAR(255)," +
+                quote("scopes") + " VARCHAR(255)," +
                 quote("expiresAt") + " BIGINT," +
                 quote("creationTime") + " BIGINT" +
             ");";
@@ -254,6 +340,9 @@ public class JDBCBackend extends AbstractDatabaseBackend {
             try { if (statement != null) statement.close(); } catch (SQLException e) {throw new RuntimeException(e);}
         }
 
+        // Index the expiry time so that expired sessions can be deleted without scanning the whole table
+        createIndex("Session", "expiresAt");
+
         // Create the RefreshToken table
         query =
             "CREATE TABLE IF NOT EXISTS " + quote("RefreshToken") + " (" +
@@ -269,6 +358,40 @@ public class JDBCBackend extends AbstractDatabaseBackend {
         } finally {
             try { if (statement != null) statement.close(); } catch (SQLException e) {throw new RuntimeException(e);}
         }
+
+        // Create the UserMapping table
+        query =
+            "CREATE TABLE IF NOT EXISTS " + quote("UserMapping") + " (" +
+                quote("id") + " VARCHAR(255) PRIMARY KEY," +
+                quote("googleIdentity") + " VARCHAR(255)" +
+            ");";
+        try {
+            statement = connection.prepareStatement(query);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try { if (statement != null) statement.close(); } catch (SQLException e) {throw new RuntimeException(e);}
+        }
+    }
+
+    private void createIndex(String table, String column) {
+        Connection connection = getConnection();
+        Statement statement = null;
+        String index = quote(table + "_" + column);
+        boolean mysql = getDialect().equals("mysql");
+        String query = "CREATE INDEX " + (mysql ? "" : "IF NOT EXISTS ") + index + " ON " + quote(table) + " (" + quote(column) + ")";
+        try {
+            statement = connection.createStatement();
+            statement.executeUpdate(query);
+        } catch (SQLException e) {
+            // MySQL doesn't support "IF NOT EXISTS" for indexes, so ignore its "duplicate key name" error instead
+            if (!mysql || e.getErrorCode() != MYSQL_DUPLICATE_KEY_NAME) {
+                throw new RuntimeException(e);
+            }
+        } finally {
+            try { if (statement != null) statement.close(); } catch (SQLException e) {throw new RuntimeException(e);}
+        }
     }
 
     @Override
@@ -283,16 +406,25 @@ public class JDBCBackend extends AbstractDatabaseBackend {
         }
     }
 
+    @Override
+    public void close() throws SQLException {
+        if (connectionInstance != null) {
+            connectionInstance.close();
+            connectionInstance = null;
+        }
+    }
+
     // Dialect-specific -----------------------------------------------------------------------------------------------
 
+    private static final int MYSQL_DUPLICATE_KEY_NAME = 1061;
+
     private static final String DIALECT_NOT_SUPPORTED = "Dialect `%s` is not currently supported by the JDBCDatabaseBackend.";
 
-    private static String getDialect() {
-        String url = AppSettings.getInstance().getString(AppSettings.DATABASE_JDBC_URL);
-        return url.split(":")[1];
+    private String getDialect() {
+        return getDriverUrl().split(":")[1];
     }
 
-    static String quote(String name) {
+    String quote(String name) {
         String dialect = getDialect();
         switch (dialect) {
             case "sqlite":
@@ -306,7 +438,7 @@ public class JDBCBackend extends AbstractDatabaseBackend {
         }
     }
 
-    private static String getBlobType() {
+    private String getBlobType() {
         String dialect = getDialect();
         switch (dialect) {
             case "sqlite":
@@ -320,7 +452,22 @@ public class JDBCBackend extends AbstractDatabaseBackend {
         }
     }
 
-    private static String getUpsertStatement() {
+    private int getStreamingFetchSize() {
+        String dialect = getDialect();
+        switch (dialect) {
+            case "mysql":
+                // MySQL Connector/J only streams rows one at a time, with this special value
+                return Integer.MIN_VALUE;
+            case "sqlite":
+            case "mariadb":
+            case "postgresql":
+                return FETCH_SIZE;
+            default:
+                throw new UnsupportedOperationException(String.format(DIALECT_NOT_SUPPORTED, dialect));
+        }
+    }
+
+    private String getUpsertStatement() {
         String dialect = getDialect();
         switch (dialect) {
             case "sqlite":
@@ -334,7 +481,7 @@ public class JDBCBackend extends AbstractDatabaseBackend {
         }
     }
 
-    private static String getRowIdField() {
+    private String getRowIdField() {
         String dialect = getDialect();
         switch (dialect) {
             case "postgresql":
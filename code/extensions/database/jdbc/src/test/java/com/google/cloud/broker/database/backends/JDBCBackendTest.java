@@ -14,13 +14,13 @@ package com.google.cloud.broker.database.backends;
 import static org.junit.Assert.*;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
 import com.google.cloud.broker.database.DatabaseObjectNotFound;
 import com.google.cloud.broker.oauth.RefreshToken;
-import static com.google.cloud.broker.database.backends.JDBCBackend.quote;
 
 
 public abstract class JDBCBackendTest {
@@ -43,12 +43,12 @@ public abstract class JDBCBackendTest {
     private static void dropTables(JDBCBackend backend) {
         // Delete all tables
         Connection connection = backend.getConnection();
-        String[] tables = {"RefreshToken", "Session"};
+        String[] tables = {"RefreshToken", "Session", "UserMapping"};
         Statement statement = null;
         for (String table: tables) {
             try {
                 statement = connection.createStatement();
-                statement.executeUpdate("DROP TABLE " + quote(table));
+                statement.executeUpdate("DROP TABLE " + backend.quote(table));
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             } finally {
@@ -87,7 +87,30 @@ public abstract class JDBCBackendTest {
         backend.initializeDatabase();
 
         // Check that the database now has tables
-        assertEquals(getNumTables(backend), 2);
+        assertEquals(getNumTables(backend), 3);
+
+        // Check that the session expiry time is indexed
+        assertTrue(getIndexedColumns(backend, "Session").contains("expiresAt"));
+
+        // Check that initializing the database again is harmless
+        backend.initializeDatabase();
+        assertEquals(getNumTables(backend), 3);
+    }
+
+    /**
+     * Returns the names of the indexed columns in the given table
+     */
+    private static List<String> getIndexedColumns(JDBCBackend backend, String table) {
+        Connection connection = backend.getConnection();
+        List<String> columns = new ArrayList<>();
+        try (ResultSet resultSet = connection.getMetaData().getIndexInfo(null, null, table, false, false)) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("COLUMN_NAME"));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return columns;
     }
 
     /**
@@ -99,7 +122,7 @@ public abstract class JDBCBackendTest {
         PreparedStatement statement = null;
         ResultSet rs = null;
         try {
-            String query = "SELECT * from " + quote("RefreshToken");
+            String query = "SELECT * from " + backend.quote("RefreshToken");
             statement = connection.prepareStatement(query);
             rs = statement.executeQuery();
             assertFalse(rs.next());
@@ -116,7 +139,7 @@ public abstract class JDBCBackendTest {
 
         // Check that the record was correctly created
         try {
-            String query = "SELECT * from " + quote("RefreshToken") + " WHERE id='alice@example.com'";
+            String query = "SELECT * from " + backend.quote("RefreshToken") + " WHERE id='alice@example.com'";
             statement = connection.prepareStatement(query);
             rs = statement.executeQuery();
             assertTrue(rs.next());
@@ -139,7 +162,7 @@ public abstract class JDBCBackendTest {
         Connection connection = backend.getConnection();
         PreparedStatement statement = null;
         try {
-            String query = "INSERT INTO " + quote("RefreshToken") + " (id, " + quote("creationTime") + " , value) VALUES (?, ?, ?);";
+            String query = "INSERT INTO " + backend.quote("RefreshToken") + " (id, " + backend.quote("creationTime") + " , value) VALUES (?, ?, ?);";
             statement = connection.prepareStatement(query);
             statement.setString(1, "alice@example.com");
             statement.setLong(2, 1111111111111L);
@@ -158,7 +181,7 @@ public abstract class JDBCBackendTest {
         // Check that the record was updated
         ResultSet rs = null;
         try {
-            String query = "SELECT * from " + quote("RefreshToken") + " WHERE id='alice@example.com'";
+            String query = "SELECT * from " + backend.quote("RefreshToken") + " WHERE id='alice@example.com'";
             statement = connection.prepareStatement(query);
             rs = statement.executeQuery();
             assertTrue(rs.next());
@@ -182,7 +205,7 @@ public abstract class JDBCBackendTest {
         Statement statement = null;
         ResultSet rs = null;
         try {
-            String query = "SELECT * from " + quote("RefreshToken");
+            String query = "SELECT * from " + backend.quote("RefreshToken");
             statement = connection.createStatement();
             rs = statement.executeQuery(query);
             assertFalse(rs.next());
@@ -199,7 +222,7 @@ public abstract class JDBCBackendTest {
 
         // Check that the record was correctly created
         try {
-            String query = "SELECT * from " + quote("RefreshToken");
+            String query = "SELECT * from " + backend.quote("RefreshToken");
             statement = connection.createStatement();
             rs = statement.executeQuery(query);
             assertTrue(rs.next());
@@ -227,7 +250,7 @@ public abstract class JDBCBackendTest {
         Connection connection = backend.getConnection();
         PreparedStatement statement = null;
         try {
-            String query = "INSERT INTO " + quote("RefreshToken") + " (id, " + quote("creationTime") + " , value) VALUES (?, ?, ?);";
+            String query = "INSERT INTO " + backend.quote("RefreshToken") + " (id, " + backend.quote("creationTime") + " , value) VALUES (?, ?, ?);";
             statement = connection.prepareStatement(query);
             statement.setString(1, "alice@example.com");
             statement.setLong(2, 1111111111111L);
@@ -266,7 +289,7 @@ public abstract class JDBCBackendTest {
         Connection connection = backend.getConnection();
         PreparedStatement statement = null;
         try {
-            String query = "INSERT INTO " + quote("RefreshToken") + " (id, " + quote("creationTime") + " , value) VALUES (?, ?, ?);";
+            String query = "INSERT INTO " + backend.quote("RefreshToken") + " (id, " + backend.quote("creationTime") + " , value) VALUES (?, ?, ?);";
             statement = connection.prepareStatement(query);
             statement.setString(1, "alice@example.com");
             statement.setLong(2, 1111111111111L);
@@ -285,7 +308,7 @@ public abstract class JDBCBackendTest {
         // Check that the record was deleted
         ResultSet rs = null;
         try {
-            String query = "SELECT * from " + quote("RefreshToken") + " WHERE id='alice@example.com';";
+            String query = "SELECT * from " + backend.quote("RefreshToken") + " WHERE id='alice@example.com';";
             statement = connection.prepareStatement(query);
             rs = statement.executeQuery();
             assertFalse(rs.next());
@@ -308,7 +331,7 @@ public abstract class JDBCBackendTest {
         PreparedStatement statement = null;
         for (int i=0; i < ids.size(); i++) {
             try {
-                String query = "INSERT INTO " + quote("RefreshToken") + " (id, " + quote("creationTime") + ") VALUES (?, ?);";
+                String query = "INSERT INTO " + backend.quote("RefreshToken") + " (id, " + backend.quote("creationTime") + ") VALUES (?, ?);";
                 statement = connection.prepareStatement(query);
                 statement.setString(1, ids.get(i));
                 statement.setLong(2, longVals.get(i));
@@ -338,7 +361,7 @@ public abstract class JDBCBackendTest {
         // Check that the expired items have been deleted
         ResultSet rs = null;
         try {
-            String query = "SELECT * from " + quote("RefreshToken");
+            String query = "SELECT * from " + backend.quote("RefreshToken");
             statement = connection.prepareStatement(query);
             rs = statement.executeQuery();
             int numberItemsLeft = 0;
@@ -355,4 +378,29 @@ public abstract class JDBCBackendTest {
         }
     }
 
+    /**
+     * Test saving and reading a string list field.
+     */
+    static void stringList(JDBCBackend backend) throws DatabaseObjectNotFound {
+        Connection connection = backend.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE " + backend.quote("Tags") + " (" +
+                backend.quote("id") + " VARCHAR(255) PRIMARY KEY, " + backend.quote("names") + " TEXT)");
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            backend.save(new Tags("a", List.of("x", "y, z")));
+            backend.save(new Tags("b", List.of()));
+            assertEquals(List.of("x", "y, z"), ((Tags) backend.get(Tags.class, "a")).getNames());
+            assertEquals(List.of(), ((Tags) backend.get(Tags.class, "b")).getNames());
+        } finally {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE " + backend.quote("Tags"));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
 }
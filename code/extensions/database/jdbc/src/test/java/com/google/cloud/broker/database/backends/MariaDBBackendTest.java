@@ -89,4 +89,9 @@ public class MariaDBBackendTest extends JDBCBackendTest {
         JDBCBackendTest.deleteExpiredItems(backend, true);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testStringList() throws DatabaseObjectNotFound {
+        JDBCBackendTest.stringList(backend);
+    }
+
+}
@@ -90,4 +90,9 @@ public class PostgreSQLBackendTest extends JDBCBackendTest {
         JDBCBackendTest.deleteExpiredItems(backend, true);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testStringList() throws DatabaseObjectNotFound {
+        JDBCBackendTest.stringList(backend);
+    }
+
+}
@@ -89,4 +89,9 @@ public class SQLiteBackendTest extends JDBCBackendTest {
         JDBCBackendTest.deleteExpiredItems(backend, true);
     }
 
+    @Test
+    public void testStringList() throws DatabaseObjectNotFound {
+        JDBCBackendTest.stringList(backend);
+    }
+
 }
@@ -0,0 +1,153 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.database.backends;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import com.google.cloud.broker.database.DatabaseObjectNotFound;
+import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.oauth.RefreshToken;
+import com.google.cloud.broker.settings.AppSettings;
+import com.google.cloud.broker.settings.SettingsOverride;
+
+public class ShardedDatabaseBackendTest {
+
+    private static ShardedDatabaseBackend backend;
+
+    // Each in-memory SQLite connection gets its own, separate database
+    private static Map<String, Object> shard() {
+        return Map.of(
+            "backend", "com.google.cloud.broker.database.backends.JDBCBackend",
+            "settings", Map.of(AppSettings.DATABASE_JDBC_URL, "jdbc:sqlite::memory:")
+        );
+    }
+
+    @ClassRule
+    public static SettingsOverride settingsOverride = new SettingsOverride(Map.of(
+        AppSettings.DATABASE_SHARDING_SHARDS, List.of(shard(), shard(), shard())
+    ));
+
+    @BeforeClass
+    public static void setupClass() {
+        backend = new ShardedDatabaseBackend();
+        backend.initializeDatabase();
+    }
+
+    @Test
+    public void testShardPrefix() {
+        assertEquals(0, backend.getShardIndex("0:abcd"));
+        assertEquals(2, backend.getShardIndex("2:abcd"));
+        // Out of range or non-numeric prefixes are hashed like any other ID
+        int hashed = backend.getShardIndex("7:abcd");
+        assertTrue(hashed >= 0 && hashed < 3);
+        int index = backend.getShardIndex("alice@example.com");
+        assertTrue(index >= 0 && index < 3);
+        assertEquals(index, backend.getShardIndex("alice@example.com"));
+    }
+
+    @Test
+    public void testSaveNewAssignsShard() throws DatabaseObjectNotFound {
+        RefreshToken token = new RefreshToken(null, "abcd".getBytes(), 1000L);
+        backend.save(token);
+        String id = token.getId();
+        int index = Integer.parseInt(id.substring(0, id.indexOf(ShardedDatabaseBackend.SHARD_SEPARATOR)));
+
+        // The token is only stored in the shard named in its ID
+        for (int i = 0; i < 3; i++) {
+            AbstractDatabaseBackend shard = backend.getShards().get(i);
+            if (i == index) {
+                assertArrayEquals("abcd".getBytes(), ((RefreshToken) shard.get(RefreshToken.class, id)).getValue());
+            }
+            else {
+                try {
+                    shard.get(RefreshToken.class, id);
+                    fail();
+                } catch (DatabaseObjectNotFound e) {
+                    // Expected
+                }
+            }
+        }
+        assertArrayEquals("abcd".getBytes(), ((RefreshToken) backend.get(RefreshToken.class, id)).getValue());
+        backend.delete(token);
+    }
+
+    @Test
+    public void testGetAllAndDeleteExpired() {
+        String[] users = {"alice@example.com", "bob@example.com", "carl@example.com", "dana@example.com"};
+        for (int i = 0; i < users.length; i++) {
+            backend.save(new RefreshToken(users[i], "abcd".getBytes(), (long) i));
+        }
+        List<Model> models = backend.getAll(RefreshToken.class);
+        assertEquals(4, models.size());
+        // Streamed from every shard
+        Set<String> ids = new HashSet<>();
+        backend.forEach(RefreshToken.class, model -> ids.add(model.getDBId()));
+        assertEquals(Set.of(users), ids);
+
+        assertEquals(1, backend.deleteExpiredItems(RefreshToken.class, "creationTime", 2L, 1));
+        assertEquals(2, backend.deleteExpiredItems(RefreshToken.class, "creationTime", 2L));
+        assertEquals(1, backend.getAll(RefreshToken.class).size());
+        backend.deleteExpiredItems(RefreshToken.class, "creationTime", 10L);
+    }
+
+    private static int countItems(AbstractDatabaseBackend shard) {
+        return shard.getAll(RefreshToken.class).size();
+    }
+
+    @Test
+    public void testDeleteExpiredSplitsLimit() {
+        // Two expired tokens in each shard
+        for (int i = 0; i < 3; i++) {
+            backend.save(new RefreshToken(i + ":a", "abcd".getBytes(), 1L));
+            backend.save(new RefreshToken(i + ":b", "abcd".getBytes(), 2L));
+        }
+        assertEquals(3, backend.deleteExpiredItems(RefreshToken.class, "creationTime", 10L, 3));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, countItems(backend.getShards().get(i)));
+        }
+
+        // Budget left unused by a shard goes to the others
+        backend.deleteExpiredItems(RefreshToken.class, "creationTime", 10L);
+        backend.save(new RefreshToken("0:a", "abcd".getBytes(), 1L));
+        backend.save(new RefreshToken("0:b", "abcd".getBytes(), 2L));
+        backend.save(new RefreshToken("0:c", "abcd".getBytes(), 3L));
+        assertEquals(3, backend.deleteExpiredItems(RefreshToken.class, "creationTime", 10L, 3));
+        assertEquals(0, countItems(backend.getShards().get(0)));
+
+        // No limit
+        backend.save(new RefreshToken("1:a", "abcd".getBytes(), 1L));
+        backend.save(new RefreshToken("2:a", "abcd".getBytes(), 1L));
+        assertEquals(2, backend.deleteExpiredItems(RefreshToken.class, "creationTime", 10L, 0));
+    }
+
+    @Test
+    public void testShardSettingsNotAccepted() {
+        Map<String, Object> shard = Map.of(
+            "backend", "com.google.cloud.broker.database.backends.DummyDatabaseBackend",
+            "settings", Map.of(AppSettings.DATABASE_JDBC_URL, "jdbc:sqlite::memory:")
+        );
+        try (SettingsOverride override = SettingsOverride.apply(Map.of(AppSettings.DATABASE_SHARDING_SHARDS, List.of(shard)))) {
+            new ShardedDatabaseBackend();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Database backend `com.google.cloud.broker.database.backends.DummyDatabaseBackend` doesn't " +
+                "accept shard-specific `settings`", e.getMessage());
+        }
+    }
+
+}
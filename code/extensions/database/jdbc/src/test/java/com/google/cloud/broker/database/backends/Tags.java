@@ -0,0 +1,60 @@
+// Copyright 2020 Google LLC
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.broker.database.backends;
+
+import java.util.List;
+
+import com.google.cloud.broker.database.models.Model;
+import com.google.cloud.broker.database.models.ModelCodec;
+
+/**
+ * Test model with a string list field.
+ */
+public class Tags extends Model {
+
+    private String id;
+    private List<String> names;
+
+    public Tags(String id, List<String> names) {
+        this.id = id;
+        this.names = names;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static final ModelCodec<Tags> CODEC = new ModelCodec<>(
+        ModelCodec.stringField("id"),
+        ModelCodec.stringListField("names")) {
+
+        @Override
+        public Tags decode(Object[] values) {
+            return new Tags((String) values[0], (List<String>) values[1]);
+        }
+
+        @Override
+        public Object[] encode(Tags tags) {
+            return new Object[] {tags.id, tags.names};
+        }
+    };
+
+    public void setDBId(String id) {
+        this.id = id;
+    }
+
+    public String getDBId() {
+        return id;
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+}
@@ -19,7 +19,10 @@ package com.google.cloud.broker.encryption.backends;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import com.google.api.client.googleapis.util.Utils;
 import com.google.api.services.cloudkms.v1.CloudKMS;
@@ -31,11 +34,13 @@ import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.broker.encryption.backends.keyset.KeysetManager;
 import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.CleartextKeysetHandle;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.KeysetWriter;
 import com.google.crypto.tink.aead.AeadConfig;
 import com.google.crypto.tink.aead.AeadKeyTemplates;
 import com.google.crypto.tink.proto.KeyTemplate;
+import com.google.crypto.tink.proto.Keyset;
 
 import com.google.cloud.broker.settings.AppSettings;
 import com.google.cloud.broker.utils.Constants;
@@ -58,16 +63,23 @@ public class CloudKMSBackend extends AbstractEncryptionBackend {
             throw new RuntimeException("Failed to register Tink Aead",e);
         }
     }
+    private KeysetHandle keysetHandle;
     private Aead aead;
     private static KeyTemplate KEY_TEMPLATE = AeadKeyTemplates.AES256_GCM;
 
-    private Aead getAead() {
-        if (aead == null) {
+    private KeysetHandle getKeysetHandle() {
+        if (keysetHandle == null) {
             String kekUri = AppSettings.getInstance().getString(AppSettings.ENCRYPTION_KEK_URI);
             String dekUri = AppSettings.getInstance().getString(AppSettings.ENCRYPTION_DEK_URI);
+            keysetHandle = readKeyset(dekUri, kekUri, getKMSClient());
+        }
+        return keysetHandle;
+    }
+
+    private Aead getAead() {
+        if (aead == null) {
             try {
-                CloudKMS kmsClient = getKMSClient();
-                aead = readKeyset(dekUri, kekUri, kmsClient).getPrimitive(Aead.class);
+                aead = getKeysetHandle().getPrimitive(Aead.class);
             } catch (GeneralSecurityException e) {
                 throw new RuntimeException("Failed to initialize encryption backend", e);
             }
@@ -93,6 +105,27 @@ public class CloudKMSBackend extends AbstractEncryptionBackend {
         }
     }
 
+    /**
+     * Derives the key with HMAC-SHA256 from the keyset's primary key, so rotating the
+     * keyset also rotates the derived keys.
+     */
+    @Override
+    public byte[] deriveKey(String purpose) {
+        Keyset keyset = CleartextKeysetHandle.getKeyset(getKeysetHandle());
+        for (Keyset.Key key : keyset.getKeyList()) {
+            if (key.getKeyId() == keyset.getPrimaryKeyId()) {
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(new SecretKeySpec(key.getKeyData().getValue().toByteArray(), "HmacSHA256"));
+                    return mac.doFinal(purpose.getBytes(StandardCharsets.UTF_8));
+                } catch (GeneralSecurityException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        throw new IllegalStateException("Keyset has no primary key");
+    }
+
     @Override
     public CheckResult checkConnection() {
         try {
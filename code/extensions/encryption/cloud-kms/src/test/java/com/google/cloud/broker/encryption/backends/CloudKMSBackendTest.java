@@ -52,4 +52,16 @@ public class CloudKMSBackendTest {
         assertArrayEquals(plainText, decrypted);
     }
 
+    /**
+     * Derived keys shall only depend on the purpose
+     */
+    @Test
+    public void testDeriveKey() {
+        CloudKMSBackend backend = new CloudKMSBackend();
+        byte[] key = backend.deriveKey("cache-keys");
+        assertEquals(32, key.length);
+        assertArrayEquals(key, new CloudKMSBackend().deriveKey("cache-keys"));
+        assertFalse(Arrays.equals(key, backend.deriveKey("something-else")));
+    }
+
 }